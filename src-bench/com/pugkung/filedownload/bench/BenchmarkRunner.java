@@ -0,0 +1,33 @@
+package com.pugkung.filedownload.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Entry point of target/benchmarks.jar. Accepts the usual JMH command line
+ * options, runs DownloadBenchmark when no benchmark is selected and always adds
+ * the GC profiler so the allocation rate (gc.alloc.rate) is reported.
+ *
+ *   mvn -P bench package
+ *   java -jar target/benchmarks.jar [jmh options, e.g. -p transferEngine=NIO largeFile]
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(commandLine)
+				.addProfiler(GCProfiler.class);
+
+		if (commandLine.getIncludes().isEmpty()) {
+			options.include(DownloadBenchmark.class.getSimpleName());
+		}
+
+		new Runner(options.build()).run();
+	}
+}
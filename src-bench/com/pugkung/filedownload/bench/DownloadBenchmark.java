@@ -0,0 +1,162 @@
+package com.pugkung.filedownload.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pugkung.filedownload.main.DownloadScheduler;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.HttpConnectionPool;
+import com.pugkung.filedownload.main.StreamCopier.TransferEngine;
+import com.pugkung.filedownload.main.URLDownloader;
+
+/*
+ * End-to-end URLDownloader benchmarks against loopback HTTP and FTP servers.
+ *
+ * Besides the JMH score (invocations per second), every benchmark reports
+ * "megabytes" (MB/s) and "files" (files/s) counters. Run through
+ * BenchmarkRunner to also get the allocation rate from the GC profiler.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DownloadBenchmark {
+
+	private final static int ONE_MB = 1024 * 1024;
+	private final static int SMALL_FILE_SIZE = 16 * 1024;
+	private final static int SMALL_BATCH_SIZE = 50;
+	private final static int LARGE_FILE_SIZE = 64 * ONE_MB;
+	private final static int CONCURRENT_FILE_SIZE = ONE_MB;
+	private final static int CONCURRENT_FILES = 64;
+	private final static int CONCURRENT_DOWNLOADS = 16;
+	private final static int FTP_FILE_SIZE = 8 * ONE_MB;
+
+	@Param({"COMMONS_IO", "NIO"})
+	public TransferEngine transferEngine;
+
+	@Param({"true", "false"})
+	public boolean resumeDownloads;
+
+	private LoopbackHttpServer httpServer;
+	private LoopbackFtpServer ftpServer;
+	private DownloadScheduler scheduler;
+	private File outputDirectory;
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Transferred {
+		public double megabytes;
+		public long files;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			megabytes = 0;
+			files = 0;
+		}
+
+		void add(int files, long bytes) {
+			this.files += files;
+			this.megabytes += bytes / (double) ONE_MB;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void startServers() throws IOException {
+		// one INFO line per file would dominate the small-file numbers
+		Configurator.setRootLevel(org.apache.logging.log4j.Level.WARN);
+		HttpConnectionPool.configure(CONCURRENT_DOWNLOADS, HttpConnectionPool.DEFAULT_IDLE_TIMEOUT_SECONDS);
+
+		byte[] payload = new byte[LARGE_FILE_SIZE];
+		new Random(42).nextBytes(payload);
+		httpServer = new LoopbackHttpServer(payload, CONCURRENT_DOWNLOADS * 2);
+		ftpServer = new LoopbackFtpServer(payload);
+		scheduler = new DownloadScheduler(CONCURRENT_DOWNLOADS, CONCURRENT_FILES);
+		outputDirectory = Files.createTempDirectory("download-bench").toFile();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServers() {
+		scheduler.shutdown();
+		httpServer.stop();
+		ftpServer.stop();
+
+		File[] outputs = outputDirectory.listFiles();
+		if (outputs != null) {
+			for (File output : outputs) {
+				output.delete();
+			}
+		}
+		outputDirectory.delete();
+	}
+
+	@Benchmark
+	public void smallFileBatch(Transferred transferred) {
+		for (int i = 0; i < SMALL_BATCH_SIZE; i++) {
+			download(httpServer.getURL(SMALL_FILE_SIZE, "small" + i + ".bin"));
+		}
+		transferred.add(SMALL_BATCH_SIZE, (long) SMALL_BATCH_SIZE * SMALL_FILE_SIZE);
+	}
+
+	@Benchmark
+	public void largeFile(Transferred transferred) {
+		download(httpServer.getURL(LARGE_FILE_SIZE, "large.bin"));
+		transferred.add(1, LARGE_FILE_SIZE);
+	}
+
+	@Benchmark
+	public void concurrentDownloads(Transferred transferred) throws InterruptedException {
+		long completedBefore = scheduler.getResultCount(DownloaderStatus.COMPLETE);
+		for (int i = 0; i < CONCURRENT_FILES; i++) {
+			scheduler.submit(newDownloader(httpServer.getURL(CONCURRENT_FILE_SIZE, "concurrent" + i + ".bin")));
+		}
+		scheduler.awaitCompletion();
+
+		long completed = scheduler.getResultCount(DownloaderStatus.COMPLETE) - completedBefore;
+		if (completed != CONCURRENT_FILES) {
+			throw new IllegalStateException((CONCURRENT_FILES - completed) + " concurrent downloads failed");
+		}
+		transferred.add(CONCURRENT_FILES, (long) CONCURRENT_FILES * CONCURRENT_FILE_SIZE);
+	}
+
+	@Benchmark
+	public void ftpFile(Transferred transferred) {
+		download(ftpServer.getURL(FTP_FILE_SIZE, "ftp.bin"));
+		transferred.add(1, FTP_FILE_SIZE);
+	}
+
+	private void download(String url) {
+		URLDownloader downloader = newDownloader(url);
+		downloader.run();
+		if (downloader.getResultCd() != DownloaderStatus.COMPLETE) {
+			throw new IllegalStateException("Download failed: " + url + " (" + downloader.getResultCd() + ")");
+		}
+	}
+
+	private URLDownloader newDownloader(String url) {
+		URLDownloader downloader = new URLDownloader(url, outputDirectory.getPath() + "/");
+		downloader.setTransferEngine(transferEngine);
+		downloader.setResumeEnabled(resumeDownloads);
+		return downloader;
+	}
+}
@@ -0,0 +1,195 @@
+package com.pugkung.filedownload.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Minimal passive-mode FTP stand-in for the benchmarks: just enough of RFC 959
+ * (login, CWD, TYPE, SIZE, EPSV/PASV, RETR) for the JDK ftp:// handler that
+ * URLDownloader uses. Paths follow the same /<size>/<name> scheme as
+ * LoopbackHttpServer. Not meant for anything outside the benchmarks.
+ */
+public class LoopbackFtpServer {
+
+	private final static int WRITE_CHUNK_SIZE = 64 * 1024;
+
+	private final ServerSocket controlSocket;
+	private final ExecutorService executor;
+	private final byte[] payload;
+	private volatile boolean running = true;
+
+	public LoopbackFtpServer(byte[] payload) throws IOException {
+		this.payload = payload;
+		this.controlSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "bench-ftp-" + threadNumber.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.execute(this::acceptSessions);
+	}
+
+	public String getURL(int size, String name) {
+		return "ftp://127.0.0.1:" + controlSocket.getLocalPort() + "/" + size + "/" + name;
+	}
+
+	public void stop() {
+		running = false;
+		try {
+			controlSocket.close();
+		} catch (IOException ex) {
+			// already closed
+		}
+		executor.shutdownNow();
+	}
+
+	private void acceptSessions() {
+		while (running) {
+			try {
+				final Socket client = controlSocket.accept();
+				executor.execute(() -> serve(client));
+			} catch (IOException ex) {
+				if (running) {
+					System.err.println("FTP stand-in stopped accepting: " + ex.getMessage());
+				}
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket client) {
+		String cwd = "/";
+		ServerSocket dataListener = null;
+
+		try (Socket control = client;
+				BufferedReader in = new BufferedReader(new InputStreamReader(control.getInputStream(), StandardCharsets.US_ASCII));
+				Writer out = new OutputStreamWriter(control.getOutputStream(), StandardCharsets.US_ASCII)) {
+			reply(out, "220 Loopback FTP ready");
+
+			String line;
+			while ((line = in.readLine()) != null) {
+				int space = line.indexOf(' ');
+				String command = ((space < 0) ? line : line.substring(0, space)).toUpperCase();
+				String argument = (space < 0) ? "" : line.substring(space + 1).trim();
+
+				switch (command) {
+				case "USER":
+					reply(out, "331 Any password will do");
+					break;
+				case "PASS":
+					reply(out, "230 Logged in");
+					break;
+				case "TYPE":
+				case "MODE":
+				case "STRU":
+				case "NOOP":
+					reply(out, "200 OK");
+					break;
+				case "PWD":
+					reply(out, "257 \"" + cwd + "\"");
+					break;
+				case "CWD":
+					cwd = resolve(cwd, argument);
+					reply(out, "250 Directory changed");
+					break;
+				case "SIZE": {
+					int size = PayloadPath.sizeOf(resolve(cwd, argument), payload.length);
+					reply(out, (size < 0) ? "550 No such file" : "213 " + size);
+					break;
+				}
+				case "EPSV":
+				case "PASV":
+					closeQuietly(dataListener);
+					dataListener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+					reply(out, passiveReply(command, dataListener.getLocalPort()));
+					break;
+				case "RETR":
+					retrieve(out, dataListener, resolve(cwd, argument));
+					closeQuietly(dataListener);
+					dataListener = null;
+					break;
+				case "QUIT":
+					reply(out, "221 Bye");
+					return;
+				default:
+					reply(out, "502 Command not implemented");
+				}
+			}
+		} catch (SocketException ex) {
+			// client went away
+		} catch (IOException ex) {
+			System.err.println("FTP stand-in session failed: " + ex.getMessage());
+		} finally {
+			closeQuietly(dataListener);
+		}
+	}
+
+	private void retrieve(Writer out, ServerSocket dataListener, String path) throws IOException {
+		int size = PayloadPath.sizeOf(path, payload.length);
+		if (size < 0) {
+			reply(out, "550 No such file");
+			return;
+		}
+		if (dataListener == null) {
+			reply(out, "425 Use PASV or EPSV first");
+			return;
+		}
+
+		reply(out, "150 Opening BINARY mode data connection (" + size + " bytes)");
+		try (Socket data = dataListener.accept(); OutputStream dataOut = data.getOutputStream()) {
+			for (int offset = 0; offset < size; offset += WRITE_CHUNK_SIZE) {
+				dataOut.write(payload, offset, Math.min(WRITE_CHUNK_SIZE, size - offset));
+			}
+		}
+		reply(out, "226 Transfer complete");
+	}
+
+	private static String passiveReply(String command, int port) {
+		if (command.equals("EPSV")) {
+			return "229 Entering Extended Passive Mode (|||" + port + "|)";
+		}
+		return "227 Entering Passive Mode (127,0,0,1," + (port >> 8) + "," + (port & 0xff) + ")";
+	}
+
+	private static String resolve(String cwd, String path) {
+		if (path.startsWith("/")) {
+			return path;
+		}
+		return cwd.endsWith("/") ? cwd + path : cwd + "/" + path;
+	}
+
+	private static void reply(Writer out, String line) throws IOException {
+		out.write(line + "\r\n");
+		out.flush();
+	}
+
+	private static void closeQuietly(ServerSocket socket) {
+		if (socket == null) {
+			return;
+		}
+		try {
+			socket.close();
+		} catch (IOException ex) {
+			// nothing to clean up
+		}
+	}
+}
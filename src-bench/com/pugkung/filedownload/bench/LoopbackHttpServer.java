@@ -0,0 +1,80 @@
+package com.pugkung.filedownload.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Loopback HTTP server for the benchmarks. A request for /<size>/<name>
+ * returns the first <size> bytes of a payload generated once at startup, so
+ * the server adds as little work per byte as possible.
+ */
+public class LoopbackHttpServer {
+
+	private final static int WRITE_CHUNK_SIZE = 64 * 1024;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final byte[] payload;
+
+	public LoopbackHttpServer(byte[] payload, int handlerThreads) throws IOException {
+		this.payload = payload;
+
+		executor = Executors.newFixedThreadPool(handlerThreads, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "bench-http-" + threadNumber.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public String getURL(int size, String name) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + size + "/" + name;
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			int size = PayloadPath.sizeOf(exchange.getRequestURI().getPath(), payload.length);
+			if (size < 0) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+
+			exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Content-Length", String.valueOf(size));
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+
+			exchange.sendResponseHeaders(200, size);
+			try (OutputStream out = exchange.getResponseBody()) {
+				for (int offset = 0; offset < size; offset += WRITE_CHUNK_SIZE) {
+					out.write(payload, offset, Math.min(WRITE_CHUNK_SIZE, size - offset));
+				}
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+}
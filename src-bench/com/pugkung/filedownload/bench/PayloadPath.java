@@ -0,0 +1,24 @@
+package com.pugkung.filedownload.bench;
+
+/*
+ * Both loopback servers address payloads as /<size>/<name>.
+ */
+class PayloadPath {
+
+	/*
+	 * Returns the requested size, or -1 when the path does not start with a
+	 * size between 0 and the payload length.
+	 */
+	static int sizeOf(String path, int payloadLength) {
+		String trimmed = path.startsWith("/") ? path.substring(1) : path;
+		int slash = trimmed.indexOf('/');
+		String sizePart = (slash < 0) ? trimmed : trimmed.substring(0, slash);
+
+		try {
+			int size = Integer.parseInt(sizePart);
+			return (size >= 0 && size <= payloadLength) ? size : -1;
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.pugkung.filedownload.main;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+
+/*
+ * Non-blocking HTTP/HTTPS downloader built on java.net.http.HttpClient. All
+ * instances share one client, so a few selector and handler threads drive every
+ * transfer and HTTP/2 servers multiplex them over a single connection.
+ *
+ * Compiled only by the java11 profile; FileDownloadClient loads it reflectively.
+ */
+public class HttpClientDownloader extends FileDownloader implements AsyncFileDownloader {
+
+	private final static Duration CONNECTION_TIMEOUT_LIMIT = Duration.ofMillis(10000);
+	private final static Duration RESPONSE_TIMEOUT_LIMIT = Duration.ofMillis(10000);
+	private final static int HANDLER_THREADS = 4;
+
+	private final static HttpClient sharedClient = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.connectTimeout(CONNECTION_TIMEOUT_LIMIT)
+			.executor(newHandlerExecutor())
+			.build();
+
+	public HttpClientDownloader(String sourceURI, String outputDirectory) {
+		super(sourceURI, outputDirectory);
+
+		logger = LogManager.getLogger(HttpClientDownloader.class);
+	}
+
+	@Override
+	public void run() {
+		setResultCd(downloadAsync().join());
+	}
+
+	@Override
+	public DownloaderStatus downloadFile(String sourceURI, String outputFilePath) {
+		return download(sourceURI, outputFilePath).join();
+	}
+
+	@Override
+	public CompletableFuture<DownloaderStatus> downloadAsync() {
+		resetAttempt();
+		final long startTime = System.nanoTime();
+		return download(getSourceURI(), resolveOutputFilePath()).thenApply(status -> {
+			setResultCd(status);
+			logSummary(status, System.nanoTime() - startTime);
+			return status;
+		});
+	}
+
+	private CompletableFuture<DownloaderStatus> download(String sourceURI, String outputFilePath) {
+		if (!claimOutput(outputFilePath)) {
+			return CompletableFuture.completedFuture(DownloaderStatus.IO_ERROR);
+		}
+		return transfer(sourceURI, outputFilePath).whenComplete((status, ex) -> releaseOutput(outputFilePath));
+	}
+
+	private CompletableFuture<DownloaderStatus> transfer(String sourceURI, String outputFilePath) {
+		logger.debug("Start downloading: {}", sourceURI);
+
+		HttpRequest request;
+		Path outputFile;
+		Path partFile;
+		try {
+			outputFile = Paths.get(outputFilePath);
+			partFile = ResumableDownloader.getPartFile(outputFile.toFile()).toPath();
+			request = HttpRequest.newBuilder(new URI(sourceURI))
+					.timeout(RESPONSE_TIMEOUT_LIMIT)
+					.GET()
+					.build();
+		} catch (Exception ex) {
+			setFailureCause(ex);
+			return CompletableFuture.completedFuture(DownloaderStatus.URL_ERROR);
+		}
+
+		DownloadMetrics.Transfer transfer = DownloadMetrics.getSharedMetrics().startTransfer(sourceURI);
+		final long requestStart = System.nanoTime();
+		BodyHandler<Path> handler = fileOnSuccess(partFile);
+		return sharedClient.sendAsync(request, responseInfo -> {
+					// called when the response headers arrive
+					DownloadMetrics.getSharedMetrics().recordTimeToFirstByte(System.nanoTime() - requestStart);
+					return handler.apply(responseInfo);
+				})
+				.handle((response, ex) -> {
+					if (ex != null) {
+						Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+						setFailureCause((cause instanceof Exception) ? (Exception) cause : new IOException(cause));
+					}
+					else if (response.statusCode() / 100 != 2) {
+						setFailureCause(new HttpStatusException(response.statusCode(),
+								"Server returned HTTP " + response.statusCode() + " for " + sourceURI,
+								HttpStatusException.parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null))));
+					}
+					else {
+						countBytes(transfer, partFile);
+						try {
+							OutputLayout.moveIntoPlace(partFile, outputFile);
+							transfer.finish(true);
+							setBytesTransferred(transfer.getBytes());
+							return DownloaderStatus.COMPLETE;
+						} catch (IOException moveFailure) {
+							setFailureCause(moveFailure);
+						}
+					}
+
+					transfer.finish(false);
+					partFile.toFile().delete();
+					return DownloaderStatus.IO_ERROR;
+				});
+	}
+
+	/*
+	 * Streams 2xx bodies into the .part file, which replaces the output file once
+	 * complete; error bodies are discarded.
+	 */
+	private static BodyHandler<Path> fileOnSuccess(Path outputFile) {
+		return responseInfo -> {
+			if (responseInfo.statusCode() / 100 == 2) {
+				return BodySubscribers.ofFile(outputFile,
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			}
+			return BodySubscribers.replacing(outputFile);
+		};
+	}
+
+	/*
+	 * BodySubscribers.ofFile writes without a hook per chunk, so the body is counted once it is on disk.
+	 */
+	private static void countBytes(DownloadMetrics.Transfer transfer, Path outputFile) {
+		try {
+			transfer.add(Files.size(outputFile));
+		} catch (IOException ex) {
+			// metrics only
+		}
+	}
+
+	private static ExecutorService newHandlerExecutor() {
+		return Executors.newFixedThreadPool(HANDLER_THREADS, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "http-client-" + threadNumber.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+}
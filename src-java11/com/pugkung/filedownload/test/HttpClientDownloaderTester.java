@@ -0,0 +1,162 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.ContentStore;
+import com.pugkung.filedownload.main.DownloadScheduler;
+import com.pugkung.filedownload.main.FileDownloadClient;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.HttpClientDownloader;
+
+public class HttpClientDownloaderTester {
+
+	private LocalHttpServer server;
+
+	@After
+	public void stopServer() {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void TestHttpClientDownloader_downloadAsync() throws Exception {
+		server = new LocalHttpServer(256 * 1024, false);
+		String testURL = server.getURL("/file.bin");
+		File outputDir = Files.createTempDirectory("httpclient").toFile();
+		outputDir.deleteOnExit();
+
+		HttpClientDownloader fd = new HttpClientDownloader(testURL, outputDir.getPath() + "/");
+		DownloaderStatus status = fd.downloadAsync().get();
+
+		File outputFile = new File(fd.getOutputFilePath());
+		outputFile.deleteOnExit();
+		assertEquals(DownloaderStatus.COMPLETE, status);
+		assertEquals(DownloaderStatus.COMPLETE, fd.getResultCd());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+	}
+
+	@Test
+	public void TestHttpClientDownloader_invalidURLAsInput() throws Exception {
+		HttpClientDownloader fd = new HttpClientDownloader("not_an_url", "");
+
+		assertEquals(DownloaderStatus.URL_ERROR, fd.downloadAsync().get());
+	}
+
+	@Test
+	public void TestHttpClientDownloader_schedulerLimitsInFlightTransfers() throws Exception {
+		server = new LocalHttpServer(32 * 1024, false);
+		File outputDir = Files.createTempDirectory("httpclient").toFile();
+		outputDir.deleteOnExit();
+		DownloadScheduler scheduler = new DownloadScheduler(3);
+		List<CompletableFuture<DownloaderStatus>> results = new ArrayList<CompletableFuture<DownloaderStatus>>();
+
+		for (int i = 0; i < 20; i++) {
+			HttpClientDownloader fd = new HttpClientDownloader(server.getURL("/file" + i + ".bin"), outputDir.getPath() + "/");
+			results.add(scheduler.submitAsync(fd));
+			assertTrue(scheduler.getActiveCount() <= 3);
+		}
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+
+		for (CompletableFuture<DownloaderStatus> result : results) {
+			assertEquals(DownloaderStatus.COMPLETE, result.get());
+		}
+		assertEquals(20, scheduler.getResultCount(DownloaderStatus.COMPLETE));
+		for (File item : outputDir.listFiles()) {
+			item.delete();
+		}
+	}
+
+	@Test
+	public void TestHttpClientDownloader_asyncEngineVerifiesChecksums() throws Exception {
+		server = new LocalHttpServer(32 * 1024, false);
+		String testURL = server.getURL("/file.bin");
+		File outputDir = Files.createTempDirectory("httpclient").toFile();
+		File journalFile = new File(outputDir, "journal.log");
+		File configFile = new File(outputDir, "config.properties");
+
+		Properties props = new Properties();
+		props.setProperty("outputPath", outputDir.getPath() + "/");
+		props.setProperty("asyncHttpEngine", "true");
+		props.setProperty("journalFile", journalFile.getPath());
+		props.setProperty("src1", testURL);
+		props.setProperty("src1.checksum", "sha256:" + String.format("%064d", 0));
+		try (FileOutputStream out = new FileOutputStream(configFile)) {
+			props.store(out, null);
+		}
+		FileDownloadClient.main(new String[] { configFile.getPath() });
+
+		String journal = new String(Files.readAllBytes(journalFile.toPath()), StandardCharsets.UTF_8);
+		assertTrue(journal, journal.contains("FAILED\t" + testURL + "\t" + DownloaderStatus.CHECKSUM_ERROR));
+		for (File item : outputDir.listFiles()) {
+			item.delete();
+		}
+		outputDir.delete();
+	}
+
+	@Test
+	public void TestHttpClientDownloader_asyncEngineKeepsContentStore() throws Exception {
+		server = new LocalHttpServer(32 * 1024, false);
+		File outputDir = Files.createTempDirectory("httpclient").toFile();
+		File storeDir = new File(outputDir, "store");
+		File configFile = new File(outputDir, "config.properties");
+
+		Properties props = new Properties();
+		props.setProperty("outputPath", outputDir.getPath() + "/");
+		props.setProperty("asyncHttpEngine", "true");
+		props.setProperty("contentStore", storeDir.getPath());
+		props.setProperty("src1", server.getURL("/file.bin"));
+		try (FileOutputStream out = new FileOutputStream(configFile)) {
+			props.store(out, null);
+		}
+		FileDownloadClient.main(new String[] { configFile.getPath() });
+
+		String hash = ContentStore.toHex(MessageDigest.getInstance(ContentStore.DIGEST_ALGORITHM).digest(server.getContent()));
+		assertTrue(Files.exists(new ContentStore(storeDir.getPath()).getObjectPath(hash)));
+		try (Stream<Path> paths = Files.walk(outputDir.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	@Test
+	public void TestHttpClientDownloader_asyncEngineKeepsBandwidthCaps() throws Exception {
+		server = new LocalHttpServer(48 * 1024, false);
+		File outputDir = Files.createTempDirectory("httpclient").toFile();
+		File configFile = new File(outputDir, "config.properties");
+
+		Properties props = new Properties();
+		props.setProperty("outputPath", outputDir.getPath() + "/");
+		props.setProperty("asyncHttpEngine", "true");
+		props.setProperty("maxBandwidthPerDownload", "16");
+		props.setProperty("src1", server.getURL("/file.bin"));
+		try (FileOutputStream out = new FileOutputStream(configFile)) {
+			props.store(out, null);
+		}
+		long startTime = System.currentTimeMillis();
+		FileDownloadClient.main(new String[] { configFile.getPath() });
+		long elapsed = System.currentTimeMillis() - startTime;
+
+		// 48 KB at 16 KB/s, less the initial burst
+		assertTrue("took " + elapsed + "ms", elapsed >= 2000);
+		try (Stream<Path> paths = Files.walk(outputDir.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package com.pugkung.filedownload.main;
+
+import java.io.Closeable;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+
+/*
+ * Tunes the scheduler's concurrency limit with additive increase and
+ * multiplicative decrease (AIMD). At the end of every sample window a timer
+ * compares the bytes moved by all running downloads (DownloadMetrics) and the
+ * mean time to first byte of the responses that arrived in the window with
+ * those of the previous window.
+ *
+ * - throughput improved and work is waiting: one more concurrent download
+ * - timeout, HTTP 429 or HTTP 503: halve the limit at once (at most once per window)
+ * - many I/O errors, or throughput fell while time to first byte rose: one fewer
+ * - throughput fell and not a single response arrived (a stall): one fewer
+ */
+public class AdaptiveConcurrencyController implements DownloadScheduler.DownloadListener, Closeable {
+
+	public final static int DEFAULT_INITIAL_LIMIT = 2;
+	public final static long DEFAULT_SAMPLE_WINDOW_MILLIS = 2000;
+	private final static double MIN_THROUGHPUT_GAIN = 0.05;
+	private final static double THROUGHPUT_DROP = 0.2;
+	private final static double LATENCY_RISE = 0.2;
+	private final static double MAX_ERROR_RATIO = 0.25;
+
+	private Logger logger = LogManager.getLogger(AdaptiveConcurrencyController.class);
+
+	private final DownloadScheduler scheduler;
+	private final DownloadMetrics metrics;
+	private final int minLimit;
+	private final int maxLimit;
+	private final long sampleWindowNanos;
+	private final ScheduledExecutorService sampleTimer;
+
+	// current window and previous window results, guarded by this
+	private long windowStartNanos;
+	private long lastBackoffNanos;
+	private long windowStartBytes;
+	private long windowStartResponses;
+	private double windowStartResponseSeconds;
+	private int windowCompletions = 0;
+	private int windowErrors = 0;
+	private double previousThroughput = 0;
+	private double previousLatencySeconds = 0;
+
+	private AdaptiveConcurrencyController(DownloadScheduler scheduler, DownloadMetrics metrics, int minLimit,
+			int maxLimit, long sampleWindowMillis) {
+		this.scheduler = scheduler;
+		this.metrics = metrics;
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, Math.min(maxLimit, scheduler.getMaxConcurrentDownloads()));
+		this.sampleWindowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, sampleWindowMillis));
+		this.sampleTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "adaptive-concurrency");
+			t.setDaemon(true);
+			return t;
+		});
+
+		long now = System.nanoTime();
+		this.lastBackoffNanos = now - sampleWindowNanos;
+		startWindow(now);
+	}
+
+	/*
+	 * Takes over the scheduler's concurrency limit, starting at
+	 * DEFAULT_INITIAL_LIMIT, until close() is called.
+	 */
+	public static AdaptiveConcurrencyController attach(DownloadScheduler scheduler) {
+		return attach(scheduler, DownloadMetrics.getSharedMetrics(), 1, scheduler.getMaxConcurrentDownloads(),
+				DEFAULT_INITIAL_LIMIT, DEFAULT_SAMPLE_WINDOW_MILLIS);
+	}
+
+	public static AdaptiveConcurrencyController attach(DownloadScheduler scheduler, DownloadMetrics metrics,
+			int minLimit, int maxLimit, int initialLimit, long sampleWindowMillis) {
+		AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(scheduler, metrics, minLimit,
+				maxLimit, sampleWindowMillis);
+		scheduler.setConcurrencyLimit(controller.clamp(initialLimit));
+		scheduler.addDownloadListener(controller);
+		long period = TimeUnit.NANOSECONDS.toMillis(controller.sampleWindowNanos);
+		controller.sampleTimer.scheduleWithFixedDelay(controller::sample, period, period, TimeUnit.MILLISECONDS);
+		return controller;
+	}
+
+	/*
+	 * Stops adjusting; the limit stays where it is.
+	 */
+	@Override
+	public void close() {
+		sampleTimer.shutdownNow();
+		scheduler.removeDownloadListener(this);
+	}
+
+	@Override
+	public synchronized void downloadFinished(FileDownloader downloader, DownloaderStatus status, long elapsedNanos) {
+		if (isOverloadSignal(downloader.getFailureCause()) && backOff(System.nanoTime(), downloader.getSourceURI())) {
+			return;
+		}
+
+		windowCompletions++;
+		if (status == DownloaderStatus.IO_ERROR) {
+			windowErrors++;
+		}
+	}
+
+	public int getConcurrencyLimit() {
+		return scheduler.getConcurrencyLimit();
+	}
+
+	/*
+	 * Ends the current sample window and adjusts the limit. Called by the timer
+	 * once per window.
+	 */
+	public synchronized void sample() {
+		long now = System.nanoTime();
+		if (scheduler.getActiveCount() == 0 && scheduler.getQueuedCount() == 0) {
+			// nothing ran, so there is nothing to compare
+			startWindow(now);
+			return;
+		}
+
+		double seconds = Math.max(now - windowStartNanos, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+		double throughput = (metrics.getBytesTransferred() - windowStartBytes) / seconds;
+		long responses = metrics.getTimeToFirstByteCount() - windowStartResponses;
+		double latencySeconds = (responses > 0) ?
+				(metrics.getTimeToFirstByteSeconds() - windowStartResponseSeconds) / responses : previousLatencySeconds;
+		int current = scheduler.getConcurrencyLimit();
+		int next = current;
+
+		if (windowErrors > 0 && windowErrors > windowCompletions * MAX_ERROR_RATIO) {
+			next = clamp(current - 1);
+		}
+		else if (throughput > previousThroughput * (1 + MIN_THROUGHPUT_GAIN)) {
+			// growing only helps when downloads are waiting for a slot
+			if (scheduler.getQueuedCount() > 0) {
+				next = clamp(current + 1);
+			}
+		}
+		else if (throughput < previousThroughput * (1 - THROUGHPUT_DROP) &&
+				(responses == 0 || latencySeconds > previousLatencySeconds * (1 + LATENCY_RISE))) {
+			next = clamp(current - 1);
+		}
+
+		if (next != current) {
+			scheduler.setConcurrencyLimit(next);
+			logger.debug("Concurrency limit {} -> {} ({} KB/s, {} responses, {}ms to first byte, {}/{} errors)",
+						Unbox.box(current), Unbox.box(next), Unbox.box((long) (throughput / 1024)), Unbox.box(responses),
+						Unbox.box((long) (latencySeconds * 1000)), Unbox.box(windowErrors), Unbox.box(windowCompletions));
+		}
+
+		previousThroughput = throughput;
+		previousLatencySeconds = latencySeconds;
+		startWindow(now);
+	}
+
+	/*
+	 * Returns false when a back-off already happened within the current window;
+	 * a burst of 503s from one overload only counts once.
+	 */
+	private boolean backOff(long now, String sourceURI) {
+		if (now - lastBackoffNanos < sampleWindowNanos) {
+			return false;
+		}
+
+		int current = scheduler.getConcurrencyLimit();
+		int reduced = clamp(current / 2);
+		lastBackoffNanos = now;
+		scheduler.setConcurrencyLimit(reduced);
+		logger.info("Server overloaded ({}), concurrency limit {} -> {}", sourceURI, Unbox.box(current), Unbox.box(reduced));
+
+		// throughput measured at the old limit is no reference for the new one
+		previousThroughput = 0;
+		previousLatencySeconds = 0;
+		startWindow(now);
+		return true;
+	}
+
+	private void startWindow(long now) {
+		windowStartNanos = now;
+		windowStartBytes = metrics.getBytesTransferred();
+		windowStartResponses = metrics.getTimeToFirstByteCount();
+		windowStartResponseSeconds = metrics.getTimeToFirstByteSeconds();
+		windowCompletions = 0;
+		windowErrors = 0;
+	}
+
+	private int clamp(int limit) {
+		return Math.max(minLimit, Math.min(limit, maxLimit));
+	}
+
+	/*
+	 * Timeouts and 429/503 answers mean the server or the path to it is saturated.
+	 * Plain commons-io copies only report the status code in the message.
+	 */
+	private static boolean isOverloadSignal(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SocketTimeoutException) {
+				return true;
+			}
+
+			int statusCode = HttpStatusException.statusCodeOf(cause);
+			if (statusCode == 429 || statusCode == 503) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,16 @@
+package com.pugkung.filedownload.main;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+
+/*
+ * Downloader that runs its transfer without holding the calling thread.
+ * DownloadScheduler.submitAsync() limits how many of these are in flight.
+ */
+public interface AsyncFileDownloader {
+
+	CompletableFuture<DownloaderStatus> downloadAsync();
+
+	String getSourceURI();
+}
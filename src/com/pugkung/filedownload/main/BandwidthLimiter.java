@@ -0,0 +1,152 @@
+package com.pugkung.filedownload.main;
+
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Bandwidth caps shared by all downloads: one global bucket, one bucket per
+ * host and one bucket per download. A rate of UNLIMITED disables that cap.
+ *
+ * Rates can be changed while downloads are running, also through JMX
+ * (BandwidthLimiterMBean); every Throttle picks up the new values on its next
+ * chunk.
+ *
+ * Host buckets are looked up for every chunk, so once there are more than
+ * HOST_SWEEP_THRESHOLD hosts, full ones can be dropped and recreated when
+ * their host comes back. A run over many hosts keeps only the busy ones.
+ */
+public class BandwidthLimiter implements BandwidthLimiterMBean {
+
+	public final static String OBJECT_NAME = "com.pugkung.filedownload:type=BandwidthLimiter";
+	public final static long UNLIMITED = TokenBucket.UNLIMITED;
+
+	private final static int HOST_SWEEP_THRESHOLD = 64;
+
+	private final static BandwidthLimiter sharedLimiter = new BandwidthLimiter();
+
+	private final TokenBucket globalBucket = new TokenBucket(UNLIMITED);
+	private final ConcurrentMap<String, TokenBucket> hostBuckets = new ConcurrentHashMap<String, TokenBucket>();
+	private volatile long perHostRate = UNLIMITED;
+	private volatile long perDownloadRate = UNLIMITED;
+
+	public static BandwidthLimiter getSharedLimiter() {
+		return sharedLimiter;
+	}
+
+	public void registerMBean() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (!server.isRegistered(name)) {
+			server.registerMBean(this, name);
+		}
+	}
+
+	/*
+	 * Creates the throttle for one download. Segments of the same download
+	 * may share it across threads.
+	 */
+	public Throttle newThrottle(String sourceURI) {
+		return new Throttle(DownloadScheduler.hostKeyOf(sourceURI));
+	}
+
+	/*
+	 * Hosts that currently have a bucket.
+	 */
+	@Override
+	public int getHostCount() {
+		return hostBuckets.size();
+	}
+
+	private TokenBucket hostBucket(String hostKey) {
+		TokenBucket hostBucket = hostBuckets.get(hostKey);
+		if (hostBucket == null) {
+			TokenBucket created = new TokenBucket(perHostRate);
+			hostBucket = hostBuckets.putIfAbsent(hostKey, created);
+			if (hostBucket == null) {
+				hostBucket = created;
+				if (hostBuckets.size() > HOST_SWEEP_THRESHOLD) {
+					removeFullHostBuckets(hostKey);
+				}
+			}
+		}
+		return hostBucket;
+	}
+
+	private void removeFullHostBuckets(String keptHostKey) {
+		for (Map.Entry<String, TokenBucket> entry : hostBuckets.entrySet()) {
+			if (!entry.getKey().equals(keptHostKey) && entry.getValue().isFull()) {
+				hostBuckets.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	@Override
+	public boolean isLimited() {
+		return globalBucket.getRate() > UNLIMITED || perHostRate > UNLIMITED || perDownloadRate > UNLIMITED;
+	}
+
+	@Override
+	public long getGlobalRate() {
+		return globalBucket.getRate();
+	}
+
+	@Override
+	public void setGlobalRate(long bytesPerSecond) {
+		globalBucket.setRate(bytesPerSecond);
+	}
+
+	@Override
+	public long getPerHostRate() {
+		return perHostRate;
+	}
+
+	@Override
+	public void setPerHostRate(long bytesPerSecond) {
+		perHostRate = Math.max(UNLIMITED, bytesPerSecond);
+		for (TokenBucket hostBucket : hostBuckets.values()) {
+			hostBucket.setRate(perHostRate);
+		}
+	}
+
+	@Override
+	public long getPerDownloadRate() {
+		return perDownloadRate;
+	}
+
+	@Override
+	public void setPerDownloadRate(long bytesPerSecond) {
+		perDownloadRate = Math.max(UNLIMITED, bytesPerSecond);
+	}
+
+	public class Throttle {
+		private final TokenBucket downloadBucket = new TokenBucket(perDownloadRate);
+		private final String hostKey;
+
+		private Throttle(String hostKey) {
+			this.hostKey = hostKey;
+		}
+
+		/*
+		 * Called once per chunk from the copy loops, never per byte. Each cap is
+		 * a single compare-and-set plus, for the host, a map lookup; the thread
+		 * only sleeps when a cap is exceeded.
+		 */
+		public void acquire(int bytes) throws InterruptedIOException {
+			long downloadRate = perDownloadRate;
+			if (downloadBucket.getRate() != downloadRate) {
+				downloadBucket.setRate(downloadRate);
+			}
+
+			downloadBucket.acquire(bytes);
+			hostBucket(hostKey).acquire(bytes);
+			globalBucket.acquire(bytes);
+		}
+	}
+}
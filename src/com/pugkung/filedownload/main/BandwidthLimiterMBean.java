@@ -0,0 +1,25 @@
+package com.pugkung.filedownload.main;
+
+/*
+ * JMX view of BandwidthLimiter, registered as
+ * "com.pugkung.filedownload:type=BandwidthLimiter". Rates are in bytes per
+ * second, 0 for unlimited; setting one changes the cap of running downloads.
+ */
+public interface BandwidthLimiterMBean {
+
+	long getGlobalRate();
+
+	void setGlobalRate(long bytesPerSecond);
+
+	long getPerHostRate();
+
+	void setPerHostRate(long bytesPerSecond);
+
+	long getPerDownloadRate();
+
+	void setPerDownloadRate(long bytesPerSecond);
+
+	boolean isLimited();
+
+	int getHostCount();
+}
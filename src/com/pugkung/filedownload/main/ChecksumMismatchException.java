@@ -0,0 +1,29 @@
+package com.pugkung.filedownload.main;
+
+import java.io.IOException;
+
+/*
+ * Thrown when the digest computed while downloading differs from the one
+ * configured for the URL.
+ */
+public class ChecksumMismatchException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String expected;
+	private final String actual;
+
+	public ChecksumMismatchException(String expected, String actual, String message) {
+		super(message);
+		this.expected = expected;
+		this.actual = actual;
+	}
+
+	public String getExpected() {
+		return expected;
+	}
+
+	public String getActual() {
+		return actual;
+	}
+}
@@ -0,0 +1,282 @@
+package com.pugkung.filedownload.main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Splits work between FileDownloadClient processes on several hosts through
+ * files in a directory they all share.
+ *
+ * A node owns a shard while "<shard>.lease" exists and holds its token. The
+ * file is created with CREATE_NEW, so only one node gets it, and its
+ * modification time is renewed every third of the lease timeout. A lease not
+ * renewed within the timeout belongs to a dead node: the first node to rename
+ * it away creates its own. A finished shard gets "<shard>.done", which every
+ * node skips from then on.
+ *
+ * Expiry compares modification times with the local clock, so the nodes'
+ * clocks must agree to well within the lease timeout.
+ */
+public class ClusterCoordinator implements Closeable {
+
+	public final static long DEFAULT_LEASE_TIMEOUT_MILLIS = 60000;
+	private final static String LEASE_SUFFIX = ".lease";
+	private final static String DONE_SUFFIX = ".done";
+	private final static String EXPIRED_SUFFIX = ".expired";
+	// longer than takeOver() needs to put back a lease that turned out to be live
+	private final static long RESTORE_WAIT_MILLIS = 200;
+
+	private static Logger logger = LogManager.getLogger(ClusterCoordinator.class);
+
+	private final Path directory;
+	private final String nodeId;
+	private final long leaseTimeoutMillis;
+	private final Set<Lease> heldLeases = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService renewTimer;
+
+	public ClusterCoordinator(String directory, String nodeId, long leaseTimeoutMillis) throws IOException {
+		this.directory = Paths.get(directory);
+		this.nodeId = (nodeId != null) ? nodeId : defaultNodeId();
+		this.leaseTimeoutMillis = (leaseTimeoutMillis > 0) ? leaseTimeoutMillis : DEFAULT_LEASE_TIMEOUT_MILLIS;
+		Files.createDirectories(this.directory);
+
+		renewTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "cluster-lease-renewal");
+			t.setDaemon(true);
+			return t;
+		});
+		long renewPeriod = Math.max(1, this.leaseTimeoutMillis / 3);
+		renewTimer.scheduleWithFixedDelay(this::renewLeases, renewPeriod, renewPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * "<pid>@<hostname>", unique among the processes of a cluster.
+	 */
+	public static String defaultNodeId() {
+		return ManagementFactory.getRuntimeMXBean().getName();
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	public long getLeaseTimeoutMillis() {
+		return leaseTimeoutMillis;
+	}
+
+	public boolean isDone(String shardId) {
+		return Files.exists(directory.resolve(shardId + DONE_SUFFIX));
+	}
+
+	/*
+	 * Returns null when the shard is done or leased by a live node.
+	 */
+	public Lease tryAcquire(String shardId) throws IOException {
+		if (isDone(shardId)) {
+			return null;
+		}
+
+		Path leaseFile = directory.resolve(shardId + LEASE_SUFFIX);
+		Lease lease = create(shardId, leaseFile);
+		if (lease == null && isExpired(leaseFile) && takeOver(shardId, leaseFile)) {
+			lease = create(shardId, leaseFile);
+		}
+		if (lease == null) {
+			return null;
+		}
+
+		// the previous owner may have finished between isDone() and create()
+		if (isDone(shardId)) {
+			lease.release();
+			return null;
+		}
+		heldLeases.add(lease);
+		return lease;
+	}
+
+	/*
+	 * Stops renewing and gives up all leases still held; their shards are left
+	 * for other nodes.
+	 */
+	@Override
+	public void close() {
+		renewTimer.shutdownNow();
+		for (Lease lease : new ArrayList<Lease>(heldLeases)) {
+			lease.release();
+		}
+	}
+
+	private Lease create(String shardId, Path leaseFile) throws IOException {
+		String token = nodeId + " " + UUID.randomUUID();
+		try {
+			Files.write(leaseFile, token.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW,
+					StandardOpenOption.WRITE);
+			return new Lease(shardId, leaseFile, token);
+		} catch (FileAlreadyExistsException ex) {
+			return null;
+		}
+	}
+
+	/*
+	 * Only one node's rename of the expired lease succeeds. If it was renewed
+	 * or replaced after isExpired() looked at it, it is put back.
+	 */
+	private boolean takeOver(String shardId, Path leaseFile) throws IOException {
+		Path expiredFile = directory.resolve(shardId + LEASE_SUFFIX + "." + UUID.randomUUID() + EXPIRED_SUFFIX);
+		try {
+			Files.move(leaseFile, expiredFile, StandardCopyOption.ATOMIC_MOVE);
+		} catch (NoSuchFileException ex) {
+			// released or taken over by another node in the meantime
+			return !Files.exists(leaseFile);
+		}
+
+		try {
+			if (!isExpired(expiredFile)) {
+				try {
+					Files.createLink(leaseFile, expiredFile);
+				} catch (FileAlreadyExistsException ex) {
+					// claimed again already; its previous owner notices when renewing
+				}
+				return false;
+			}
+		} finally {
+			Files.deleteIfExists(expiredFile);
+		}
+
+		logger.info("Taking over the expired lease of shard {}", shardId);
+		return true;
+	}
+
+	private boolean isExpired(Path leaseFile) {
+		try {
+			long modified = Files.getLastModifiedTime(leaseFile).toMillis();
+			return System.currentTimeMillis() - modified > leaseTimeoutMillis;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	private void renewLeases() {
+		for (Lease lease : heldLeases) {
+			lease.renew();
+		}
+	}
+
+	public class Lease {
+		private final String shardId;
+		private final Path leaseFile;
+		private final String token;
+		private volatile boolean valid = true;
+
+		private Lease(String shardId, Path leaseFile, String token) {
+			this.shardId = shardId;
+			this.leaseFile = leaseFile;
+			this.token = token;
+		}
+
+		public String getShardId() {
+			return shardId;
+		}
+
+		/*
+		 * False once the lease expired and another node took the shard over.
+		 */
+		public boolean isValid() {
+			return valid;
+		}
+
+		/*
+		 * Marks the shard done for all nodes. Returns false when the lease was
+		 * lost, in which case the new owner downloads the shard again.
+		 */
+		public boolean complete() throws IOException {
+			if (!renew()) {
+				return false;
+			}
+			try {
+				Files.write(directory.resolve(shardId + DONE_SUFFIX), nodeId.getBytes(StandardCharsets.UTF_8),
+						StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			} catch (FileAlreadyExistsException ex) {
+				// finished by a node that took over earlier
+			}
+			release();
+			return true;
+		}
+
+		public void release() {
+			heldLeases.remove(this);
+			if (valid && isOwned()) {
+				try {
+					Files.deleteIfExists(leaseFile);
+				} catch (IOException ex) {
+					logger.warn("Unable to release the lease of shard {}: {}", shardId, ex.getMessage());
+				}
+			}
+			valid = false;
+		}
+
+		boolean renew() {
+			if (!valid) {
+				return false;
+			}
+			if (!isOwned()) {
+				valid = false;
+				heldLeases.remove(this);
+				logger.warn("Lost the lease of shard {} to another node", shardId);
+				return false;
+			}
+			try {
+				Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(System.currentTimeMillis()));
+				return true;
+			} catch (IOException ex) {
+				// still ours until it expires; the next renewal tries again
+				logger.warn("Unable to renew the lease of shard {}: {}", shardId, ex.getMessage());
+				return true;
+			}
+		}
+
+		/*
+		 * A missing lease file is looked at twice: another node's takeOver() renames
+		 * even a live lease away for a moment before it puts it back.
+		 */
+		private boolean isOwned() {
+			for (int attempt = 1; ; attempt++) {
+				try {
+					return token.equals(new String(Files.readAllBytes(leaseFile), StandardCharsets.UTF_8));
+				} catch (NoSuchFileException ex) {
+					if (attempt > 1) {
+						return false;
+					}
+					try {
+						Thread.sleep(RESTORE_WAIT_MILLIS);
+					} catch (InterruptedException interrupted) {
+						Thread.currentThread().interrupt();
+						return false;
+					}
+				} catch (IOException ex) {
+					return false;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.pugkung.filedownload.main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Remembers the ETag / Last-Modified validators of every HTTP download so the
+ * next run can send If-None-Match / If-Modified-Since and keep the existing
+ * file on a 304. Stored as one tab-separated line per URL:
+ *
+ *   <url>  <size>  <etag or ->  <last-modified or ->
+ *
+ * The file is read on open and rewritten through a temporary file and an
+ * atomic rename on save. Entries added after a crash are simply lost; those
+ * files are fetched in full on the next run.
+ */
+public class ConditionalGetCache {
+
+	private final static String FIELD_SEPARATOR = "\t";
+	private final static String NO_VALUE = "-";
+
+	private static Logger logger = LogManager.getLogger(ConditionalGetCache.class);
+
+	private final Path cachePath;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	public static class Entry {
+		private final long size;
+		private final String etag;
+		private final String lastModified;
+
+		public Entry(long size, String etag, String lastModified) {
+			this.size = size;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public String getETag() {
+			return etag;
+		}
+
+		public String getLastModified() {
+			return lastModified;
+		}
+	}
+
+	public ConditionalGetCache(String cacheFile) {
+		this.cachePath = Paths.get(cacheFile).toAbsolutePath();
+	}
+
+	public static ConditionalGetCache open(String cacheFile) throws IOException {
+		ConditionalGetCache cache = new ConditionalGetCache(cacheFile);
+		cache.load();
+		logger.info("Conditional GET cache {}: {} known URL(s)", cache.cachePath, cache.size());
+		return cache;
+	}
+
+	/*
+	 * Returns the validators for the URL only when the earlier download is
+	 * still on disk with the recorded size; otherwise there is nothing to keep.
+	 */
+	public Entry lookup(String url, File outputFile) {
+		Entry entry = entries.get(url);
+		if (entry == null || !outputFile.isFile() || outputFile.length() != entry.getSize()) {
+			return null;
+		}
+		return entry;
+	}
+
+	public void update(String url, String etag, String lastModified, long size) {
+		if (etag == null && lastModified == null) {
+			entries.remove(url);
+			return;
+		}
+		entries.put(url, new Entry(size, etag, lastModified));
+	}
+
+	/*
+	 * Records the validators of a 200 response once its body has been written.
+	 */
+	public void update(String url, HttpURLConnection http, long size) {
+		update(url, http.getHeaderField("ETag"), http.getHeaderField("Last-Modified"), size);
+	}
+
+	public void remove(String url) {
+		entries.remove(url);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public static void addConditionalHeaders(HttpURLConnection http, Entry entry) {
+		if (entry.getETag() != null) {
+			http.setRequestProperty("If-None-Match", entry.getETag());
+		}
+		if (entry.getLastModified() != null) {
+			http.setRequestProperty("If-Modified-Since", entry.getLastModified());
+		}
+	}
+
+	public void save() throws IOException {
+		Path parent = cachePath.getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+
+		Path temporary = cachePath.resolveSibling(cachePath.getFileName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, Entry> item : entries.entrySet()) {
+				Entry entry = item.getValue();
+				writer.write(item.getKey() + FIELD_SEPARATOR + entry.getSize() +
+						FIELD_SEPARATOR + valueOrDash(entry.getETag()) +
+						FIELD_SEPARATOR + valueOrDash(entry.getLastModified()));
+				writer.newLine();
+			}
+		}
+		Files.move(temporary, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void load() throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(cachePath, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(FIELD_SEPARATOR);
+				if (fields.length != 4) {
+					continue;
+				}
+				try {
+					update(fields[0], dashOrValue(fields[2]), dashOrValue(fields[3]), Long.parseLong(fields[1]));
+				} catch (NumberFormatException ex) {
+					// damaged line, fetched in full next time
+				}
+			}
+		} catch (NoSuchFileException ex) {
+			// first run
+		}
+	}
+
+	private static String valueOrDash(String value) {
+		return (value == null) ? NO_VALUE : value;
+	}
+
+	private static String dashOrValue(String value) {
+		return NO_VALUE.equals(value) ? null : value;
+	}
+}
@@ -6,20 +6,102 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.pugkung.filedownload.main.DownloadScheduler.ExecutionMode;
+import com.pugkung.filedownload.main.StreamCopier.TransferEngine;
+
 public class ConfigReader {
 	private Logger logger = LogManager.getLogger(ConfigReader.class);
 	private final String OUTPUTPATH_PROPERTY_KEYNAME = "outputPath";
+	private final String OUTPUT_SHARD_LEVELS_PROPERTY_KEYNAME = "outputShardLevels";
+	private final String PREALLOCATE_OUTPUT_PROPERTY_KEYNAME = "preallocateOutput";
+	private final String OUTPUT_NAMING_PROPERTY_KEYNAME = "outputNaming";
+	private final String OUTPUT_NAME_TEMPLATE_PROPERTY_KEYNAME = "outputNameTemplate";
+	private final String URL_MANIFEST_PROPERTY_KEYNAME = "urlManifest";
+	private final String JOURNAL_FILE_PROPERTY_KEYNAME = "journalFile";
+	private final String CONDITIONAL_GET_CACHE_PROPERTY_KEYNAME = "conditionalGetCache";
+	private final String CONTENT_STORE_PROPERTY_KEYNAME = "contentStore";
+	private final String MAX_CONCURRENT_DOWNLOADS_PROPERTY_KEYNAME = "maxConcurrentDownloads";
+	private final String EXECUTION_MODE_PROPERTY_KEYNAME = "executionMode";
+	private final String MAX_DOWNLOADS_PER_HOST_PROPERTY_KEYNAME = "maxDownloadsPerHost";
+	private final String ADAPTIVE_CONCURRENCY_PROPERTY_KEYNAME = "adaptiveConcurrency";
+	private final String SEGMENTS_PER_DOWNLOAD_PROPERTY_KEYNAME = "segmentsPerDownload";
+	private final String RESUME_DOWNLOADS_PROPERTY_KEYNAME = "resumeDownloads";
+	private final String TRANSFER_ENGINE_PROPERTY_KEYNAME = "transferEngine";
+	private final String WRITE_BEHIND_BUFFER_PROPERTY_KEYNAME = "writeBehindBuffer";
+	private final String DISK_WRITER_THREADS_PROPERTY_KEYNAME = "diskWriterThreads";
+	private final String MAX_CONNECTIONS_PER_HOST_PROPERTY_KEYNAME = "maxConnectionsPerHost";
+	private final String CONNECTION_IDLE_TIMEOUT_PROPERTY_KEYNAME = "connectionIdleTimeout";
+	private final String ASYNC_HTTP_ENGINE_PROPERTY_KEYNAME = "asyncHttpEngine";
+	private final String MAX_BANDWIDTH_PROPERTY_KEYNAME = "maxBandwidth";
+	private final String MAX_BANDWIDTH_PER_HOST_PROPERTY_KEYNAME = "maxBandwidthPerHost";
+	private final String MAX_BANDWIDTH_PER_DOWNLOAD_PROPERTY_KEYNAME = "maxBandwidthPerDownload";
+	private final String MAX_RETRIES_PROPERTY_KEYNAME = "maxRetries";
+	private final String RETRY_BASE_DELAY_PROPERTY_KEYNAME = "retryBaseDelay";
+	private final String RETRY_MAX_DELAY_PROPERTY_KEYNAME = "retryMaxDelay";
+	private final String MIRROR_MIN_THROUGHPUT_PROPERTY_KEYNAME = "mirrorMinThroughput";
+	private final String METRICS_PORT_PROPERTY_KEYNAME = "metricsPort";
+	private final String JMX_METRICS_PROPERTY_KEYNAME = "jmxMetrics";
+	private final String SHORTEST_JOB_FIRST_PROPERTY_KEYNAME = "shortestJobFirst";
+	private final String CLUSTER_DIRECTORY_PROPERTY_KEYNAME = "clusterDirectory";
+	private final String CLUSTER_NODE_ID_PROPERTY_KEYNAME = "clusterNodeId";
+	private final String CLUSTER_SHARD_SIZE_PROPERTY_KEYNAME = "clusterShardSize";
+	private final String CLUSTER_LEASE_TIMEOUT_PROPERTY_KEYNAME = "clusterLeaseTimeout";
+	private final String CHECKSUM_PROPERTY_SUFFIX = ".checksum";
+	private final String MIRRORS_PROPERTY_SUFFIX = ".mirrors";
+	private final String PRIORITY_PROPERTY_SUFFIX = ".priority";
+	private final String DEADLINE_PROPERTY_SUFFIX = ".deadline";
+	
+	private final static int DEFAULT_CLUSTER_SHARD_SIZE = 1000;
 	
 	private String configFileName = "";
 	private String outputPath = "";
+	private int outputShardLevels = 0;
+	private boolean preallocateOutput = false;
+	private OutputNamingStrategy outputNaming = OutputNamingStrategy.LEGACY;
+	private String urlManifest = null;
+	private String journalFile = null;
+	private String conditionalGetCache = null;
+	private String contentStore = null;
+	private int maxConcurrentDownloads = DownloadScheduler.DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+	private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+	private int maxDownloadsPerHost = DownloadScheduler.UNLIMITED_DOWNLOADS_PER_HOST;
+	private boolean adaptiveConcurrency = false;
+	private int segmentsPerDownload = 1;
+	private boolean resumeDownloads = true;
+	private TransferEngine transferEngine = TransferEngine.COMMONS_IO;
+	private int writeBehindBuffer = (int) (WriteBehindWriter.DEFAULT_MEMORY_BUDGET / (1024 * 1024));
+	private int diskWriterThreads = WriteBehindWriter.DEFAULT_WRITER_THREADS;
+	private int maxConnectionsPerHost = HttpConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+	private int connectionIdleTimeout = HttpConnectionPool.DEFAULT_IDLE_TIMEOUT_SECONDS;
+	private boolean asyncHttpEngine = false;
+	private int maxBandwidth = 0;
+	private int maxBandwidthPerHost = 0;
+	private int maxBandwidthPerDownload = 0;
+	private int maxRetries = RetryPolicy.DEFAULT_MAX_RETRIES;
+	private int retryBaseDelay = (int) RetryPolicy.DEFAULT_BASE_DELAY_MILLIS;
+	private int retryMaxDelay = (int) RetryPolicy.DEFAULT_MAX_DELAY_MILLIS;
+	private int mirrorMinThroughput = 0;
+	private int metricsPort = 0;
+	private boolean jmxMetrics = false;
+	private boolean shortestJobFirst = false;
+	private String clusterDirectory = null;
+	private String clusterNodeId = null;
+	private int clusterShardSize = DEFAULT_CLUSTER_SHARD_SIZE;
+	private int clusterLeaseTimeout = (int) (ClusterCoordinator.DEFAULT_LEASE_TIMEOUT_MILLIS / 1000);
 	private List<String> urlList;
+	private Map<String, ExpectedChecksum> expectedChecksums = new HashMap<String, ExpectedChecksum>();
+	private Map<String, List<String>> mirrors = new HashMap<String, List<String>>();
+	private Map<String, DownloadPriority> priorities = new HashMap<String, DownloadPriority>();
 	
 	public ConfigReader(String configFileName) {
 		this.configFileName = configFileName;
@@ -33,7 +115,7 @@ public class ConfigReader {
 			configFile = new FileInputStream(configFileName);
 			properties.load(configFile);
 		} catch (FileNotFoundException ex) {
-			logger.error("Unable to read configFile: " + ex.getMessage());
+			logger.error("Unable to read configFile: {}", ex.getMessage());
 			return false;
 		} catch (IOException ex) {
 			logger.error(ex.getMessage());
@@ -41,6 +123,28 @@ public class ConfigReader {
 		}
 		
 		loadOutputPathFromConfig(properties);
+		loadOutputLayoutFromConfig(properties);
+		loadOutputNamingFromConfig(properties);
+		loadURLManifestFromConfig(properties);
+		loadJournalFileFromConfig(properties);
+		loadConditionalGetCacheFromConfig(properties);
+		loadContentStoreFromConfig(properties);
+		loadMaxConcurrentDownloadsFromConfig(properties);
+		loadExecutionModeFromConfig(properties);
+		loadMaxDownloadsPerHostFromConfig(properties);
+		loadAdaptiveConcurrencyFromConfig(properties);
+		loadSegmentsPerDownloadFromConfig(properties);
+		loadResumeDownloadsFromConfig(properties);
+		loadTransferEngineFromConfig(properties);
+		loadWriteBehindFromConfig(properties);
+		loadConnectionPoolFromConfig(properties);
+		loadAsyncHttpEngineFromConfig(properties);
+		loadBandwidthLimitsFromConfig(properties);
+		loadRetryPolicyFromConfig(properties);
+		loadMirrorMinThroughputFromConfig(properties);
+		loadMetricsFromConfig(properties);
+		loadShortestJobFirstFromConfig(properties);
+		loadClusterFromConfig(properties);
 		loadURLsFromConfig(properties);
 		
 		return true;
@@ -53,13 +157,253 @@ public class ConfigReader {
 		
 		if (outputPath == null || outputPath.equals("")) {
 			outputPath = new File("").getAbsoluteFile().toString() + "/";
-			logger.info(OUTPUTPATH_PROPERTY_KEYNAME + " property is not provided. " +
-						"Output destination is set by default to: " + outputPath);
+			logger.info("{} property is not provided. Output destination is set by default to: {}",
+						OUTPUTPATH_PROPERTY_KEYNAME, outputPath);
 		}
 		
 		this.outputPath = outputPath;
 	}
 	
+	protected void loadOutputLayoutFromConfig(Properties props) {
+		outputShardLevels = readPositiveInt(props, OUTPUT_SHARD_LEVELS_PROPERTY_KEYNAME, outputShardLevels);
+		if (outputShardLevels > OutputLayout.MAX_SHARD_LEVELS) {
+			logger.warn("Invalid {} value: {}. Using maximum: {}", OUTPUT_SHARD_LEVELS_PROPERTY_KEYNAME,
+						outputShardLevels, OutputLayout.MAX_SHARD_LEVELS);
+			outputShardLevels = OutputLayout.MAX_SHARD_LEVELS;
+		}
+		preallocateOutput = readBoolean(props, PREALLOCATE_OUTPUT_PROPERTY_KEYNAME, preallocateOutput);
+	}
+	
+	protected void loadOutputNamingFromConfig(Properties props) {
+		String value = props.getProperty(OUTPUT_NAMING_PROPERTY_KEYNAME);
+		
+		if (value == null || value.trim().equals("")) {
+			return;
+		}
+		
+		try {
+			outputNaming = OutputNamingStrategy.forName(value, props.getProperty(OUTPUT_NAME_TEMPLATE_PROPERTY_KEYNAME));
+			if (outputNaming instanceof OutputNamingStrategy.Template &&
+					!((OutputNamingStrategy.Template) outputNaming).isCollisionFree()) {
+				logger.warn("{} {} has no {hash}: different URLs can map to the same file and overwrite it",
+							OUTPUT_NAME_TEMPLATE_PROPERTY_KEYNAME, outputNaming);
+			}
+		} catch (IllegalArgumentException ex) {
+			logger.warn("Invalid {} value: {} ({}). Using default: legacy", OUTPUT_NAMING_PROPERTY_KEYNAME, value,
+						ex.getMessage());
+		}
+	}
+	
+	protected void loadURLManifestFromConfig(Properties props) {
+		String value = props.getProperty(URL_MANIFEST_PROPERTY_KEYNAME);
+		
+		if (value != null && !value.trim().equals("")) {
+			urlManifest = value.trim();
+		}
+	}
+	
+	protected void loadJournalFileFromConfig(Properties props) {
+		String value = props.getProperty(JOURNAL_FILE_PROPERTY_KEYNAME);
+		
+		if (value != null && !value.trim().equals("")) {
+			journalFile = value.trim();
+		}
+	}
+	
+	protected void loadConditionalGetCacheFromConfig(Properties props) {
+		String value = props.getProperty(CONDITIONAL_GET_CACHE_PROPERTY_KEYNAME);
+		
+		if (value != null && !value.trim().equals("")) {
+			conditionalGetCache = value.trim();
+		}
+	}
+	
+	protected void loadContentStoreFromConfig(Properties props) {
+		String value = props.getProperty(CONTENT_STORE_PROPERTY_KEYNAME);
+		
+		if (value != null && !value.trim().equals("")) {
+			contentStore = value.trim();
+		}
+	}
+	
+	protected void loadMaxConcurrentDownloadsFromConfig(Properties props) {
+		maxConcurrentDownloads = readPositiveInt(props, MAX_CONCURRENT_DOWNLOADS_PROPERTY_KEYNAME, maxConcurrentDownloads);
+	}
+	
+	protected void loadMaxDownloadsPerHostFromConfig(Properties props) {
+		maxDownloadsPerHost = readPositiveInt(props, MAX_DOWNLOADS_PER_HOST_PROPERTY_KEYNAME, maxDownloadsPerHost);
+	}
+	
+	protected void loadAdaptiveConcurrencyFromConfig(Properties props) {
+		adaptiveConcurrency = readBoolean(props, ADAPTIVE_CONCURRENCY_PROPERTY_KEYNAME, adaptiveConcurrency);
+	}
+	
+	protected void loadSegmentsPerDownloadFromConfig(Properties props) {
+		segmentsPerDownload = readPositiveInt(props, SEGMENTS_PER_DOWNLOAD_PROPERTY_KEYNAME, segmentsPerDownload);
+	}
+	
+	protected void loadResumeDownloadsFromConfig(Properties props) {
+		resumeDownloads = readBoolean(props, RESUME_DOWNLOADS_PROPERTY_KEYNAME, resumeDownloads);
+	}
+	
+	protected void loadTransferEngineFromConfig(Properties props) {
+		String value = props.getProperty(TRANSFER_ENGINE_PROPERTY_KEYNAME);
+		
+		if (value == null || value.trim().equals("")) {
+			return;
+		}
+		
+		try {
+			transferEngine = TransferEngine.valueOf(value.trim().toUpperCase().replace('-', '_'));
+		} catch (IllegalArgumentException ex) {
+			logger.warn("Invalid {} value: {}. Using default: {}", TRANSFER_ENGINE_PROPERTY_KEYNAME, value, transferEngine);
+		}
+	}
+	
+	protected void loadWriteBehindFromConfig(Properties props) {
+		writeBehindBuffer = readPositiveInt(props, WRITE_BEHIND_BUFFER_PROPERTY_KEYNAME, writeBehindBuffer);
+		diskWriterThreads = readPositiveInt(props, DISK_WRITER_THREADS_PROPERTY_KEYNAME, diskWriterThreads);
+	}
+	
+	protected void loadConnectionPoolFromConfig(Properties props) {
+		maxConnectionsPerHost = readPositiveInt(props, MAX_CONNECTIONS_PER_HOST_PROPERTY_KEYNAME, maxConnectionsPerHost);
+		connectionIdleTimeout = readPositiveInt(props, CONNECTION_IDLE_TIMEOUT_PROPERTY_KEYNAME, connectionIdleTimeout);
+	}
+	
+	protected void loadAsyncHttpEngineFromConfig(Properties props) {
+		asyncHttpEngine = readBoolean(props, ASYNC_HTTP_ENGINE_PROPERTY_KEYNAME, asyncHttpEngine);
+	}
+	
+	protected void loadBandwidthLimitsFromConfig(Properties props) {
+		maxBandwidth = readPositiveInt(props, MAX_BANDWIDTH_PROPERTY_KEYNAME, maxBandwidth);
+		maxBandwidthPerHost = readPositiveInt(props, MAX_BANDWIDTH_PER_HOST_PROPERTY_KEYNAME, maxBandwidthPerHost);
+		maxBandwidthPerDownload = readPositiveInt(props, MAX_BANDWIDTH_PER_DOWNLOAD_PROPERTY_KEYNAME, maxBandwidthPerDownload);
+	}
+	
+	protected void loadRetryPolicyFromConfig(Properties props) {
+		maxRetries = readPositiveInt(props, MAX_RETRIES_PROPERTY_KEYNAME, maxRetries);
+		retryBaseDelay = readPositiveInt(props, RETRY_BASE_DELAY_PROPERTY_KEYNAME, retryBaseDelay);
+		retryMaxDelay = readPositiveInt(props, RETRY_MAX_DELAY_PROPERTY_KEYNAME, retryMaxDelay);
+	}
+	
+	protected void loadMirrorMinThroughputFromConfig(Properties props) {
+		mirrorMinThroughput = readPositiveInt(props, MIRROR_MIN_THROUGHPUT_PROPERTY_KEYNAME, mirrorMinThroughput);
+	}
+	
+	protected void loadMetricsFromConfig(Properties props) {
+		metricsPort = readPositiveInt(props, METRICS_PORT_PROPERTY_KEYNAME, metricsPort);
+		jmxMetrics = readBoolean(props, JMX_METRICS_PROPERTY_KEYNAME, jmxMetrics);
+	}
+	
+	protected void loadShortestJobFirstFromConfig(Properties props) {
+		shortestJobFirst = readBoolean(props, SHORTEST_JOB_FIRST_PROPERTY_KEYNAME, shortestJobFirst);
+	}
+	
+	protected void loadClusterFromConfig(Properties props) {
+		String directory = props.getProperty(CLUSTER_DIRECTORY_PROPERTY_KEYNAME);
+		if (directory != null && !directory.trim().equals("")) {
+			clusterDirectory = directory.trim();
+		}
+		String nodeId = props.getProperty(CLUSTER_NODE_ID_PROPERTY_KEYNAME);
+		if (nodeId != null && !nodeId.trim().equals("")) {
+			clusterNodeId = nodeId.trim();
+		}
+		clusterShardSize = readPositiveInt(props, CLUSTER_SHARD_SIZE_PROPERTY_KEYNAME, clusterShardSize);
+		clusterLeaseTimeout = readPositiveInt(props, CLUSTER_LEASE_TIMEOUT_PROPERTY_KEYNAME, clusterLeaseTimeout);
+	}
+	
+	protected boolean readBoolean(Properties props, String key, boolean defaultValue) {
+		String value = props.getProperty(key);
+		
+		if (value == null || value.trim().equals("")) {
+			return defaultValue;
+		}
+		
+		if (value.trim().equalsIgnoreCase("true")) {
+			return true;
+		}
+		if (value.trim().equalsIgnoreCase("false")) {
+			return false;
+		}
+		logger.warn("Invalid {} value: {}. Using default: {}", key, value, defaultValue);
+		return defaultValue;
+	}
+	
+	protected int readPositiveInt(Properties props, String key, int defaultValue) {
+		String value = props.getProperty(key);
+		
+		if (value == null || value.trim().equals("")) {
+			return defaultValue;
+		}
+		
+		try {
+			int parsedValue = Integer.parseInt(value.trim());
+			if (parsedValue > 0) {
+				return parsedValue;
+			}
+		} catch (NumberFormatException ex) {
+			// fall through to warning below
+		}
+		logger.warn("Invalid {} value: {}. Using default: {}", key, value, defaultValue);
+		return defaultValue;
+	}
+	
+	protected void loadExecutionModeFromConfig(Properties props) {
+		String value = props.getProperty(EXECUTION_MODE_PROPERTY_KEYNAME);
+		
+		if (value == null || value.trim().equals("")) {
+			return;
+		}
+		
+		try {
+			executionMode = ExecutionMode.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException ex) {
+			logger.warn("Invalid {} value: {}. Using default: {}", EXECUTION_MODE_PROPERTY_KEYNAME, value, executionMode);
+		}
+	}
+	
+	protected boolean isReservedKey(String key) {
+		return key.equals(OUTPUTPATH_PROPERTY_KEYNAME) ||
+				key.equals(OUTPUT_SHARD_LEVELS_PROPERTY_KEYNAME) ||
+				key.equals(PREALLOCATE_OUTPUT_PROPERTY_KEYNAME) ||
+				key.equals(OUTPUT_NAMING_PROPERTY_KEYNAME) ||
+				key.equals(OUTPUT_NAME_TEMPLATE_PROPERTY_KEYNAME) ||
+				key.equals(URL_MANIFEST_PROPERTY_KEYNAME) ||
+				key.equals(JOURNAL_FILE_PROPERTY_KEYNAME) ||
+				key.equals(CONDITIONAL_GET_CACHE_PROPERTY_KEYNAME) ||
+				key.equals(CONTENT_STORE_PROPERTY_KEYNAME) ||
+				key.equals(MAX_CONCURRENT_DOWNLOADS_PROPERTY_KEYNAME) ||
+				key.equals(EXECUTION_MODE_PROPERTY_KEYNAME) ||
+				key.equals(MAX_DOWNLOADS_PER_HOST_PROPERTY_KEYNAME) ||
+				key.equals(ADAPTIVE_CONCURRENCY_PROPERTY_KEYNAME) ||
+				key.equals(SEGMENTS_PER_DOWNLOAD_PROPERTY_KEYNAME) ||
+				key.equals(RESUME_DOWNLOADS_PROPERTY_KEYNAME) ||
+				key.equals(TRANSFER_ENGINE_PROPERTY_KEYNAME) ||
+				key.equals(WRITE_BEHIND_BUFFER_PROPERTY_KEYNAME) ||
+				key.equals(DISK_WRITER_THREADS_PROPERTY_KEYNAME) ||
+				key.equals(MAX_CONNECTIONS_PER_HOST_PROPERTY_KEYNAME) ||
+				key.equals(CONNECTION_IDLE_TIMEOUT_PROPERTY_KEYNAME) ||
+				key.equals(ASYNC_HTTP_ENGINE_PROPERTY_KEYNAME) ||
+				key.equals(MAX_BANDWIDTH_PROPERTY_KEYNAME) ||
+				key.equals(MAX_BANDWIDTH_PER_HOST_PROPERTY_KEYNAME) ||
+				key.equals(MAX_BANDWIDTH_PER_DOWNLOAD_PROPERTY_KEYNAME) ||
+				key.equals(MAX_RETRIES_PROPERTY_KEYNAME) ||
+				key.equals(RETRY_BASE_DELAY_PROPERTY_KEYNAME) ||
+				key.equals(RETRY_MAX_DELAY_PROPERTY_KEYNAME) ||
+				key.equals(MIRROR_MIN_THROUGHPUT_PROPERTY_KEYNAME) ||
+				key.equals(METRICS_PORT_PROPERTY_KEYNAME) ||
+				key.equals(JMX_METRICS_PROPERTY_KEYNAME) ||
+				key.equals(SHORTEST_JOB_FIRST_PROPERTY_KEYNAME) ||
+				key.equals(CLUSTER_DIRECTORY_PROPERTY_KEYNAME) ||
+				key.equals(CLUSTER_NODE_ID_PROPERTY_KEYNAME) ||
+				key.equals(CLUSTER_SHARD_SIZE_PROPERTY_KEYNAME) ||
+				key.equals(CLUSTER_LEASE_TIMEOUT_PROPERTY_KEYNAME) ||
+				key.endsWith(CHECKSUM_PROPERTY_SUFFIX) ||
+				key.endsWith(MIRRORS_PROPERTY_SUFFIX) ||
+				key.endsWith(PRIORITY_PROPERTY_SUFFIX) ||
+				key.endsWith(DEADLINE_PROPERTY_SUFFIX);
+	}
+	
 	protected void loadURLsFromConfig(Properties props) {
 		Enumeration<Object> configEntries;
 		String key, value;
@@ -71,17 +415,253 @@ public class ConfigReader {
 			key = (String) configEntries.nextElement();
 			value = props.getProperty(key);
 				
-			if (!key.equals(OUTPUTPATH_PROPERTY_KEYNAME)) {
+			if (!isReservedKey(key)) {
 				urlList.add(value);
+				loadExpectedChecksum(props, key, value);
+				loadMirrors(props, key, value);
+				loadPriority(props, key, value);
 			}
 		}
 	}
 	
+	/*
+	 * "src1.checksum=sha256:<hex>" is the expected digest of the URL in "src1".
+	 * A malformed value is reported and the URL is downloaded unverified.
+	 */
+	protected void loadExpectedChecksum(Properties props, String urlKey, String url) {
+		String value = props.getProperty(urlKey + CHECKSUM_PROPERTY_SUFFIX);
+		if (value == null || value.trim().equals("")) {
+			return;
+		}
+		
+		try {
+			expectedChecksums.put(url, ExpectedChecksum.parse(value.trim()));
+		} catch (IllegalArgumentException ex) {
+			logger.error("Invalid {}{} value: {}. {} will not be verified.", urlKey, CHECKSUM_PROPERTY_SUFFIX,
+						ex.getMessage(), url);
+		}
+	}
+	
+	/*
+	 * "src1.mirrors=<url>, <url>" lists other sources of the file in "src1".
+	 */
+	protected void loadMirrors(Properties props, String urlKey, String url) {
+		String value = props.getProperty(urlKey + MIRRORS_PROPERTY_SUFFIX);
+		if (value == null || value.trim().equals("")) {
+			return;
+		}
+		
+		List<String> mirrorList = new ArrayList<String>();
+		for (String mirror : value.split("[,\\s]+")) {
+			if (!mirror.isEmpty() && !mirror.equals(url) && !mirrorList.contains(mirror)) {
+				mirrorList.add(mirror);
+			}
+		}
+		if (!mirrorList.isEmpty()) {
+			mirrors.put(url, mirrorList);
+		}
+	}
+	
+	/*
+	 * "src1.priority=10" starts src1 before URLs of a lower priority (default 0),
+	 * "src1.deadline=PT30M" or "src1.deadline=2026-10-18T06:00:00Z" before URLs
+	 * of the same priority with a later deadline or none.
+	 */
+	protected void loadPriority(Properties props, String urlKey, String url) {
+		String priority = props.getProperty(urlKey + PRIORITY_PROPERTY_SUFFIX);
+		String deadline = props.getProperty(urlKey + DEADLINE_PROPERTY_SUFFIX);
+		if (priority == null && deadline == null) {
+			return;
+		}
+		
+		try {
+			priorities.put(url, DownloadPriority.parse(priority, deadline));
+		} catch (IllegalArgumentException ex) {
+			logger.error("Invalid priority of {}: {}. Using the default order.", urlKey, ex.getMessage());
+		}
+	}
+	
 	public String getOutputPath() {
 		return outputPath;
 	}
 	
+	/*
+	 * 0 keeps all output files in the output path itself.
+	 */
+	public int getOutputShardLevels() {
+		return outputShardLevels;
+	}
+	
+	public boolean isPreallocateOutput() {
+		return preallocateOutput;
+	}
+	
+	public OutputNamingStrategy getOutputNaming() {
+		return outputNaming;
+	}
+	
+	public String getURLManifest() {
+		return urlManifest;
+	}
+	
+	public String getJournalFile() {
+		return journalFile;
+	}
+	
+	public String getConditionalGetCache() {
+		return conditionalGetCache;
+	}
+	
+	public String getContentStore() {
+		return contentStore;
+	}
+	
+	public int getMaxConcurrentDownloads() {
+		return maxConcurrentDownloads;
+	}
+	
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+	
+	public int getSegmentsPerDownload() {
+		return segmentsPerDownload;
+	}
+	
+	public boolean isResumeDownloads() {
+		return resumeDownloads;
+	}
+	
+	public boolean isAdaptiveConcurrency() {
+		return adaptiveConcurrency;
+	}
+	
+	public int getMaxDownloadsPerHost() {
+		return maxDownloadsPerHost;
+	}
+	
+	public TransferEngine getTransferEngine() {
+		return transferEngine;
+	}
+	
+	/*
+	 * In MB.
+	 */
+	public int getWriteBehindBuffer() {
+		return writeBehindBuffer;
+	}
+	
+	public int getDiskWriterThreads() {
+		return diskWriterThreads;
+	}
+	
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+	
+	public int getConnectionIdleTimeout() {
+		return connectionIdleTimeout;
+	}
+	
+	public boolean isAsyncHttpEngine() {
+		return asyncHttpEngine;
+	}
+	
+	public int getMaxBandwidth() {
+		return maxBandwidth;
+	}
+	
+	public int getMaxBandwidthPerHost() {
+		return maxBandwidthPerHost;
+	}
+	
+	public int getMaxBandwidthPerDownload() {
+		return maxBandwidthPerDownload;
+	}
+	
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+	
+	public int getRetryBaseDelay() {
+		return retryBaseDelay;
+	}
+	
+	public int getRetryMaxDelay() {
+		return retryMaxDelay;
+	}
+	
+	/*
+	 * Config value is in KB/s; 0 means mirrors are only switched on errors.
+	 */
+	public int getMirrorMinThroughput() {
+		return mirrorMinThroughput;
+	}
+	
+	/*
+	 * 0 means no metrics endpoint.
+	 */
+	public int getMetricsPort() {
+		return metricsPort;
+	}
+	
+	public boolean isJmxMetrics() {
+		return jmxMetrics;
+	}
+	
+	public boolean isShortestJobFirst() {
+		return shortestJobFirst;
+	}
+	
+	/*
+	 * Shared directory of the lease files; null when not running as part of a cluster.
+	 */
+	public String getClusterDirectory() {
+		return clusterDirectory;
+	}
+	
+	/*
+	 * null means ClusterCoordinator.defaultNodeId().
+	 */
+	public String getClusterNodeId() {
+		return clusterNodeId;
+	}
+	
+	public int getClusterShardSize() {
+		return clusterShardSize;
+	}
+	
+	/*
+	 * Config value is in seconds.
+	 */
+	public int getClusterLeaseTimeout() {
+		return clusterLeaseTimeout;
+	}
+	
 	public List<String> getURLs() {
 		return urlList;
 	}
+	
+	/*
+	 * Returns null when no checksum is configured for the URL.
+	 */
+	public ExpectedChecksum getExpectedChecksum(String url) {
+		return expectedChecksums.get(url);
+	}
+	
+	/*
+	 * Returns an empty list when no mirrors are configured for the URL.
+	 */
+	public List<String> getMirrors(String url) {
+		List<String> mirrorList = mirrors.get(url);
+		return (mirrorList != null) ? mirrorList : Collections.<String>emptyList();
+	}
+	
+	/*
+	 * Returns DownloadPriority.DEFAULT when neither priority nor deadline is configured for the URL.
+	 */
+	public DownloadPriority getPriority(String url) {
+		DownloadPriority priority = priorities.get(url);
+		return (priority != null) ? priority : DownloadPriority.DEFAULT;
+	}
 }
@@ -0,0 +1,111 @@
+package com.pugkung.filedownload.main;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Asks for the Content-Length of many URLs at once with HEAD requests, so the
+ * scheduler can start the shortest downloads first. URLs that are not http or
+ * https, do not answer within the timeout or send no length are reported as
+ * FileDownloader.UNKNOWN_LENGTH.
+ *
+ * Answered connections go back to the keep-alive pool for the download that
+ * follows.
+ */
+public class ContentLengthProbe {
+
+	private final static int MAX_PARALLEL_PROBES = 16;
+
+	private static Logger logger = LogManager.getLogger(ContentLengthProbe.class);
+	private final static ExecutorService probeExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_PROBES,
+			new ProbeThreadFactory());
+
+	private final int timeoutMillis;
+
+	public ContentLengthProbe(int timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/*
+	 * Returns the expected length of every given URL. Waits at most the timeout
+	 * per batch of MAX_PARALLEL_PROBES URLs.
+	 */
+	public Map<String, Long> probe(List<String> urls) {
+		Map<String, CompletableFuture<Long>> probes = new HashMap<String, CompletableFuture<Long>>();
+		for (String url : urls) {
+			if (!probes.containsKey(url)) {
+				probes.put(url, CompletableFuture.supplyAsync(() -> probe(url), probeExecutor));
+			}
+		}
+
+		long batches = (probes.size() + MAX_PARALLEL_PROBES - 1) / MAX_PARALLEL_PROBES;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) * Math.max(1, batches);
+		Map<String, Long> lengths = new HashMap<String, Long>();
+		int unknown = 0;
+		for (Map.Entry<String, CompletableFuture<Long>> probe : probes.entrySet()) {
+			long length = await(probe.getValue(), deadline);
+			if (length == FileDownloader.UNKNOWN_LENGTH) {
+				unknown++;
+			}
+			lengths.put(probe.getKey(), length);
+		}
+		logger.debug("Probed the length of {} URL(s), {} unknown", probes.size(), unknown);
+		return lengths;
+	}
+
+	private long probe(String url) {
+		String lowerCaseURL = url.toLowerCase();
+		if (!lowerCaseURL.startsWith("http://") && !lowerCaseURL.startsWith("https://")) {
+			return FileDownloader.UNKNOWN_LENGTH;
+		}
+
+		try {
+			HttpURLConnection http = HttpConnectionPool.open(new URL(url), timeoutMillis, timeoutMillis);
+			http.setRequestMethod("HEAD");
+			int responseCode = http.getResponseCode();
+			long length = http.getContentLengthLong();
+			HttpConnectionPool.release(http);
+			return (responseCode == HttpURLConnection.HTTP_OK && length >= 0) ? length : FileDownloader.UNKNOWN_LENGTH;
+		} catch (IOException ex) {
+			logger.debug("Unable to probe the length of {}: {}", url, ex.getMessage());
+			return FileDownloader.UNKNOWN_LENGTH;
+		}
+	}
+
+	private long await(CompletableFuture<Long> probe, long deadline) {
+		try {
+			return probe.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException | ExecutionException ex) {
+			return FileDownloader.UNKNOWN_LENGTH;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return FileDownloader.UNKNOWN_LENGTH;
+		}
+	}
+
+	private static class ProbeThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "length-probe-" + threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.pugkung.filedownload.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Content-addressed output store. Every payload is kept once as
+ *
+ *   <root>/objects/<first two hex digits>/<sha-256>
+ *
+ * and the per-URL output file becomes a hard link to that object. The digest
+ * is computed by StreamCopier while the body streams to disk, so storing a
+ * download costs a rename and a link, never a second read of the file.
+ *
+ * Each stored URL is also appended to <root>/index as
+ *
+ *   <sha-256>  <size>  <url>  <output path>
+ *
+ * which is the only record of the output when the file system cannot create
+ * hard links (for example when the store is on another volume).
+ */
+public class ContentStore {
+
+	public final static String DIGEST_ALGORITHM = "SHA-256";
+
+	private final static String OBJECTS_DIRECTORY = "objects";
+	private final static String INDEX_FILENAME = "index";
+	private final static String FIELD_SEPARATOR = "\t";
+	private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static Logger logger = LogManager.getLogger(ContentStore.class);
+
+	private final Path root;
+	private final Path indexPath;
+	private final AtomicLong storedCount = new AtomicLong();
+	private final AtomicLong deduplicatedCount = new AtomicLong();
+	private final AtomicLong deduplicatedBytes = new AtomicLong();
+	private volatile boolean linksSupported = true;
+
+	public ContentStore(String rootDirectory) throws IOException {
+		this.root = Paths.get(rootDirectory).toAbsolutePath();
+		this.indexPath = root.resolve(INDEX_FILENAME);
+		Files.createDirectories(root.resolve(OBJECTS_DIRECTORY));
+	}
+
+	public MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException ex) {
+			// every Java platform is required to provide SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/*
+	 * Moves a finished download into the store, or drops it when the same
+	 * content is already there, and links the output path to the object.
+	 * The hash is the hex digest of a digest from newDigest().
+	 */
+	public void store(String url, File outputFile, String hash) throws IOException {
+		Path output = outputFile.toPath();
+		Path object = getObjectPath(hash);
+		long size = Files.size(output);
+
+		Files.createDirectories(object.getParent());
+		if (Files.isRegularFile(object) && Files.size(object) == size) {
+			Files.delete(output);
+			deduplicatedCount.incrementAndGet();
+			deduplicatedBytes.addAndGet(size);
+			logger.debug("Already stored, linking {} to {}", outputFile, hash);
+		}
+		else {
+			moveIntoStore(output, object);
+			storedCount.incrementAndGet();
+		}
+
+		link(output, object);
+		appendToIndex(hash, size, url, outputFile.getPath());
+	}
+
+	public Path getObjectPath(String hash) {
+		return root.resolve(OBJECTS_DIRECTORY).resolve(hash.substring(0, 2)).resolve(hash);
+	}
+
+	public long getStoredCount() {
+		return storedCount.get();
+	}
+
+	public long getDeduplicatedCount() {
+		return deduplicatedCount.get();
+	}
+
+	public long getDeduplicatedBytes() {
+		return deduplicatedBytes.get();
+	}
+
+	public static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+			hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+		}
+		return new String(hex);
+	}
+
+	private void moveIntoStore(Path output, Path object) throws IOException {
+		try {
+			// a concurrent store of the same content leaves identical bytes, so replacing is harmless
+			Files.move(output, object, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(output, object, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void link(Path output, Path object) throws IOException {
+		if (!linksSupported) {
+			return;
+		}
+
+		try {
+			Files.createLink(output, object);
+		} catch (FileAlreadyExistsException ex) {
+			throw ex;
+		} catch (UnsupportedOperationException | FileSystemException ex) {
+			linksSupported = false;
+			logger.warn("Unable to create hard links into {} ({}). Outputs are only recorded in {}",
+						root, ex.getMessage(), indexPath);
+		}
+	}
+
+	private synchronized void appendToIndex(String hash, long size, String url, String outputPath) throws IOException {
+		String line = hash + FIELD_SEPARATOR + size + FIELD_SEPARATOR + url + FIELD_SEPARATOR + outputPath + "\n";
+		Files.write(indexPath, line.getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+}
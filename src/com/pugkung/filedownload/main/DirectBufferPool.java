@@ -0,0 +1,62 @@
+package com.pugkung.filedownload.main;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Shared pool of direct buffers so downloads do not allocate a fresh
+ * transfer buffer each time. Buffers beyond the pool limit are left to GC.
+ */
+public class DirectBufferPool {
+
+	public final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	private final static int DEFAULT_MAX_POOLED_BUFFERS = 256;
+
+	private final static DirectBufferPool sharedPool =
+			new DirectBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS);
+
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger pooledCount = new AtomicInteger();
+	private final int bufferSize;
+	private final int maxPooledBuffers;
+
+	public DirectBufferPool(int bufferSize, int maxPooledBuffers) {
+		this.bufferSize = bufferSize;
+		this.maxPooledBuffers = maxPooledBuffers;
+	}
+
+	public static DirectBufferPool getSharedPool() {
+		return sharedPool;
+	}
+
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		pooledCount.decrementAndGet();
+		return buffer;
+	}
+
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.capacity() != bufferSize) {
+			return;
+		}
+		buffer.clear();
+		if (pooledCount.incrementAndGet() <= maxPooledBuffers) {
+			buffers.offer(buffer);
+		}
+		else {
+			pooledCount.decrementAndGet();
+		}
+	}
+
+	public int getPooledCount() {
+		return pooledCount.get();
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
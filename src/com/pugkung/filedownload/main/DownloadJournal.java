@@ -0,0 +1,302 @@
+package com.pugkung.filedownload.main;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+
+/*
+ * Append-only journal of per-URL state transitions, one tab-separated line each:
+ *
+ *   QUEUED    <url>
+ *   STARTED   <url>
+ *   COMPLETE  <url>  <size>  <sha256 or ->  <output path>
+ *   FAILED    <url>  <DownloaderStatus>
+ *
+ * Records are handed to a single writer thread that writes whatever has piled
+ * up and then calls force() once for the whole batch (group commit), so the
+ * cost of fsync is shared by every download that finished in the meantime.
+ * A crash can lose the last unsynced batch; those downloads simply run again.
+ *
+ * On open, COMPLETE entries from earlier runs are loaded so they can be
+ * skipped, and the journal is compacted down to them. A torn last line from a
+ * crash is ignored. Interrupted downloads are not skipped and pick up their
+ * .part files through ResumableDownloader.
+ */
+public class DownloadJournal implements DownloadScheduler.DownloadListener, Closeable {
+
+	public static enum EntryState {
+		QUEUED,
+		STARTED,
+		COMPLETE,
+		FAILED
+	}
+
+	private final static String FIELD_SEPARATOR = "\t";
+	private final static String NO_HASH = "-";
+	private final static int MAX_PENDING_RECORDS = 64 * 1024;
+	private final static int MAX_BATCH_RECORDS = 8 * 1024;
+	// identity-compared marker that tells the writer to stop
+	private final static String END_OF_JOURNAL = new String("END_OF_JOURNAL");
+
+	private static Logger logger = LogManager.getLogger(DownloadJournal.class);
+
+	private final Path journalPath;
+	private final Map<String, CompletedEntry> completedEntries;
+	private final BlockingQueue<String> pendingRecords = new ArrayBlockingQueue<String>(MAX_PENDING_RECORDS);
+	private final FileChannel channel;
+	private final Thread writerThread;
+	private volatile boolean failed = false;
+	private volatile long batchCount = 0;
+
+	private static class CompletedEntry {
+		final long size;
+		final String hash;
+		final String outputPath;
+
+		CompletedEntry(long size, String hash, String outputPath) {
+			this.size = size;
+			this.hash = hash;
+			this.outputPath = outputPath;
+		}
+	}
+
+	private DownloadJournal(Path journalPath, Map<String, CompletedEntry> completedEntries) throws IOException {
+		this.journalPath = journalPath;
+		this.completedEntries = completedEntries;
+
+		compact();
+		channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+
+		writerThread = new Thread(this::writeBatches, "download-journal");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	public static DownloadJournal open(String journalFile) throws IOException {
+		Path journalPath = Paths.get(journalFile).toAbsolutePath();
+		Map<String, CompletedEntry> completedEntries = recover(journalPath);
+		logger.info("Download journal {}: {} completed download(s) from earlier runs",
+					journalPath, completedEntries.size());
+		return new DownloadJournal(journalPath, completedEntries);
+	}
+
+	/*
+	 * True when an earlier run completed the URL and its output file is still
+	 * there with the recorded size.
+	 */
+	public boolean isComplete(String url) {
+		CompletedEntry entry = completedEntries.get(url);
+		if (entry == null) {
+			return false;
+		}
+
+		try {
+			return Files.size(Paths.get(entry.outputPath)) == entry.size;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	public int getRecoveredCount() {
+		return completedEntries.size();
+	}
+
+	public long getSyncedBatchCount() {
+		return batchCount;
+	}
+
+	public void queued(String url) {
+		append(EntryState.QUEUED, url);
+	}
+
+	@Override
+	public void downloadStarted(FileDownloader downloader) {
+		append(EntryState.STARTED, downloader.getSourceURI());
+	}
+
+	@Override
+	public void downloadFinished(FileDownloader downloader, DownloaderStatus status, long elapsedNanos) {
+		if (status != DownloaderStatus.COMPLETE && status != DownloaderStatus.NOT_MODIFIED) {
+			append(EntryState.FAILED, downloader.getSourceURI(), status.toString());
+			return;
+		}
+
+		String outputPath = downloader.getOutputFilePath();
+		long size;
+		try {
+			size = Files.size(Paths.get(outputPath));
+		} catch (IOException ex) {
+			logger.warn("Completed download has no output file: {}", outputPath);
+			append(EntryState.FAILED, downloader.getSourceURI(), DownloaderStatus.IO_ERROR.toString());
+			return;
+		}
+		String hash = (downloader.getContentDigest() != null) ? downloader.getContentDigest() : NO_HASH;
+		append(EntryState.COMPLETE, downloader.getSourceURI(), String.valueOf(size), hash, outputPath);
+	}
+
+	/*
+	 * Writes and syncs everything recorded so far, then closes the journal.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			pendingRecords.put(END_OF_JOURNAL);
+			writerThread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			channel.close();
+		}
+		logger.debug("Download journal closed after {} synced batch(es)", batchCount);
+	}
+
+	private void append(EntryState state, String url, String... fields) {
+		if (failed) {
+			return;
+		}
+
+		StringBuilder record = new StringBuilder(state.toString()).append(FIELD_SEPARATOR).append(url);
+		for (String field : fields) {
+			record.append(FIELD_SEPARATOR).append(field);
+		}
+		record.append('\n');
+
+		try {
+			// blocks only if the writer falls far behind, which slows producers instead of growing the heap
+			pendingRecords.put(record.toString());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeBatches() {
+		List<String> batch = new ArrayList<String>(MAX_BATCH_RECORDS);
+		boolean done = false;
+
+		while (!done) {
+			try {
+				batch.add(pendingRecords.take());
+			} catch (InterruptedException ex) {
+				return;
+			}
+			pendingRecords.drainTo(batch, MAX_BATCH_RECORDS - 1);
+
+			StringBuilder text = new StringBuilder();
+			for (String record : batch) {
+				if (record == END_OF_JOURNAL) {
+					done = true;
+				}
+				else {
+					text.append(record);
+				}
+			}
+			batch.clear();
+
+			if (!failed && text.length() > 0) {
+				writeAndSync(text);
+			}
+		}
+	}
+
+	private void writeAndSync(CharSequence text) {
+		try {
+			ByteBuffer bytes = StandardCharsets.UTF_8.encode(text.toString());
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			channel.force(false);
+			batchCount++;
+		} catch (IOException ex) {
+			failed = true;
+			logger.error("Unable to write download journal {}, journaling disabled: {}", journalPath, ex.getMessage());
+		}
+	}
+
+	private static Map<String, CompletedEntry> recover(Path journalPath) throws IOException {
+		Map<String, CompletedEntry> completedEntries = new LinkedHashMap<String, CompletedEntry>();
+
+		try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(FIELD_SEPARATOR, 5);
+				if (fields.length < 2) {
+					continue;
+				}
+
+				if (fields[0].equals(EntryState.COMPLETE.toString()) && fields.length == 5) {
+					try {
+						completedEntries.put(fields[1], new CompletedEntry(Long.parseLong(fields[2]), fields[3], fields[4]));
+					} catch (NumberFormatException ex) {
+						// torn line
+					}
+				}
+				else if (fields[0].equals(EntryState.STARTED.toString())) {
+					// downloaded again since the completion was recorded
+					completedEntries.remove(fields[1]);
+				}
+			}
+		} catch (NoSuchFileException ex) {
+			// first run
+		}
+		return completedEntries;
+	}
+
+	/*
+	 * Rewrites the journal with only the completed entries, through a synced
+	 * temporary file and an atomic rename.
+	 */
+	private void compact() throws IOException {
+		Path parent = journalPath.getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+
+		Path compacted = journalPath.resolveSibling(journalPath.getFileName() + ".compact");
+		try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			StringBuilder text = new StringBuilder();
+			for (Map.Entry<String, CompletedEntry> entry : completedEntries.entrySet()) {
+				CompletedEntry completed = entry.getValue();
+				text.append(EntryState.COMPLETE).append(FIELD_SEPARATOR).append(entry.getKey())
+					.append(FIELD_SEPARATOR).append(completed.size)
+					.append(FIELD_SEPARATOR).append(completed.hash)
+					.append(FIELD_SEPARATOR).append(completed.outputPath).append('\n');
+				if (text.length() >= 1024 * 1024) {
+					writeFully(out, text);
+				}
+			}
+			writeFully(out, text);
+			out.force(true);
+		}
+		Files.move(compacted, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeFully(FileChannel out, StringBuilder text) throws IOException {
+		ByteBuffer bytes = StandardCharsets.UTF_8.encode(text.toString());
+		while (bytes.hasRemaining()) {
+			out.write(bytes);
+		}
+		text.setLength(0);
+	}
+}
@@ -0,0 +1,326 @@
+package com.pugkung.filedownload.main;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.pugkung.filedownload.main.DownloadScheduler.DownloadListener;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+
+/*
+ * Counters and histograms for all downloads of the process: bytes moved,
+ * per-download throughput, connect time, time to first byte, queue wait and
+ * download duration, plus the scheduler's active/queued counts and results.
+ *
+ * Every update is a LongAdder/DoubleAdder add, so the copy loops of many
+ * downloads never contend on one cache line. Values are only summed up when
+ * read through JMX (DownloadMetricsMBean) or MetricsHttpServer.
+ */
+public class DownloadMetrics implements DownloadListener, DownloadMetricsMBean {
+
+	public final static String OBJECT_NAME = "com.pugkung.filedownload:type=DownloadMetrics";
+
+	private final static double[] LATENCY_BUCKETS = { 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30 };
+	private final static double[] DURATION_BUCKETS = { 0.1, 0.5, 1, 5, 10, 30, 60, 300, 900, 3600 };
+	private final static double[] THROUGHPUT_BUCKETS = { 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024,
+			4 * 1024 * 1024, 16 * 1024 * 1024, 64 * 1024 * 1024, 256 * 1024 * 1024 };
+
+	private final static DownloadMetrics sharedMetrics = new DownloadMetrics();
+
+	private final LongAdder bytesTransferred = new LongAdder();
+	private final Histogram connectTime = new Histogram(LATENCY_BUCKETS);
+	private final Histogram timeToFirstByte = new Histogram(LATENCY_BUCKETS);
+	private final Histogram queueWait = new Histogram(DURATION_BUCKETS);
+	private final Histogram downloadDuration = new Histogram(DURATION_BUCKETS);
+	private final Histogram downloadThroughput = new Histogram(THROUGHPUT_BUCKETS);
+	private final Set<Transfer> activeTransfers = ConcurrentHashMap.newKeySet();
+	private volatile DownloadScheduler scheduler;
+
+	public static DownloadMetrics getSharedMetrics() {
+		return sharedMetrics;
+	}
+
+	/*
+	 * Reads active/queued counts and results from the scheduler and records
+	 * queue wait and duration of its downloads.
+	 */
+	public void attach(DownloadScheduler scheduler) {
+		this.scheduler = scheduler;
+		scheduler.addDownloadListener(this);
+	}
+
+	public void registerMBean() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (!server.isRegistered(name)) {
+			server.registerMBean(this, name);
+		}
+	}
+
+	public Transfer startTransfer(String sourceURI) {
+		Transfer transfer = new Transfer(sourceURI);
+		activeTransfers.add(transfer);
+		return transfer;
+	}
+
+	/*
+	 * Connects and waits for the response headers, recording how long each took.
+	 */
+	public int awaitResponse(HttpURLConnection http) throws IOException {
+		long startTime = System.nanoTime();
+		http.connect();
+		long connectedTime = System.nanoTime();
+		int responseCode = http.getResponseCode();
+		connectTime.observeNanos(connectedTime - startTime);
+		timeToFirstByte.observeNanos(System.nanoTime() - startTime);
+		return responseCode;
+	}
+
+	public void recordTimeToFirstByte(long nanos) {
+		timeToFirstByte.observeNanos(nanos);
+	}
+
+	@Override
+	public void downloadStarted(FileDownloader downloader, long queuedNanos) {
+		queueWait.observeNanos(queuedNanos);
+	}
+
+	@Override
+	public void downloadFinished(FileDownloader downloader, DownloaderStatus status, long elapsedNanos) {
+		downloadDuration.observeNanos(elapsedNanos);
+	}
+
+	/*
+	 * Prometheus text exposition format, version 0.0.4.
+	 */
+	public String toPrometheusText() {
+		StringBuilder text = new StringBuilder();
+		appendMetric(text, "filedownload_bytes_total", "counter", "Bytes written by all downloads", getBytesTransferred());
+		appendMetric(text, "filedownload_throughput_bytes_per_second", "gauge",
+				"Combined rate of the running transfers", getBytesPerSecond());
+		appendMetric(text, "filedownload_active_downloads", "gauge", "Downloads running now", getActiveDownloads());
+		appendMetric(text, "filedownload_queued_downloads", "gauge", "Downloads waiting for a slot", getQueuedDownloads());
+		appendMetric(text, "filedownload_retries_total", "counter", "Attempts scheduled again after a failure", getRetries());
+
+		text.append("# HELP filedownload_results_total Finished downloads by result\n");
+		text.append("# TYPE filedownload_results_total counter\n");
+		for (DownloaderStatus status : DownloaderStatus.values()) {
+			text.append("filedownload_results_total{status=\"").append(status.toString().toLowerCase()).append("\"} ")
+					.append(getResultCount(status)).append('\n');
+		}
+
+		connectTime.appendTo(text, "filedownload_connect_seconds", "Time to open the connection");
+		timeToFirstByte.appendTo(text, "filedownload_time_to_first_byte_seconds", "Time from request to response headers");
+		queueWait.appendTo(text, "filedownload_queue_wait_seconds", "Time from submission to start");
+		downloadDuration.appendTo(text, "filedownload_duration_seconds", "Time each download attempt ran");
+		downloadThroughput.appendTo(text, "filedownload_download_bytes_per_second", "Average rate of each completed transfer");
+		return text.toString();
+	}
+
+	private static void appendMetric(StringBuilder text, String name, String type, String help, double value) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		text.append(name).append(' ').append(formatValue(value)).append('\n');
+	}
+
+	private static String formatValue(double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value)) {
+			return String.valueOf((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	@Override
+	public long getBytesTransferred() {
+		return bytesTransferred.sum();
+	}
+
+	@Override
+	public long getBytesPerSecond() {
+		long total = 0;
+		for (Transfer transfer : activeTransfers) {
+			total += transfer.getBytesPerSecond();
+		}
+		return total;
+	}
+
+	@Override
+	public int getActiveDownloads() {
+		DownloadScheduler attached = scheduler;
+		return (attached != null) ? attached.getActiveCount() : 0;
+	}
+
+	@Override
+	public int getQueuedDownloads() {
+		DownloadScheduler attached = scheduler;
+		return (attached != null) ? attached.getQueuedCount() : 0;
+	}
+
+	@Override
+	public long getCompletedDownloads() {
+		return getResultCount(DownloaderStatus.COMPLETE) + getResultCount(DownloaderStatus.NOT_MODIFIED);
+	}
+
+	@Override
+	public long getFailedDownloads() {
+		return getResultCount(DownloaderStatus.IO_ERROR) + getResultCount(DownloaderStatus.URL_ERROR) +
+				getResultCount(DownloaderStatus.CHECKSUM_ERROR);
+	}
+
+	@Override
+	public long getRetries() {
+		DownloadScheduler attached = scheduler;
+		return (attached != null) ? attached.getRetryCount() : 0;
+	}
+
+	public long getResultCount(DownloaderStatus status) {
+		DownloadScheduler attached = scheduler;
+		return (attached != null) ? attached.getResultCount(status) : 0;
+	}
+
+	@Override
+	public double getMeanConnectMillis() {
+		return connectTime.getMean() * 1000;
+	}
+
+	@Override
+	public double getMeanTimeToFirstByteMillis() {
+		return timeToFirstByte.getMean() * 1000;
+	}
+
+	/*
+	 * Responses and their summed time to first byte so far; differences between
+	 * two reads give the mean of the responses in between.
+	 */
+	public long getTimeToFirstByteCount() {
+		return timeToFirstByte.getCount();
+	}
+
+	public double getTimeToFirstByteSeconds() {
+		return timeToFirstByte.getSum();
+	}
+
+	@Override
+	public double getMeanQueueWaitMillis() {
+		return queueWait.getMean() * 1000;
+	}
+
+	@Override
+	public String[] getActiveTransfers() {
+		List<String> transfers = new ArrayList<String>();
+		for (Transfer transfer : activeTransfers) {
+			transfers.add(transfer.sourceURI + " " + transfer.getBytes() + " bytes, " + transfer.getBytesPerSecond() + " bytes/s");
+		}
+		return transfers.toArray(new String[0]);
+	}
+
+	/*
+	 * Byte count of one download. Segments of the same download may add to it
+	 * from several threads.
+	 */
+	public class Transfer {
+		private final String sourceURI;
+		private final long startNanos = System.nanoTime();
+		private final LongAdder bytes = new LongAdder();
+
+		private Transfer(String sourceURI) {
+			this.sourceURI = sourceURI;
+		}
+
+		public void add(long count) {
+			bytes.add(count);
+			bytesTransferred.add(count);
+		}
+
+		public long getBytes() {
+			return bytes.sum();
+		}
+
+		public long getBytesPerSecond() {
+			long elapsed = System.nanoTime() - startNanos;
+			return (elapsed > 0) ? (long) (getBytes() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed) : 0;
+		}
+
+		/*
+		 * Only completed transfers count towards the throughput histogram.
+		 */
+		public void finish(boolean completed) {
+			if (activeTransfers.remove(this) && completed && getBytes() > 0) {
+				downloadThroughput.observe(getBytesPerSecond());
+			}
+		}
+	}
+
+	private static class Histogram {
+		private final double[] bounds;
+		private final LongAdder[] buckets;
+		private final LongAdder count = new LongAdder();
+		private final DoubleAdder sum = new DoubleAdder();
+
+		Histogram(double[] bounds) {
+			this.bounds = bounds;
+			this.buckets = new LongAdder[bounds.length];
+			for (int i = 0; i < bounds.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void observeNanos(long nanos) {
+			observe(nanos / 1e9);
+		}
+
+		/*
+		 * Only the first matching bucket is incremented; the cumulative counts
+		 * Prometheus expects are summed up on export.
+		 */
+		void observe(double value) {
+			for (int i = 0; i < bounds.length; i++) {
+				if (value <= bounds[i]) {
+					buckets[i].increment();
+					break;
+				}
+			}
+			count.increment();
+			sum.add(value);
+		}
+
+		long getCount() {
+			return count.sum();
+		}
+
+		double getSum() {
+			return sum.sum();
+		}
+
+		double getMean() {
+			long observations = count.sum();
+			return (observations > 0) ? sum.sum() / observations : 0;
+		}
+
+		void appendTo(StringBuilder text, String name, String help) {
+			text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+			text.append("# TYPE ").append(name).append(" histogram\n");
+			long cumulative = 0;
+			for (int i = 0; i < bounds.length; i++) {
+				cumulative += buckets[i].sum();
+				text.append(name).append("_bucket{le=\"").append(formatValue(bounds[i])).append("\"} ")
+						.append(cumulative).append('\n');
+			}
+			long observations = count.sum();
+			text.append(name).append("_bucket{le=\"+Inf\"} ").append(Math.max(observations, cumulative)).append('\n');
+			text.append(name).append("_sum ").append(formatValue(sum.sum())).append('\n');
+			text.append(name).append("_count ").append(observations).append('\n');
+		}
+	}
+}
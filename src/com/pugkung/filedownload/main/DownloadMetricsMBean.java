@@ -0,0 +1,33 @@
+package com.pugkung.filedownload.main;
+
+/*
+ * JMX view of DownloadMetrics, registered as
+ * "com.pugkung.filedownload:type=DownloadMetrics".
+ */
+public interface DownloadMetricsMBean {
+
+	long getBytesTransferred();
+
+	long getBytesPerSecond();
+
+	int getActiveDownloads();
+
+	int getQueuedDownloads();
+
+	long getCompletedDownloads();
+
+	long getFailedDownloads();
+
+	long getRetries();
+
+	double getMeanConnectMillis();
+
+	double getMeanTimeToFirstByteMillis();
+
+	double getMeanQueueWaitMillis();
+
+	/*
+	 * One "<url> <bytes> bytes, <rate> bytes/s" line per running transfer.
+	 */
+	String[] getActiveTransfers();
+}
@@ -0,0 +1,104 @@
+package com.pugkung.filedownload.main;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/*
+ * Scheduling order of one download: a higher priority starts first, and among
+ * downloads of the same priority the earliest deadline starts first. Downloads
+ * without a deadline go after those with one.
+ *
+ * A deadline is either an ISO-8601 instant ("2026-10-18T06:00:00Z") or an
+ * ISO-8601 duration counted from when it is parsed ("PT30M").
+ */
+public class DownloadPriority implements Comparable<DownloadPriority> {
+
+	public final static int DEFAULT_PRIORITY = 0;
+	public final static long NO_DEADLINE = Long.MAX_VALUE;
+	public final static DownloadPriority DEFAULT = new DownloadPriority(DEFAULT_PRIORITY, NO_DEADLINE);
+
+	private final int priority;
+	private final long deadlineMillis;
+
+	public DownloadPriority(int priority, long deadlineMillis) {
+		this.priority = priority;
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	/*
+	 * Either value may be null or empty to keep its default.
+	 */
+	public static DownloadPriority parse(String priority, String deadline) {
+		int parsedPriority = DEFAULT_PRIORITY;
+		long parsedDeadline = NO_DEADLINE;
+
+		if (priority != null && !priority.trim().isEmpty()) {
+			try {
+				parsedPriority = Integer.parseInt(priority.trim());
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("Priority must be an integer: " + priority);
+			}
+		}
+		if (deadline != null && !deadline.trim().isEmpty()) {
+			parsedDeadline = parseDeadline(deadline.trim(), System.currentTimeMillis());
+		}
+		return new DownloadPriority(parsedPriority, parsedDeadline);
+	}
+
+	static long parseDeadline(String deadline, long nowMillis) {
+		try {
+			if (deadline.startsWith("P") || deadline.startsWith("p")) {
+				return nowMillis + Duration.parse(deadline).toMillis();
+			}
+			return Instant.parse(deadline).toEpochMilli();
+		} catch (DateTimeParseException | ArithmeticException ex) {
+			throw new IllegalArgumentException("Deadline must be an ISO-8601 instant or duration: " + deadline);
+		}
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	/*
+	 * Milliseconds since the epoch, or NO_DEADLINE.
+	 */
+	public long getDeadlineMillis() {
+		return deadlineMillis;
+	}
+
+	public boolean hasDeadline() {
+		return deadlineMillis != NO_DEADLINE;
+	}
+
+	/*
+	 * Negative when this download should start before the other one.
+	 */
+	@Override
+	public int compareTo(DownloadPriority other) {
+		if (priority != other.priority) {
+			return (priority > other.priority) ? -1 : 1;
+		}
+		return Long.compare(deadlineMillis, other.deadlineMillis);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof DownloadPriority)) {
+			return false;
+		}
+		DownloadPriority other = (DownloadPriority) obj;
+		return priority == other.priority && deadlineMillis == other.deadlineMillis;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * priority + Long.hashCode(deadlineMillis);
+	}
+
+	@Override
+	public String toString() {
+		return "priority " + priority + (hasDeadline() ? ", deadline " + Instant.ofEpochMilli(deadlineMillis) : "");
+	}
+}
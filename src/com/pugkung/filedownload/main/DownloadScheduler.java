@@ -0,0 +1,689 @@
+package com.pugkung.filedownload.main;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+
+/*
+ * Runs downloads with a global concurrency limit and an optional per-host limit.
+ *
+ * Submitted tasks wait in one queue per host, ordered by their DownloadPriority
+ * (priority first, then earliest deadline) and, when shortest-job-first is on,
+ * by expected length; equal tasks keep their submission order. Whenever a slot
+ * frees up the dispatcher starts the best next task among the hosts that are
+ * not at their limit. Hosts whose next tasks rank the same take turns in
+ * round-robin order, so one busy origin cannot starve the others.
+ *
+ * The number of running downloads can be lowered below the configured maximum
+ * at any time with setConcurrencyLimit(), e.g. by AdaptiveConcurrencyController.
+ *
+ * Failed attempts the RetryPolicy considers transient are put back in their
+ * host queue by a timer once the backoff delay has passed. A task waiting to
+ * be retried holds no worker thread and no concurrency slot.
+ */
+public class DownloadScheduler {
+
+	public static enum ExecutionMode {
+		PLATFORM,
+		VIRTUAL
+	}
+
+	public static interface DownloadListener {
+		/*
+		 * Called on the dispatching thread right before a download starts. Must not block.
+		 */
+		default void downloadStarted(FileDownloader downloader) {
+		}
+
+		/*
+		 * Same as downloadStarted(downloader), with the time the task waited in
+		 * its host queue before this attempt.
+		 */
+		default void downloadStarted(FileDownloader downloader, long queuedNanos) {
+			downloadStarted(downloader);
+		}
+
+		/*
+		 * Called on the finishing thread after each attempt that ran to completion
+		 * or failure, including attempts that will be retried. Must not block.
+		 */
+		void downloadFinished(FileDownloader downloader, DownloaderStatus status, long elapsedNanos);
+	}
+
+	public final static int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 8;
+	public final static int UNLIMITED_DOWNLOADS_PER_HOST = 0;
+	private final static int QUEUE_SIZE_PER_WORKER = 4;
+	// with per-host limits the queue must be deep enough to look past a busy host
+	private final static int MIN_QUEUE_SIZE_WITH_HOST_LIMIT = 10000;
+
+	private Logger logger = LogManager.getLogger(DownloadScheduler.class);
+
+	private final ExecutorService executor;
+	private final ExecutionMode executionMode;
+	private final int maxConcurrentDownloads;
+	private final int maxDownloadsPerHost;
+	private final Semaphore submitPermits;
+	private final AtomicInteger activeTasks = new AtomicInteger();
+	private final Map<DownloaderStatus, LongAdder> resultCounts;
+	private final ScheduledThreadPoolExecutor retryTimer;
+	private final LongAdder retryCount = new LongAdder();
+	private volatile RetryPolicy retryPolicy = RetryPolicy.NO_RETRY;
+	private final Object completionLock = new Object();
+	private int pendingTasks = 0;
+	private volatile int concurrencyLimit;
+	private volatile boolean shortestJobFirst = false;
+	private final CopyOnWriteArrayList<DownloadListener> downloadListeners = new CopyOnWriteArrayList<DownloadListener>();
+
+	// dispatch state, guarded by dispatchLock
+	private final Object dispatchLock = new Object();
+	private final Map<String, HostQueue> hostQueues = new HashMap<String, HostQueue>();
+	private final PriorityQueue<HostQueue> readyHosts = new PriorityQueue<HostQueue>(this::compareHosts);
+	private int runningTasks = 0;
+	private long taskSequence = 0;
+	private long readySequence = 0;
+
+	public DownloadScheduler(int maxConcurrentDownloads) {
+		this(maxConcurrentDownloads, maxConcurrentDownloads * QUEUE_SIZE_PER_WORKER);
+	}
+
+	public DownloadScheduler(int maxConcurrentDownloads, int queueCapacity) {
+		this(maxConcurrentDownloads, queueCapacity, ExecutionMode.PLATFORM);
+	}
+
+	public DownloadScheduler(int maxConcurrentDownloads, ExecutionMode executionMode) {
+		this(maxConcurrentDownloads, maxConcurrentDownloads * QUEUE_SIZE_PER_WORKER, executionMode);
+	}
+
+	public DownloadScheduler(int maxConcurrentDownloads, int queueCapacity, ExecutionMode executionMode) {
+		this(maxConcurrentDownloads, queueCapacity, UNLIMITED_DOWNLOADS_PER_HOST, executionMode);
+	}
+
+	public DownloadScheduler(int maxConcurrentDownloads, int queueCapacity, int maxDownloadsPerHost,
+			ExecutionMode executionMode) {
+		if (maxConcurrentDownloads <= 0) {
+			maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+		}
+		if (queueCapacity <= 0) {
+			queueCapacity = maxConcurrentDownloads * QUEUE_SIZE_PER_WORKER;
+		}
+		if (maxDownloadsPerHost < 0 || maxDownloadsPerHost >= maxConcurrentDownloads) {
+			maxDownloadsPerHost = UNLIMITED_DOWNLOADS_PER_HOST;
+		}
+		if (maxDownloadsPerHost != UNLIMITED_DOWNLOADS_PER_HOST) {
+			queueCapacity = Math.max(queueCapacity, MIN_QUEUE_SIZE_WITH_HOST_LIMIT);
+		}
+
+		this.maxConcurrentDownloads = maxConcurrentDownloads;
+		this.concurrencyLimit = maxConcurrentDownloads;
+		this.maxDownloadsPerHost = maxDownloadsPerHost;
+
+		// running + queued tasks never exceed the permit count, so submit() blocks instead of
+		// growing the host queues without bound
+		submitPermits = new Semaphore(maxConcurrentDownloads + queueCapacity);
+
+		ExecutorService virtualExecutor = null;
+		if (executionMode == ExecutionMode.VIRTUAL) {
+			virtualExecutor = newVirtualThreadExecutor();
+			if (virtualExecutor == null) {
+				logger.warn("Virtual threads are not available on Java {}. Falling back to platform threads.",
+							System.getProperty("java.version"));
+			}
+		}
+
+		if (virtualExecutor != null) {
+			// one virtual thread per started download
+			this.executionMode = ExecutionMode.VIRTUAL;
+			executor = virtualExecutor;
+		}
+		else {
+			// the dispatcher never starts more than maxConcurrentDownloads tasks, so the pool
+			// queue only holds a task briefly while a finishing worker becomes free
+			this.executionMode = ExecutionMode.PLATFORM;
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrentDownloads, maxConcurrentDownloads,
+					60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(),
+					new DownloaderThreadFactory("downloader-", false));
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+
+		retryTimer = new ScheduledThreadPoolExecutor(1, new DownloaderThreadFactory("download-retry-", true));
+
+		resultCounts = new EnumMap<DownloaderStatus, LongAdder>(DownloaderStatus.class);
+		for (DownloaderStatus status : DownloaderStatus.values()) {
+			resultCounts.put(status, new LongAdder());
+		}
+	}
+
+	public CompletableFuture<DownloaderStatus> submit(FileDownloader downloader) {
+		DownloadTask task = new DownloadTask(downloader);
+		enqueue(task);
+		return task.future;
+	}
+
+	/*
+	 * Queues a non-blocking download. Once dispatched it runs without holding a
+	 * worker thread but still counts against the concurrency limits.
+	 */
+	public CompletableFuture<DownloaderStatus> submitAsync(AsyncFileDownloader downloader) {
+		AsyncDownloadTask task = new AsyncDownloadTask(downloader);
+		enqueue(task);
+		return task.result;
+	}
+
+	public void awaitCompletion() throws InterruptedException {
+		synchronized (completionLock) {
+			while (pendingTasks > 0) {
+				completionLock.wait();
+			}
+		}
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+		retryTimer.shutdown();
+	}
+
+	public int getMaxConcurrentDownloads() {
+		return maxConcurrentDownloads;
+	}
+
+	public int getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	/*
+	 * Changes how many downloads may run at once, between 1 and the configured
+	 * maximum. Lowering it lets running downloads finish; nothing is cancelled.
+	 */
+	public void setConcurrencyLimit(int limit) {
+		concurrencyLimit = Math.max(1, Math.min(limit, maxConcurrentDownloads));
+		dispatch();
+	}
+
+	public boolean isShortestJobFirst() {
+		return shortestJobFirst;
+	}
+
+	/*
+	 * Among downloads of the same priority and deadline, starts the one with the
+	 * smallest FileDownloader.getExpectedLength() first; unknown lengths go last.
+	 * Must be set before downloads are submitted.
+	 */
+	public void setShortestJobFirst(boolean shortestJobFirst) {
+		this.shortestJobFirst = shortestJobFirst;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = (retryPolicy == null) ? RetryPolicy.NO_RETRY : retryPolicy;
+	}
+
+	public long getRetryCount() {
+		return retryCount.sum();
+	}
+
+	public void addDownloadListener(DownloadListener downloadListener) {
+		downloadListeners.add(downloadListener);
+	}
+
+	public void removeDownloadListener(DownloadListener downloadListener) {
+		downloadListeners.remove(downloadListener);
+	}
+
+	public int getMaxDownloadsPerHost() {
+		return maxDownloadsPerHost;
+	}
+
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	public int getActiveCount() {
+		return activeTasks.get();
+	}
+
+	public int getQueuedCount() {
+		synchronized (completionLock) {
+			return Math.max(0, pendingTasks - activeTasks.get());
+		}
+	}
+
+	public long getResultCount(DownloaderStatus status) {
+		return resultCounts.get(status).sum();
+	}
+
+	public static boolean isVirtualThreadSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+
+	/*
+	 * The default build targets Java 1.8, so the Java 21 factory is looked up reflectively.
+	 * Returns null when the running JVM has no virtual thread support.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			return null;
+		}
+	}
+
+	/*
+	 * Key used for per-host limits: lower-case host, plus the port when one is given.
+	 * URLs without a host share the empty key.
+	 */
+	public static String hostKeyOf(String sourceURI) {
+		try {
+			URI uri = new URI(sourceURI);
+			if (uri.getHost() != null) {
+				String host = uri.getHost().toLowerCase();
+				return (uri.getPort() == -1) ? host : host + ":" + uri.getPort();
+			}
+		} catch (URISyntaxException ex) {
+			// falls through to the shared key
+		}
+		return "";
+	}
+
+	private void enqueue(ScheduledTask task) {
+		try {
+			submitPermits.acquire();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a free download slot", ex);
+		}
+
+		synchronized (completionLock) {
+			pendingTasks++;
+		}
+		addToHostQueue(task);
+	}
+
+	private void addToHostQueue(ScheduledTask task) {
+		synchronized (dispatchLock) {
+			HostQueue hostQueue = hostQueues.get(task.hostKey);
+			if (hostQueue == null) {
+				hostQueue = new HostQueue(task.hostKey, this::compareTasks);
+				hostQueues.put(task.hostKey, hostQueue);
+			}
+			task.hostQueue = hostQueue;
+			task.queuedNanos = System.nanoTime();
+			task.sequence = taskSequence++;
+			hostQueue.waiting.add(task);
+			if (hostQueue.ready && hostQueue.waiting.peek() == task) {
+				// the host ranks by its next task; keep its turn but move it up
+				readyHosts.remove(hostQueue);
+				readyHosts.add(hostQueue);
+			}
+			markReady(hostQueue);
+		}
+		dispatch();
+	}
+
+	/*
+	 * Starts queued tasks while global and per-host slots are free, taking one
+	 * task from each ready host in turn.
+	 */
+	private void dispatch() {
+		while (true) {
+			ScheduledTask next;
+			synchronized (dispatchLock) {
+				if (runningTasks >= concurrencyLimit || readyHosts.isEmpty()) {
+					return;
+				}
+
+				HostQueue hostQueue = readyHosts.poll();
+				hostQueue.ready = false;
+				next = hostQueue.waiting.poll();
+				hostQueue.running++;
+				runningTasks++;
+				markReady(hostQueue);
+			}
+
+			next.startNanos = System.nanoTime();
+			if (next.priority.hasDeadline() && System.currentTimeMillis() > next.priority.getDeadlineMillis()) {
+				logger.warn("Starting {} after its deadline ({})", next.sourceURI, next.priority);
+			}
+			notifyStarted(next);
+			try {
+				next.start();
+			} catch (RuntimeException ex) {
+				logger.error("Unable to start download: {}", ex.getMessage());
+				taskFinished(next, null);
+				next.fail(ex);
+			}
+		}
+	}
+
+	// caller holds dispatchLock
+	private void markReady(HostQueue hostQueue) {
+		boolean underLimit = maxDownloadsPerHost == UNLIMITED_DOWNLOADS_PER_HOST ||
+				hostQueue.running < maxDownloadsPerHost;
+		if (!hostQueue.ready && underLimit && !hostQueue.waiting.isEmpty()) {
+			hostQueue.ready = true;
+			hostQueue.readySequence = readySequence++;
+			readyHosts.add(hostQueue);
+		}
+	}
+
+	private int compareTasks(ScheduledTask a, ScheduledTask b) {
+		int order = compareOrder(a, b);
+		return (order != 0) ? order : Long.compare(a.sequence, b.sequence);
+	}
+
+	/*
+	 * Hosts rank by their next task; a host that just had its turn goes behind
+	 * the ones that rank the same.
+	 */
+	private int compareHosts(HostQueue a, HostQueue b) {
+		int order = compareOrder(a.waiting.peek(), b.waiting.peek());
+		return (order != 0) ? order : Long.compare(a.readySequence, b.readySequence);
+	}
+
+	private int compareOrder(ScheduledTask a, ScheduledTask b) {
+		int order = a.priority.compareTo(b.priority);
+		if (order == 0 && shortestJobFirst) {
+			order = Long.compare(lengthOrder(a.expectedLength), lengthOrder(b.expectedLength));
+		}
+		return order;
+	}
+
+	private static long lengthOrder(long expectedLength) {
+		return (expectedLength == FileDownloader.UNKNOWN_LENGTH) ? Long.MAX_VALUE : expectedLength;
+	}
+
+	/*
+	 * Returns true when the failed attempt was scheduled to run again; the task
+	 * then stays pending and its future is completed by a later attempt.
+	 */
+	private boolean attemptFinished(ScheduledTask task, DownloaderStatus status) {
+		FileDownloader downloader = task.getDownloader();
+		Throwable cause = (downloader != null) ? downloader.getFailureCause() : null;
+		RetryPolicy policy = retryPolicy;
+		if (status == null || !policy.shouldRetry(task.attempt, status, cause)) {
+			taskFinished(task, status);
+			return false;
+		}
+
+		long delayMillis = policy.getDelayMillis(task.attempt, cause);
+		notifyFinished(task, status);
+		task.attempt++;
+		retryCount.increment();
+		logger.info("Retrying {} in {}ms (attempt {} of {})", task.sourceURI, Unbox.box(delayMillis),
+					Unbox.box(task.attempt), Unbox.box(policy.getMaxRetries() + 1));
+
+		releaseSlot(task);
+		try {
+			retryTimer.schedule(() -> addToHostQueue(task), delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException ex) {
+			// shut down while the attempt was running; report the failure instead
+			resultCounts.get(status).increment();
+			finishPending();
+			return false;
+		}
+		dispatch();
+		return true;
+	}
+
+	private void taskFinished(ScheduledTask task, DownloaderStatus status) {
+		if (status != null) {
+			resultCounts.get(status).increment();
+			notifyFinished(task, status);
+		}
+
+		releaseSlot(task);
+		finishPending();
+	}
+
+	private void releaseSlot(ScheduledTask task) {
+		synchronized (dispatchLock) {
+			HostQueue hostQueue = task.hostQueue;
+			runningTasks--;
+			hostQueue.running--;
+			markReady(hostQueue);
+			if (hostQueue.running == 0 && hostQueue.waiting.isEmpty()) {
+				hostQueues.remove(hostQueue.hostKey);
+			}
+		}
+	}
+
+	private void finishPending() {
+		// released after the count, so a blocked submit() cannot briefly exceed the queue bound
+		synchronized (completionLock) {
+			pendingTasks--;
+			if (pendingTasks == 0) {
+				completionLock.notifyAll();
+			}
+		}
+		submitPermits.release();
+		dispatch();
+	}
+
+	private void notifyStarted(ScheduledTask task) {
+		FileDownloader downloader = task.getDownloader();
+		if (downloader == null) {
+			return;
+		}
+
+		for (DownloadListener listener : downloadListeners) {
+			try {
+				listener.downloadStarted(downloader, task.startNanos - task.queuedNanos);
+			} catch (RuntimeException ex) {
+				logger.error("Download listener failed: {}", ex.getMessage());
+			}
+		}
+	}
+
+	private void notifyFinished(ScheduledTask task, DownloaderStatus status) {
+		FileDownloader downloader = task.getDownloader();
+		if (downloader == null) {
+			return;
+		}
+
+		long elapsedNanos = System.nanoTime() - task.startNanos;
+		for (DownloadListener listener : downloadListeners) {
+			try {
+				listener.downloadFinished(downloader, status, elapsedNanos);
+			} catch (RuntimeException ex) {
+				logger.error("Download listener failed: {}", ex.getMessage());
+			}
+		}
+	}
+
+	private static class HostQueue {
+		final String hostKey;
+		final PriorityQueue<ScheduledTask> waiting;
+		int running = 0;
+		boolean ready = false;
+		long readySequence;
+
+		HostQueue(String hostKey, Comparator<ScheduledTask> taskOrder) {
+			this.hostKey = hostKey;
+			this.waiting = new PriorityQueue<ScheduledTask>(taskOrder);
+		}
+	}
+
+	private static abstract class ScheduledTask {
+		final String sourceURI;
+		final String hostKey;
+		final DownloadPriority priority;
+		final long expectedLength;
+		HostQueue hostQueue;
+		long sequence;
+		long queuedNanos;
+		long startNanos;
+		int attempt = 1;
+
+		ScheduledTask(String sourceURI, FileDownloader downloader) {
+			this.sourceURI = sourceURI;
+			this.hostKey = hostKeyOf(sourceURI);
+			this.priority = (downloader != null) ? downloader.getPriority() : DownloadPriority.DEFAULT;
+			this.expectedLength = (downloader != null) ? downloader.getExpectedLength() : FileDownloader.UNKNOWN_LENGTH;
+		}
+
+		abstract void start();
+
+		/*
+		 * Completes the future of a task that could not be started.
+		 */
+		abstract void fail(Throwable cause);
+
+		abstract FileDownloader getDownloader();
+	}
+
+	private class DownloadTask extends ScheduledTask implements Runnable {
+		final FileDownloader downloader;
+		final CompletableFuture<DownloaderStatus> future = new CompletableFuture<DownloaderStatus>();
+
+		DownloadTask(FileDownloader downloader) {
+			super(downloader.getSourceURI(), downloader);
+			this.downloader = downloader;
+		}
+
+		@Override
+		void start() {
+			executor.execute(this);
+		}
+
+		@Override
+		void fail(Throwable cause) {
+			future.completeExceptionally(cause);
+		}
+
+		@Override
+		public void run() {
+			if (future.isCancelled()) {
+				taskFinished(this, null);
+				return;
+			}
+
+			Throwable failure = null;
+			activeTasks.incrementAndGet();
+			try {
+				downloader.run();
+			} catch (Throwable ex) {
+				logger.error("Download task failed unexpectedly: {}", ex.getMessage());
+				failure = ex;
+			} finally {
+				activeTasks.decrementAndGet();
+			}
+
+			DownloaderStatus status = (failure == null) ? downloader.getResultCd() : null;
+			if (attemptFinished(this, status)) {
+				return;
+			}
+			if (failure != null) {
+				future.completeExceptionally(failure);
+			}
+			else {
+				future.complete(status);
+			}
+		}
+
+		@Override
+		FileDownloader getDownloader() {
+			return downloader;
+		}
+	}
+
+	private class AsyncDownloadTask extends ScheduledTask {
+		final AsyncFileDownloader downloader;
+		final CompletableFuture<DownloaderStatus> result = new CompletableFuture<DownloaderStatus>();
+
+		AsyncDownloadTask(AsyncFileDownloader downloader) {
+			super(downloader.getSourceURI(),
+					(downloader instanceof FileDownloader) ? (FileDownloader) downloader : null);
+			this.downloader = downloader;
+		}
+
+		@Override
+		void start() {
+			activeTasks.incrementAndGet();
+			CompletableFuture<DownloaderStatus> download;
+			try {
+				download = downloader.downloadAsync();
+			} catch (RuntimeException ex) {
+				activeTasks.decrementAndGet();
+				throw ex;
+			}
+			download.whenComplete((status, ex) -> {
+				if (ex != null) {
+					logger.error("Download task failed unexpectedly: {}", ex.getMessage());
+				}
+				activeTasks.decrementAndGet();
+				if (attemptFinished(this, status)) {
+					return;
+				}
+
+				if (ex != null) {
+					result.completeExceptionally(ex);
+				}
+				else {
+					result.complete(status);
+				}
+			});
+		}
+
+		@Override
+		void fail(Throwable cause) {
+			result.completeExceptionally(cause);
+		}
+
+		@Override
+		FileDownloader getDownloader() {
+			return (downloader instanceof FileDownloader) ? (FileDownloader) downloader : null;
+		}
+	}
+
+	private static class DownloaderThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		private final String namePrefix;
+		private final boolean daemon;
+
+		DownloaderThreadFactory(String namePrefix, boolean daemon) {
+			this.namePrefix = namePrefix;
+			this.daemon = daemon;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, namePrefix + threadNumber.getAndIncrement());
+			t.setDaemon(daemon);
+			return t;
+		}
+	}
+}
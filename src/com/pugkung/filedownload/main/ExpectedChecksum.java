@@ -0,0 +1,164 @@
+package com.pugkung.filedownload.main;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+/*
+ * Digest a download is expected to have, written in the config as
+ * "<algorithm>:<hex>", e.g. "sha256:9f86d0...". The digest is computed by
+ * StreamCopier while the body streams to disk.
+ *
+ * All algorithms map to JDK implementations the JIT replaces with hardware
+ * intrinsics where the CPU has them: CRC32 (Java 8+), CRC32C (Java 9+),
+ * SHA-1/SHA-256 with the SHA extensions (Java 9+) and MD5 (Java 16+). CRC32C
+ * is the cheapest choice when the source only needs to detect corruption.
+ */
+public class ExpectedChecksum {
+
+	public static enum Algorithm {
+		SHA256("SHA-256"),
+		SHA1("SHA-1"),
+		MD5("MD5"),
+		CRC32("java.util.zip.CRC32"),
+		CRC32C("java.util.zip.CRC32C");
+
+		private final String implementation;
+
+		private Algorithm(String implementation) {
+			this.implementation = implementation;
+		}
+	}
+
+	private final static String SEPARATOR = ":";
+
+	private final Algorithm algorithm;
+	private final String hex;
+
+	public ExpectedChecksum(Algorithm algorithm, String hex) {
+		this.algorithm = algorithm;
+		this.hex = hex.toLowerCase();
+	}
+
+	/*
+	 * Throws IllegalArgumentException for an unknown algorithm, a malformed
+	 * digest, or CRC32C on a runtime older than Java 9.
+	 */
+	public static ExpectedChecksum parse(String spec) {
+		int separator = spec.indexOf(SEPARATOR);
+		if (separator < 0) {
+			throw new IllegalArgumentException("Expected <algorithm>:<hex digest>, got: " + spec);
+		}
+
+		String name = spec.substring(0, separator).trim().toUpperCase().replace("-", "");
+		Algorithm algorithm;
+		try {
+			algorithm = Algorithm.valueOf(name);
+		} catch (IllegalArgumentException ex) {
+			throw new IllegalArgumentException("Unsupported checksum algorithm: " + spec.substring(0, separator));
+		}
+
+		ExpectedChecksum checksum = new ExpectedChecksum(algorithm, spec.substring(separator + 1).trim());
+		int expectedLength = checksum.newDigest().getDigestLength() * 2;
+		if (checksum.hex.length() != expectedLength || !checksum.hex.matches("[0-9a-f]+")) {
+			throw new IllegalArgumentException("Expected " + expectedLength + " hex digits for " + algorithm + ": " + spec);
+		}
+		return checksum;
+	}
+
+	/*
+	 * CRC variants are wrapped as MessageDigests so the copy loop has one hashing path.
+	 */
+	public MessageDigest newDigest() {
+		try {
+			if (algorithm == Algorithm.CRC32 || algorithm == Algorithm.CRC32C) {
+				return new ChecksumDigest(algorithm.toString(),
+						(Checksum) Class.forName(algorithm.implementation).getDeclaredConstructor().newInstance());
+			}
+			return MessageDigest.getInstance(algorithm.implementation);
+		} catch (ClassNotFoundException ex) {
+			throw new IllegalArgumentException(algorithm + " requires Java 9 or newer");
+		} catch (ReflectiveOperationException | NoSuchAlgorithmException ex) {
+			throw new IllegalArgumentException("Checksum algorithm is not available: " + algorithm, ex);
+		}
+	}
+
+	/*
+	 * True when the given digest, computed by a digest from newDigest(), is the expected one.
+	 */
+	public boolean matches(byte[] digest) {
+		return hex.equals(ContentStore.toHex(digest));
+	}
+
+	public boolean matches(String hexDigest) {
+		return hex.equalsIgnoreCase(hexDigest);
+	}
+
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public String getHex() {
+		return hex;
+	}
+
+	@Override
+	public String toString() {
+		return algorithm.toString().toLowerCase() + SEPARATOR + hex;
+	}
+
+	private static class ChecksumDigest extends MessageDigest {
+		private final Checksum checksum;
+		private final MethodHandle byteBufferUpdate;
+
+		ChecksumDigest(String name, Checksum checksum) throws ReflectiveOperationException {
+			super(name);
+			this.checksum = checksum;
+			// update(ByteBuffer) reads direct buffers without a copy; on Checksum itself it only exists from Java 9
+			this.byteBufferUpdate = MethodHandles.publicLookup().findVirtual(checksum.getClass(), "update",
+					MethodType.methodType(void.class, ByteBuffer.class));
+		}
+
+		@Override
+		protected int engineGetDigestLength() {
+			return 4;
+		}
+
+		@Override
+		protected void engineUpdate(byte input) {
+			checksum.update(input);
+		}
+
+		@Override
+		protected void engineUpdate(byte[] input, int offset, int len) {
+			checksum.update(input, offset, len);
+		}
+
+		@Override
+		protected void engineUpdate(ByteBuffer input) {
+			try {
+				byteBufferUpdate.invoke(checksum, input);
+			} catch (RuntimeException | Error ex) {
+				throw ex;
+			} catch (Throwable ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+
+		@Override
+		protected byte[] engineDigest() {
+			long value = checksum.getValue();
+			checksum.reset();
+			return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+		}
+
+		@Override
+		protected void engineReset() {
+			checksum.reset();
+		}
+	}
+}
@@ -2,16 +2,31 @@ package com.pugkung.filedownload.main;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.management.JMException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.pugkung.filedownload.main.StreamCopier.TransferEngine;
+
 
 public class FileDownloadClient {
 	
 	private final static String DEFAULT_CONFIG_FILENAME = "config.properties";
+	private final static String ASYNC_DOWNLOADER_CLASSNAME = "com.pugkung.filedownload.main.HttpClientDownloader";
+	private final static int LENGTH_PROBE_TIMEOUT_MILLIS = 5000;
+	private final static String CONFIG_SHARD = "config";
+	private final static String MANIFEST_SHARD_PREFIX = "manifest-";
 	
 	public static enum ExitStatus {
 		NORMAL,
@@ -21,14 +36,23 @@ public class FileDownloadClient {
 	
 	private static Logger logger;
 	private static ExitStatus exitStatusCode;
-	private static List<Thread> threads;
+	private static DownloadScheduler scheduler;
+	private static AdaptiveConcurrencyController concurrencyController;
+	private static ConfigReader config;
+	private static Constructor<?> asyncDownloaderConstructor;
+	private static DownloadJournal journal;
+	private static long skippedDownloads;
+	private static ConditionalGetCache conditionalGetCache;
+	private static ContentStore contentStore;
+	private static OutputLayout outputLayout = OutputLayout.FLAT;
+	private static MetricsHttpServer metricsServer;
+	private static Map<String, Long> expectedLengths = Collections.emptyMap();
+	private static List<CompletableFuture<FileDownloader.DownloaderStatus>> submittedDownloads;
 	
 	public static void main(String args[]) {
 		
 		FileDownloadClient client = new FileDownloadClient();
 		logger = LogManager.getLogger(FileDownloadClient.class);
-		threads = new ArrayList<Thread>();
-		
 		
 		String configLocation;
 		if (args.length > 0) {
@@ -38,7 +62,6 @@ public class FileDownloadClient {
 			configLocation = DEFAULT_CONFIG_FILENAME;
 		}
 		
-		ConfigReader config;
 		try {
 			config = client.loadConfigFile(configLocation);
 			config.loadConfigData();
@@ -49,12 +72,99 @@ public class FileDownloadClient {
 		
 		String outputPath = config.getOutputPath();
 		List<String> urlList = config.getURLs();
+		ManifestReader manifest = null;
 		
-		if (!urlList.isEmpty()) {
-			client.distributeURLsToDownloaderThread(urlList, outputPath);
-			client.waitForAllThreads();
+		if (config.getURLManifest() != null) {
+			try {
+				manifest = ManifestReader.open(config.getURLManifest());
+			} catch (IOException ex) {
+				logger.error("Unable to read URL manifest: {} ({})", config.getURLManifest(), ex.getMessage());
+				exitStatusCode = ExitStatus.MISSING_CONFIGURATION;
+				return;
+			}
+		}
+		
+		try {
+			runDownloads(client, urlList, manifest, outputPath);
+		} finally {
+			closeManifest(manifest);
+		}
+	}
+	
+	private static void runDownloads(FileDownloadClient client, List<String> urlList, ManifestReader manifest,
+			String outputPath) {
+		if (!urlList.isEmpty() || (manifest != null && manifest.hasNext())) {
+			ClusterCoordinator cluster = null;
+			if (config.getClusterDirectory() != null) {
+				cluster = openCluster(config);
+				if (cluster == null) {
+					exitStatusCode = ExitStatus.MISSING_CONFIGURATION;
+					return;
+				}
+			}
 			
-			logger.info("All files have been processed.");
+			HttpConnectionPool.configure(config.getMaxConnectionsPerHost(), config.getConnectionIdleTimeout());
+			asyncDownloaderConstructor = config.isAsyncHttpEngine() ? loadAsyncDownloader() : null;
+			configureBandwidthLimits(config);
+			if (config.getTransferEngine() == TransferEngine.WRITE_BEHIND) {
+				WriteBehindWriter.configureSharedWriter(config.getWriteBehindBuffer() * 1024L * 1024L,
+						config.getDiskWriterThreads());
+			}
+			scheduler = new DownloadScheduler(config.getMaxConcurrentDownloads(), 0,
+					config.getMaxDownloadsPerHost(), config.getExecutionMode());
+			scheduler.setRetryPolicy(new RetryPolicy(config.getMaxRetries(), config.getRetryBaseDelay(),
+					config.getRetryMaxDelay()));
+			scheduler.setShortestJobFirst(config.isShortestJobFirst());
+			concurrencyController = config.isAdaptiveConcurrency() ? AdaptiveConcurrencyController.attach(scheduler) : null;
+			startMetrics(config);
+			journal = openJournal(config.getJournalFile());
+			skippedDownloads = 0;
+			if (journal != null) {
+				scheduler.addDownloadListener(journal);
+			}
+			conditionalGetCache = openConditionalGetCache(config.getConditionalGetCache());
+			contentStore = openContentStore(config.getContentStore());
+			outputLayout = new OutputLayout(config.getOutputShardLevels(), config.isPreallocateOutput());
+			if (asyncDownloaderConstructor != null) {
+				warnAboutAsyncEngineLimits();
+			}
+			logger.info("Downloading {} file(s){} with up to {} concurrent downloads on {} threads{}", urlList.size(),
+						(manifest != null) ? " plus the URL manifest " + config.getURLManifest() : "",
+						scheduler.getMaxConcurrentDownloads(), scheduler.getExecutionMode().toString().toLowerCase(),
+						config.isAdaptiveConcurrency() ? " (adaptive, starting at " + scheduler.getConcurrencyLimit() + ")" : "");
+			
+			if (cluster != null) {
+				try {
+					client.distributeURLsAcrossCluster(cluster, urlList, manifest, outputPath);
+				} finally {
+					cluster.close();
+				}
+			}
+			else {
+				client.distributeURLsToDownloaderThread(urlList, outputPath);
+				if (manifest != null) {
+					client.distributeURLsFromManifest(manifest, outputPath);
+				}
+			}
+			client.waitForAllDownloads();
+			if (concurrencyController != null) {
+				concurrencyController.close();
+			}
+			scheduler.shutdown();
+			closeJournal();
+			saveConditionalGetCache();
+			stopMetricsServer();
+			
+			logger.info("All files have been processed. ({} completed, {} not modified, {} I/O errors, {} invalid URLs, " +
+						"{} checksum mismatches, {} retries{}{})",
+						scheduler.getResultCount(FileDownloader.DownloaderStatus.COMPLETE),
+						scheduler.getResultCount(FileDownloader.DownloaderStatus.NOT_MODIFIED),
+						scheduler.getResultCount(FileDownloader.DownloaderStatus.IO_ERROR),
+						scheduler.getResultCount(FileDownloader.DownloaderStatus.URL_ERROR),
+						scheduler.getResultCount(FileDownloader.DownloaderStatus.CHECKSUM_ERROR),
+						scheduler.getRetryCount(),
+						(skippedDownloads > 0) ? ", " + skippedDownloads + " already completed by an earlier run" : "",
+						(contentStore != null) ? ", " + contentStore.getDeduplicatedCount() + " duplicates linked to stored content" : "");
 			exitStatusCode = ExitStatus.NORMAL;
 		}
 		else {
@@ -63,39 +173,450 @@ public class FileDownloadClient {
 		}
 	}
 	
+	/*
+	 * Config values are in KB/s; the shared limiter can still be adjusted while downloads run.
+	 */
+	private static void configureBandwidthLimits(ConfigReader config) {
+		BandwidthLimiter limiter = BandwidthLimiter.getSharedLimiter();
+		limiter.setGlobalRate(config.getMaxBandwidth() * 1024L);
+		limiter.setPerHostRate(config.getMaxBandwidthPerHost() * 1024L);
+		limiter.setPerDownloadRate(config.getMaxBandwidthPerDownload() * 1024L);
+		
+		if (limiter.isLimited()) {
+			logger.info("Bandwidth limits (KB/s, 0 = unlimited): {} total, {} per host, {} per download",
+						config.getMaxBandwidth(), config.getMaxBandwidthPerHost(), config.getMaxBandwidthPerDownload());
+		}
+	}
+	
+	/*
+	 * Metrics are always counted; the config only decides where they are published.
+	 */
+	private static void startMetrics(ConfigReader config) {
+		DownloadMetrics metrics = DownloadMetrics.getSharedMetrics();
+		metrics.attach(scheduler);
+		
+		if (config.isJmxMetrics()) {
+			try {
+				metrics.registerMBean();
+				logger.info("Download metrics registered with JMX as {}", DownloadMetrics.OBJECT_NAME);
+			} catch (JMException ex) {
+				logger.error("Unable to register download metrics with JMX: {}", ex.getMessage());
+			}
+			try {
+				BandwidthLimiter.getSharedLimiter().registerMBean();
+				logger.info("Bandwidth caps can be changed through JMX at {}", BandwidthLimiter.OBJECT_NAME);
+			} catch (JMException ex) {
+				logger.error("Unable to register bandwidth limiter with JMX: {}", ex.getMessage());
+			}
+		}
+		if (config.getMetricsPort() > 0) {
+			try {
+				metricsServer = new MetricsHttpServer(config.getMetricsPort(), metrics);
+			} catch (IOException ex) {
+				logger.error("Unable to serve download metrics on port {}: {}", config.getMetricsPort(), ex.getMessage());
+			}
+		}
+	}
+	
+	private static void stopMetricsServer() {
+		if (metricsServer != null) {
+			metricsServer.stop();
+			metricsServer = null;
+		}
+	}
+	
 	public ConfigReader loadConfigFile(String configLocation) throws FileNotFoundException {
 		File configFile = new File(configLocation);
 		
 		if (configFile.exists()) {
-			logger.info("Read config file from: " + configLocation);
+			logger.info("Read config file from: {}", configLocation);
 			return new ConfigReader(configLocation);
 		}
 		else {
-			logger.error("Unable to locate configuration file: " + configLocation);
+			logger.error("Unable to locate configuration file: {}", configLocation);
 			throw new FileNotFoundException();
 		}
 	}
 	
+	/*
+	 * Submits the most urgent URLs first: by priority and deadline, and with
+	 * shortestJobFirst by the Content-Length a HEAD request reports. The
+	 * scheduler orders whatever waits in its queue the same way, but only
+	 * submitting in order helps once there are more URLs than the queue holds.
+	 */
 	public void distributeURLsToDownloaderThread(List<String> urlList, String outputPath) {
-		for (String item : urlList) {
+		List<String> orderedURLs = new ArrayList<String>(urlList);
+		if (config.isShortestJobFirst()) {
+			expectedLengths = new ContentLengthProbe(LENGTH_PROBE_TIMEOUT_MILLIS).probe(orderedURLs);
+		}
+		
+		Comparator<String> order = Comparator.comparing(FileDownloadClient::priorityOf);
+		if (config.isShortestJobFirst()) {
+			order = order.thenComparingLong(url -> {
+				long length = expectedLengthOf(url);
+				return (length == FileDownloader.UNKNOWN_LENGTH) ? Long.MAX_VALUE : length;
+			});
+		}
+		Collections.sort(orderedURLs, order);
+		
+		for (String item : orderedURLs) {
 			executeDownloaderThread(item, outputPath);
 		}
+		expectedLengths = Collections.emptyMap();
 	}
 	
-	public void executeDownloaderThread(String targetURL, String outputPath) {
-		URLDownloader fd = new URLDownloader(targetURL, outputPath);
-		Thread t = new Thread(fd);
-		t.start();
-		threads.add(t);
+	/*
+	 * Reads the manifest lazily. submit() blocks while the scheduler's bounded
+	 * queue is full, so only a fixed number of URLs are in memory at any time.
+	 */
+	public void distributeURLsFromManifest(ManifestReader manifest, String outputPath) {
+		try {
+			while (manifest.hasNext()) {
+				String targetURL = manifest.next();
+				submitDownload(targetURL, outputPath, manifest.getPriority());
+			}
+		} catch (UncheckedIOException ex) {
+			logger.error("{}: {}. Remaining manifest entries are skipped.", ex.getMessage(), ex.getCause().getMessage());
+		}
+		logger.info("Queued {} URL(s) from the manifest", manifest.getURLCount());
 	}
 	
-	public void waitForAllThreads() {
-		for (Thread t : threads) {
+	/*
+	 * Cluster mode: the srcN URLs are shard "config" and every clusterShardSize
+	 * manifest entries the next shard "manifest-<n>". This node downloads the
+	 * shards it gets a lease on, then reads the manifest again until every shard
+	 * is done, so it takes over the shards of nodes that stopped renewing.
+	 */
+	public void distributeURLsAcrossCluster(ClusterCoordinator cluster, List<String> urlList, ManifestReader manifest,
+			String outputPath) {
+		ManifestReader currentManifest = manifest;
+		try {
+			while (runClusterPass(cluster, urlList, currentManifest, outputPath)) {
+				// wait for the other nodes to finish their shards or to let their leases expire
+				Thread.sleep(Math.max(1, cluster.getLeaseTimeoutMillis() / 2));
+				if (currentManifest != null) {
+					if (currentManifest != manifest) {
+						closeManifest(currentManifest);
+					}
+					currentManifest = ManifestReader.open(config.getURLManifest());
+				}
+			}
+		} catch (IOException ex) {
+			logger.error("Unable to coordinate through cluster directory {}: {}", config.getClusterDirectory(),
+						ex.getMessage());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			submittedDownloads = null;
+			if (currentManifest != manifest) {
+				closeManifest(currentManifest);
+			}
+		}
+	}
+	
+	/*
+	 * Returns true while shards remain that are neither done nor downloaded by this node.
+	 */
+	private boolean runClusterPass(ClusterCoordinator cluster, List<String> urlList, ManifestReader manifest,
+			String outputPath) throws IOException {
+		List<CompletableFuture<Boolean>> ownShards = new ArrayList<CompletableFuture<Boolean>>();
+		boolean pending = false;
+		
+		if (!urlList.isEmpty()) {
+			ClusterCoordinator.Lease lease = cluster.tryAcquire(CONFIG_SHARD);
+			if (lease != null) {
+				submittedDownloads = new ArrayList<CompletableFuture<FileDownloader.DownloaderStatus>>();
+				distributeURLsToDownloaderThread(urlList, outputPath);
+				ownShards.add(finishShard(lease, submittedDownloads));
+			}
+			else {
+				pending = !cluster.isDone(CONFIG_SHARD);
+			}
+		}
+		
+		if (manifest != null) {
+			int shardSize = config.getClusterShardSize();
+			long entry = 0;
+			ClusterCoordinator.Lease lease = null;
+			try {
+				while (manifest.hasNext()) {
+					String targetURL = manifest.next();
+					if (entry % shardSize == 0) {
+						if (lease != null) {
+							ownShards.add(finishShard(lease, submittedDownloads));
+						}
+						String shardId = MANIFEST_SHARD_PREFIX + (entry / shardSize);
+						lease = cluster.tryAcquire(shardId);
+						submittedDownloads = new ArrayList<CompletableFuture<FileDownloader.DownloaderStatus>>();
+						pending |= lease == null && !cluster.isDone(shardId);
+					}
+					entry++;
+					// stop early once another node took the shard over
+					if (lease != null && lease.isValid()) {
+						submitDownload(targetURL, outputPath, manifest.getPriority());
+					}
+				}
+			} catch (UncheckedIOException ex) {
+				logger.error("{}: {}. Remaining manifest entries are left to other nodes.", ex.getMessage(),
+							ex.getCause().getMessage());
+				pending = false;
+			}
+			if (lease != null) {
+				ownShards.add(finishShard(lease, submittedDownloads));
+			}
+		}
+		submittedDownloads = null;
+		
+		for (CompletableFuture<Boolean> shard : ownShards) {
+			pending |= !shard.join();
+		}
+		return pending;
+	}
+	
+	/*
+	 * Failed downloads count as done, the same as without a cluster. Completes
+	 * with false when the lease was lost and another node does the shard again.
+	 */
+	private static CompletableFuture<Boolean> finishShard(ClusterCoordinator.Lease lease,
+			List<CompletableFuture<FileDownloader.DownloaderStatus>> downloads) {
+		return CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])).handle((result, ex) -> {
 			try {
-				t.join();
-			} catch (InterruptedException ex) {
-				logger.error(ex.getMessage());
+				return lease.complete();
+			} catch (IOException completeEx) {
+				logger.error("Unable to mark shard {} done: {}", lease.getShardId(), completeEx.getMessage());
+				lease.release();
+				return false;
 			}
+		});
+	}
+	
+	/*
+	 * Without the shared directory every node would download every URL, so nothing is downloaded.
+	 */
+	private static ClusterCoordinator openCluster(ConfigReader config) {
+		try {
+			ClusterCoordinator cluster = new ClusterCoordinator(config.getClusterDirectory(), config.getClusterNodeId(),
+					config.getClusterLeaseTimeout() * 1000L);
+			logger.info("Cluster node {} sharing downloads through {} in shards of {} manifest entries",
+						cluster.getNodeId(), config.getClusterDirectory(), config.getClusterShardSize());
+			return cluster;
+		} catch (IOException ex) {
+			logger.error("Unable to use cluster directory {}: {}", config.getClusterDirectory(), ex.getMessage());
+			return null;
+		}
+	}
+	
+	/*
+	 * Runs without a journal when it cannot be opened; the downloads themselves do not depend on it.
+	 */
+	private static DownloadJournal openJournal(String journalFile) {
+		if (journalFile == null) {
+			return null;
+		}
+		try {
+			return DownloadJournal.open(journalFile);
+		} catch (IOException ex) {
+			logger.error("Unable to open download journal {}, continuing without it: {}", journalFile, ex.getMessage());
+			return null;
+		}
+	}
+	
+	private static void closeJournal() {
+		if (journal == null) {
+			return;
+		}
+		try {
+			journal.close();
+		} catch (IOException ex) {
+			logger.error("Unable to close download journal: {}", ex.getMessage());
+		}
+		journal = null;
+	}
+	
+	/*
+	 * Like the journal, the cache only saves work; downloads run without it if it cannot be read.
+	 */
+	private static ConditionalGetCache openConditionalGetCache(String cacheFile) {
+		if (cacheFile == null) {
+			return null;
+		}
+		try {
+			return ConditionalGetCache.open(cacheFile);
+		} catch (IOException ex) {
+			logger.error("Unable to read conditional GET cache {}, continuing without it: {}", cacheFile, ex.getMessage());
+			return null;
+		}
+	}
+	
+	private static void saveConditionalGetCache() {
+		if (conditionalGetCache == null) {
+			return;
+		}
+		try {
+			conditionalGetCache.save();
+		} catch (IOException ex) {
+			logger.error("Unable to save conditional GET cache: {}", ex.getMessage());
+		}
+		conditionalGetCache = null;
+	}
+	
+	private static ContentStore openContentStore(String storeDirectory) {
+		if (storeDirectory == null) {
+			return null;
+		}
+		try {
+			return new ContentStore(storeDirectory);
+		} catch (IOException ex) {
+			logger.error("Unable to create content store {}, writing plain output files: {}", storeDirectory, ex.getMessage());
+			return null;
+		}
+	}
+	
+	private static void closeManifest(ManifestReader manifest) {
+		if (manifest == null) {
+			return;
+		}
+		try {
+			manifest.close();
+		} catch (IOException ex) {
+			logger.warn("Unable to close URL manifest: {}", ex.getMessage());
+		}
+	}
+	
+	public void executeDownloaderThread(String targetURL, String outputPath) {
+		submitDownload(targetURL, outputPath, priorityOf(targetURL));
+	}
+	
+	private void submitDownload(String targetURL, String outputPath, DownloadPriority priority) {
+		CompletableFuture<FileDownloader.DownloaderStatus> download = startDownload(targetURL, outputPath, priority);
+		if (download != null && submittedDownloads != null) {
+			submittedDownloads.add(download);
+		}
+	}
+	
+	/*
+	 * Returns null when the journal shows the URL was completed by an earlier run.
+	 */
+	private CompletableFuture<FileDownloader.DownloaderStatus> startDownload(String targetURL, String outputPath,
+			DownloadPriority priority) {
+		if (journal != null) {
+			if (journal.isComplete(targetURL)) {
+				skippedDownloads++;
+				return null;
+			}
+			journal.queued(targetURL);
+		}
+		
+		List<String> mirrors = config.getMirrors(targetURL);
+		boolean mirrored = mirrors != null && !mirrors.isEmpty();
+		ExpectedChecksum expectedChecksum = config.getExpectedChecksum(targetURL);
+		
+		if (asyncDownloaderConstructor != null && isHttpURL(targetURL) &&
+				!requiresURLDownloader(targetURL, outputPath, mirrored, expectedChecksum)) {
+			AsyncFileDownloader asyncDownloader = createAsyncDownloader(targetURL, outputPath);
+			if (asyncDownloader != null) {
+				if (asyncDownloader instanceof FileDownloader) {
+					((FileDownloader) asyncDownloader).setPriority(priority);
+					((FileDownloader) asyncDownloader).setOutputLayout(outputLayout);
+					((FileDownloader) asyncDownloader).setNamingStrategy(config.getOutputNaming());
+					((FileDownloader) asyncDownloader).setExpectedLength(expectedLengthOf(targetURL));
+				}
+				return scheduler.submitAsync(asyncDownloader);
+			}
+		}
+		
+		URLDownloader fd = new URLDownloader(targetURL, outputPath);
+		fd.setSegmentCount(config.getSegmentsPerDownload());
+		fd.setResumeEnabled(config.isResumeDownloads());
+		fd.setTransferEngine(config.getTransferEngine());
+		fd.setConditionalGetCache(conditionalGetCache);
+		fd.setContentStore(contentStore);
+		fd.setOutputLayout(outputLayout);
+		fd.setNamingStrategy(config.getOutputNaming());
+		fd.setExpectedChecksum(expectedChecksum);
+		fd.setMirrors(mirrors);
+		fd.setMinMirrorThroughput(config.getMirrorMinThroughput() * 1024L);
+		fd.setPriority(priority);
+		fd.setExpectedLength(expectedLengthOf(targetURL));
+		return scheduler.submit(fd);
+	}
+	
+	/*
+	 * Mirrors, checksums, the content store, the conditional GET cache, bandwidth
+	 * caps and resuming partial files are only implemented by URLDownloader.
+	 */
+	private static boolean requiresURLDownloader(String targetURL, String outputPath, boolean mirrored,
+			ExpectedChecksum expectedChecksum) {
+		if (mirrored || expectedChecksum != null || contentStore != null || conditionalGetCache != null ||
+				BandwidthLimiter.getSharedLimiter().isLimited()) {
+			return true;
+		}
+		// a partial download left by an earlier run is resumed rather than started over
+		return config.isResumeDownloads() && ResumableDownloader.getStateFile(
+				new File(outputLayout.resolve(outputPath, config.getOutputNaming().fileName(targetURL)))).exists();
+	}
+	
+	private static void warnAboutAsyncEngineLimits() {
+		if (contentStore != null) {
+			logger.warn("The content store is only supported by URLDownloader. Using URLDownloader for all URLs.");
+		}
+		if (conditionalGetCache != null) {
+			logger.warn("The conditional GET cache is only supported by URLDownloader. Using URLDownloader for all URLs.");
+		}
+		if (BandwidthLimiter.getSharedLimiter().isLimited()) {
+			logger.warn("Bandwidth caps are only enforced by URLDownloader. Using URLDownloader for all URLs.");
+		}
+		if (config.isResumeDownloads()) {
+			logger.warn("The asynchronous HttpClient engine restarts interrupted downloads instead of resuming them; " +
+						"partial files of earlier runs are still resumed by URLDownloader.");
+		}
+	}
+	
+	private static DownloadPriority priorityOf(String targetURL) {
+		DownloadPriority priority = config.getPriority(targetURL);
+		return (priority != null) ? priority : DownloadPriority.DEFAULT;
+	}
+	
+	private static long expectedLengthOf(String targetURL) {
+		Long length = expectedLengths.get(targetURL);
+		return (length != null) ? length : FileDownloader.UNKNOWN_LENGTH;
+	}
+	
+	private static boolean isHttpURL(String targetURL) {
+		String lowerCaseURL = targetURL.toLowerCase();
+		return lowerCaseURL.startsWith("http://") || lowerCaseURL.startsWith("https://");
+	}
+	
+	/*
+	 * The HttpClient engine needs Java 11+ and is only compiled by the java11
+	 * profile, so it is looked up by name. Returns null when it is not available.
+	 */
+	private static Constructor<?> loadAsyncDownloader() {
+		try {
+			Constructor<?> constructor = Class.forName(ASYNC_DOWNLOADER_CLASSNAME).getConstructor(String.class, String.class);
+			logger.info("Using asynchronous HttpClient engine for http/https URLs");
+			return constructor;
+		} catch (ReflectiveOperationException | LinkageError ex) {
+			logger.warn("Asynchronous HttpClient engine is not available (requires Java 11+ build). Using URLDownloader for all URLs.");
+			return null;
+		}
+	}
+	
+	private AsyncFileDownloader createAsyncDownloader(String targetURL, String outputPath) {
+		try {
+			return (AsyncFileDownloader) asyncDownloaderConstructor.newInstance(targetURL, outputPath);
+		} catch (ReflectiveOperationException ex) {
+			logger.error("Unable to create asynchronous downloader: {}", ex.getMessage());
+			return null;
+		}
+	}
+	
+	public void waitForAllDownloads() {
+		try {
+			scheduler.awaitCompletion();
+		} catch (InterruptedException ex) {
+			logger.error(ex.getMessage());
+			Thread.currentThread().interrupt();
 		}
 	}
 	
@@ -1,17 +1,38 @@
 package com.pugkung.filedownload.main;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
 
 public abstract class FileDownloader implements Runnable{
 	
 	public static enum DownloaderStatus {
 		COMPLETE,
+		NOT_MODIFIED,
 		IO_ERROR,
-		URL_ERROR
+		URL_ERROR,
+		CHECKSUM_ERROR
 	}
 	
+	public final static long UNKNOWN_LENGTH = -1;
+	
+	// URLs of the output files (and their .part files) being written right now, by absolute path
+	private final static ConcurrentHashMap<String, String> outputsInProgress = new ConcurrentHashMap<String, String>();
+	
 	private DownloaderStatus result;
+	private Exception failureCause;
+	private String contentDigest;
+	private long bytesTransferred;
+	private DownloadPriority priority = DownloadPriority.DEFAULT;
+	private long expectedLength = UNKNOWN_LENGTH;
+	private OutputLayout outputLayout = OutputLayout.FLAT;
+	private OutputNamingStrategy namingStrategy = OutputNamingStrategy.LEGACY;
 	
 	private String sourceURI;
 	private String outputDirectory;
@@ -32,18 +53,181 @@ public abstract class FileDownloader implements Runnable{
 
 	@Override
 	public void run() {
-		outputFilePath = outputDirectory + generateOutputFileName(sourceURI);
-		result = downloadFile(sourceURI, outputFilePath);
+		resetAttempt();
+		long startTime = System.nanoTime();
+		result = downloadFile(sourceURI, resolveOutputFilePath());
+		logSummary(result, System.nanoTime() - startTime);
+	}
+	
+	/*
+	 * For downloaders that write the output file: reserves its path and creates
+	 * its directory. Two downloads writing the same file would mix their bytes
+	 * in its .part file, so the later one fails instead. The same URL may be
+	 * retried later; a different URL mapping to the same name is a collision of
+	 * the naming strategy and is reported as one. Only downloads in flight at the
+	 * same time are compared: a colliding URL that runs after the first one has
+	 * finished, or in a later run, silently replaces its file.
+	 */
+	protected boolean claimOutput(String outputPath) {
+		String key = new File(outputPath).getAbsolutePath();
+		String writer = outputsInProgress.putIfAbsent(key, sourceURI);
+		if (writer != null) {
+			if (writer.equals(sourceURI)) {
+				failureCause = new IOException("Output file is being written by another download: " + outputPath);
+			}
+			else {
+				failureCause = new IOException("Output file name collision: " + sourceURI + " and " + writer +
+						" both map to " + outputPath);
+				logger.warn("{} and {} both map to {}; choose a collision-free outputNaming", sourceURI, writer, outputPath);
+			}
+			return false;
+		}
+		try {
+			outputLayout.createParentDirectory(outputPath);
+			return true;
+		} catch (IOException ex) {
+			outputsInProgress.remove(key);
+			failureCause = ex;
+			return false;
+		}
+	}
+	
+	protected void releaseOutput(String outputPath) {
+		outputsInProgress.remove(new File(outputPath).getAbsolutePath(), sourceURI);
+	}
+	
+	/*
+	 * Clears what the previous attempt left behind, so a retried downloader
+	 * reports only on its latest attempt.
+	 */
+	protected void resetAttempt() {
+		failureCause = null;
+		contentDigest = null;
+		bytesTransferred = 0;
+	}
+	
+	/*
+	 * One key=value record per attempt in place of separate start, finish and
+	 * clean-up lines. Numbers go through Unbox so that logging a stream of
+	 * small downloads allocates nothing.
+	 */
+	protected void logSummary(DownloaderStatus status, long elapsedNanos) {
+		boolean succeeded = status == DownloaderStatus.COMPLETE || status == DownloaderStatus.NOT_MODIFIED;
+		Level level = succeeded ? Level.INFO : Level.ERROR;
+		if (!logger.isEnabled(level)) {
+			return;
+		}
+		
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+		if (failureCause == null) {
+			logger.log(level, "download status={} url={} bytes={} millis={} output={}",
+					status, sourceURI, Unbox.box(bytesTransferred), Unbox.box(elapsedMillis), outputFilePath);
+		}
+		else {
+			logger.log(level, "download status={} url={} bytes={} millis={} output={} error=\"{}\"",
+					status, sourceURI, Unbox.box(bytesTransferred), Unbox.box(elapsedMillis), outputFilePath,
+					failureCause.getMessage());
+		}
+	}
+	
+	protected String resolveOutputFilePath() {
+		outputFilePath = outputLayout.resolve(outputDirectory, generateOutputFileName(sourceURI));
+		return outputFilePath;
 	}
 	
 	public String generateOutputFileName(String uri) {
-		String tempURI = uri.substring(uri.indexOf("://")+3);
-		tempURI = tempURI.replace("/", "_").replace(".", "_");
-		return tempURI;
+		return namingStrategy.fileName(uri);
 	}
 	
 	public DownloaderStatus getResultCd() {
 		return result;
 	}
 	
+	protected void setResultCd(DownloaderStatus result) {
+		this.result = result;
+	}
+	
+	public Exception getFailureCause() {
+		return failureCause;
+	}
+	
+	protected void setFailureCause(Exception failureCause) {
+		this.failureCause = failureCause;
+	}
+	
+	/*
+	 * Hex SHA-256 of the downloaded content when it was hashed during the transfer, null otherwise.
+	 */
+	public String getContentDigest() {
+		return contentDigest;
+	}
+	
+	protected void setContentDigest(String contentDigest) {
+		this.contentDigest = contentDigest;
+	}
+	
+	/*
+	 * Body bytes written by the latest attempt.
+	 */
+	public long getBytesTransferred() {
+		return bytesTransferred;
+	}
+	
+	protected void setBytesTransferred(long bytesTransferred) {
+		this.bytesTransferred = bytesTransferred;
+	}
+	
+	public DownloadPriority getPriority() {
+		return priority;
+	}
+	
+	/*
+	 * Read by DownloadScheduler when the download is submitted; null means DownloadPriority.DEFAULT.
+	 */
+	public void setPriority(DownloadPriority priority) {
+		this.priority = (priority == null) ? DownloadPriority.DEFAULT : priority;
+	}
+	
+	/*
+	 * Size the download is expected to have, e.g. from a HEAD request, or UNKNOWN_LENGTH.
+	 * Only used to order downloads when the scheduler runs the shortest job first.
+	 */
+	public long getExpectedLength() {
+		return expectedLength;
+	}
+	
+	public void setExpectedLength(long expectedLength) {
+		this.expectedLength = (expectedLength < 0) ? UNKNOWN_LENGTH : expectedLength;
+	}
+	
+	public OutputLayout getOutputLayout() {
+		return outputLayout;
+	}
+	
+	/*
+	 * Null means OutputLayout.FLAT.
+	 */
+	public void setOutputLayout(OutputLayout outputLayout) {
+		this.outputLayout = (outputLayout == null) ? OutputLayout.FLAT : outputLayout;
+	}
+	
+	public OutputNamingStrategy getNamingStrategy() {
+		return namingStrategy;
+	}
+	
+	/*
+	 * Null means OutputNamingStrategy.LEGACY.
+	 */
+	public void setNamingStrategy(OutputNamingStrategy namingStrategy) {
+		this.namingStrategy = (namingStrategy == null) ? OutputNamingStrategy.LEGACY : namingStrategy;
+	}
+	
+	public String getSourceURI() {
+		return sourceURI;
+	}
+	
+	public String getOutputFilePath() {
+		return outputFilePath;
+	}
+	
 }
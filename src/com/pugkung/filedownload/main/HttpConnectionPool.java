@@ -0,0 +1,108 @@
+package com.pugkung.filedownload.main;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Shared keep-alive pool for every HttpURLConnection opened by the downloaders.
+ *
+ * The JDK already keeps idle connections per host in its keep-alive cache; this
+ * class sizes that cache from the config and makes sure connections are handed
+ * back to it (body fully read and closed) rather than torn down with disconnect().
+ *
+ * Both settings only apply to idle connections. maxConnectionsPerHost is how many
+ * idle sockets per host the cache keeps for reuse, not a cap on how many may be
+ * open at once; concurrency is bounded by the scheduler and the segment count.
+ * The idle timeout needs a JDK that reads http.keepAlive.time.server (Java 11.0.16,
+ * 17.0.4, 19 and later); Java 8 keeps the 5 second default.
+ */
+public class HttpConnectionPool {
+
+	public final static int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+	public final static int DEFAULT_IDLE_TIMEOUT_SECONDS = 5;
+
+	private static Logger logger = LogManager.getLogger(HttpConnectionPool.class);
+	private static boolean configured = false;
+
+	/*
+	 * Must run before the first HTTP connection is opened: the JDK reads these
+	 * properties once when its keep-alive cache is initialized.
+	 */
+	public static synchronized void configure(int maxConnectionsPerHost, int idleTimeoutSeconds) {
+		if (configured) {
+			logger.debug("HTTP connection pool is already configured");
+			return;
+		}
+		if (maxConnectionsPerHost <= 0) {
+			maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+		}
+		if (idleTimeoutSeconds <= 0) {
+			idleTimeoutSeconds = DEFAULT_IDLE_TIMEOUT_SECONDS;
+		}
+
+		System.setProperty("http.keepAlive", "true");
+		System.setProperty("http.maxConnections", String.valueOf(maxConnectionsPerHost));
+		System.setProperty("http.keepAlive.time.server", String.valueOf(idleTimeoutSeconds));
+		System.setProperty("http.keepAlive.time.proxy", String.valueOf(idleTimeoutSeconds));
+		configured = true;
+
+		if (idleTimeoutSeconds != DEFAULT_IDLE_TIMEOUT_SECONDS && !isIdleTimeoutSupported()) {
+			logger.warn("connectionIdleTimeout={} is ignored on Java {}; idle connections close after {}s " +
+						"or when the server's Keep-Alive header says so", idleTimeoutSeconds,
+						System.getProperty("java.specification.version"), DEFAULT_IDLE_TIMEOUT_SECONDS);
+			idleTimeoutSeconds = DEFAULT_IDLE_TIMEOUT_SECONDS;
+		}
+		logger.info("HTTP keep-alive cache: up to {} idle connections per host, {}s idle timeout",
+					maxConnectionsPerHost, idleTimeoutSeconds);
+	}
+
+	/*
+	 * Java 8 (specification version 1.8) never reads http.keepAlive.time.*. Early
+	 * 11 and 17 updates don't either, but their version string can't tell them apart.
+	 */
+	private static boolean isIdleTimeoutSupported() {
+		String version = System.getProperty("java.specification.version", "");
+		return !version.startsWith("1.");
+	}
+
+	public static HttpURLConnection open(URL url, int connectionTimeout, int readTimeout) throws IOException {
+		URLConnection connection = url.openConnection();
+		if (!(connection instanceof HttpURLConnection)) {
+			throw new IOException("Not an HTTP URL: " + url);
+		}
+
+		HttpURLConnection http = (HttpURLConnection) connection;
+		http.setConnectTimeout(connectionTimeout);
+		http.setReadTimeout(readTimeout);
+		return http;
+	}
+
+	/*
+	 * Hands the connection back to the pool instead of closing the socket. Closing
+	 * the body lets the JDK drain any short remainder and keep the connection.
+	 */
+	public static void release(HttpURLConnection http) {
+		InputStream body;
+		try {
+			body = http.getInputStream();
+		} catch (IOException ex) {
+			body = http.getErrorStream();
+		}
+
+		if (body == null) {
+			return;
+		}
+
+		try {
+			body.close();
+		} catch (IOException ex) {
+			http.disconnect();
+		}
+	}
+}
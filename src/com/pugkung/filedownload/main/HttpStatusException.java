@@ -0,0 +1,87 @@
+package com.pugkung.filedownload.main;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Thrown when a server answers with a status code the downloader cannot use,
+ * so callers can tell overload responses (429, 503) from other failures.
+ */
+public class HttpStatusException extends IOException {
+
+	public final static long NO_RETRY_AFTER = -1;
+
+	private static final long serialVersionUID = 1L;
+
+	// HttpURLConnection.getInputStream() only reports the status in its message
+	private final static Pattern JDK_HTTP_STATUS = Pattern.compile("HTTP response code: (\\d{3})");
+
+	private final int statusCode;
+	private final long retryAfterMillis;
+
+	public HttpStatusException(int statusCode, String message) {
+		this(statusCode, message, NO_RETRY_AFTER);
+	}
+
+	public HttpStatusException(int statusCode, String message, long retryAfterMillis) {
+		super(message);
+		this.statusCode = statusCode;
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/*
+	 * Delay the server asked for with Retry-After, or NO_RETRY_AFTER.
+	 */
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+
+	/*
+	 * Status code carried by the failure or one of its causes, -1 if there is none.
+	 */
+	public static int statusCodeOf(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof HttpStatusException) {
+				return ((HttpStatusException) cause).getStatusCode();
+			}
+			if (cause.getMessage() != null) {
+				Matcher matcher = JDK_HTTP_STATUS.matcher(cause.getMessage());
+				if (matcher.find()) {
+					return Integer.parseInt(matcher.group(1));
+				}
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Accepts both forms of the header: delta-seconds and an HTTP date.
+	 */
+	public static long parseRetryAfter(String header) {
+		if (header == null || header.trim().isEmpty()) {
+			return NO_RETRY_AFTER;
+		}
+
+		String value = header.trim();
+		try {
+			return Math.max(0, Long.parseLong(value)) * 1000;
+		} catch (NumberFormatException ex) {
+			// not delta-seconds
+		}
+
+		try {
+			ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+			return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+		} catch (DateTimeParseException ex) {
+			return NO_RETRY_AFTER;
+		}
+	}
+}
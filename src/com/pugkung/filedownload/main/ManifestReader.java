@@ -0,0 +1,158 @@
+package com.pugkung.filedownload.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Reads a URL manifest one line at a time: one URL per line, blank lines and
+ * lines starting with '#' are skipped. Gzip-compressed manifests are detected
+ * from their header, whatever the file name.
+ *
+ * A URL may be followed by "priority=<n>" and "deadline=<instant or duration>",
+ * separated by whitespace; see DownloadPriority. getPriority() returns them for
+ * the URL last returned by next().
+ *
+ * Only the current line is held in memory, so a manifest of any length costs
+ * the same heap and URLs come out in file order.
+ */
+public class ManifestReader implements Iterator<String>, Closeable {
+
+	private final static int READ_BUFFER_SIZE = 64 * 1024;
+	private final static int GZIP_MAGIC = 0x8b1f;
+	private final static String PRIORITY_ATTRIBUTE = "priority=";
+	private final static String DEADLINE_ATTRIBUTE = "deadline=";
+
+	private static Logger logger = LogManager.getLogger(ManifestReader.class);
+
+	private final BufferedReader reader;
+	private String nextLine;
+	private DownloadPriority priority = DownloadPriority.DEFAULT;
+	private long urlCount = 0;
+	private long lineNumber = 0;
+
+	public ManifestReader(InputStream in) throws IOException {
+		InputStream source = new BufferedInputStream(in, READ_BUFFER_SIZE);
+		if (isGzip(source)) {
+			source = new GZIPInputStream(source, READ_BUFFER_SIZE);
+		}
+		reader = new BufferedReader(new InputStreamReader(source, StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+	}
+
+	public static ManifestReader open(String manifestPath) throws IOException {
+		InputStream in = Files.newInputStream(Paths.get(manifestPath));
+		try {
+			return new ManifestReader(in);
+		} catch (IOException ex) {
+			in.close();
+			throw ex;
+		}
+	}
+
+	/*
+	 * Read errors surface as UncheckedIOException, as Iterator cannot throw IOException.
+	 */
+	@Override
+	public boolean hasNext() {
+		if (nextLine != null) {
+			return true;
+		}
+
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					nextLine = line;
+					return true;
+				}
+			}
+			return false;
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Unable to read manifest at line " + (lineNumber + 1), ex);
+		}
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		String line = nextLine;
+		nextLine = null;
+		urlCount++;
+
+		int urlEnd = 0;
+		while (urlEnd < line.length() && !Character.isWhitespace(line.charAt(urlEnd))) {
+			urlEnd++;
+		}
+		if (urlEnd == line.length()) {
+			priority = DownloadPriority.DEFAULT;
+			return line;
+		}
+		priority = parsePriority(line.substring(urlEnd).trim().split("\\s+"));
+		return line.substring(0, urlEnd);
+	}
+
+	public DownloadPriority getPriority() {
+		return priority;
+	}
+
+	/*
+	 * Unknown or invalid attributes are reported and the URL keeps the default order.
+	 */
+	private DownloadPriority parsePriority(String[] attributes) {
+		String priorityValue = null;
+		String deadlineValue = null;
+		for (String attribute : attributes) {
+			if (attribute.startsWith(PRIORITY_ATTRIBUTE)) {
+				priorityValue = attribute.substring(PRIORITY_ATTRIBUTE.length());
+			}
+			else if (attribute.startsWith(DEADLINE_ATTRIBUTE)) {
+				deadlineValue = attribute.substring(DEADLINE_ATTRIBUTE.length());
+			}
+			else {
+				logger.warn("Ignoring unknown manifest attribute at line {}: {}", lineNumber, attribute);
+			}
+		}
+
+		try {
+			return DownloadPriority.parse(priorityValue, deadlineValue);
+		} catch (IllegalArgumentException ex) {
+			logger.warn("Invalid manifest entry at line {}: {}. Using the default order.", lineNumber, ex.getMessage());
+			return DownloadPriority.DEFAULT;
+		}
+	}
+
+	public long getURLCount() {
+		return urlCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private static boolean isGzip(InputStream in) throws IOException {
+		in.mark(2);
+		int first = in.read();
+		int second = in.read();
+		in.reset();
+		return first != -1 && second != -1 && ((second << 8) | first) == GZIP_MAGIC;
+	}
+}
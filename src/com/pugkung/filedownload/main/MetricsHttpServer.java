@@ -0,0 +1,76 @@
+package com.pugkung.filedownload.main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Serves DownloadMetrics in Prometheus text format at
+ * http://127.0.0.1:<port>/metrics. Bound to the loopback interface only; a
+ * single daemon thread answers scrapes, so it never competes with downloads.
+ */
+public class MetricsHttpServer {
+
+	public final static String METRICS_PATH = "/metrics";
+	private final static String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static Logger logger = LogManager.getLogger(MetricsHttpServer.class);
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final DownloadMetrics metrics;
+
+	/*
+	 * Port 0 picks a free port; see getPort().
+	 */
+	public MetricsHttpServer(int port, DownloadMetrics metrics) throws IOException {
+		this.metrics = metrics;
+		executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "metrics-http");
+			t.setDaemon(true);
+			return t;
+		});
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(METRICS_PATH, this::handle);
+		server.setExecutor(executor);
+		server.start();
+		logger.info("Serving download metrics at http://127.0.0.1:{}{}", getPort(), METRICS_PATH);
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+
+			byte[] body = metrics.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+}
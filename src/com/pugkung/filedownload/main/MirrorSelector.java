@@ -0,0 +1,130 @@
+package com.pugkung.filedownload.main;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+/*
+ * Orders the mirrors of one file by how fast they answer. Every mirror is
+ * asked for its first byte ("Range: bytes=0-0") at the same time, and the
+ * mirrors are ranked by the time that took. Mirrors that fail or do not answer
+ * within the timeout keep their configured order at the end of the list, so
+ * they are still tried when everything faster fails.
+ *
+ * A probe that got its byte hands the connection back to the pool, where the
+ * download that follows picks it up again.
+ */
+public class MirrorSelector {
+
+	private final static long UNREACHABLE = Long.MAX_VALUE;
+
+	private static Logger logger = LogManager.getLogger(MirrorSelector.class);
+	private final static ExecutorService probeExecutor = Executors.newCachedThreadPool(new ProbeThreadFactory());
+
+	private final int timeoutMillis;
+
+	public MirrorSelector(int timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public List<URL> rank(List<URL> mirrors) {
+		if (mirrors.size() < 2) {
+			return mirrors;
+		}
+
+		List<CompletableFuture<Long>> probes = new ArrayList<CompletableFuture<Long>>();
+		for (URL mirror : mirrors) {
+			probes.add(CompletableFuture.supplyAsync(() -> probe(mirror), probeExecutor));
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		List<Long> latencies = new ArrayList<Long>();
+		for (CompletableFuture<Long> probe : probes) {
+			latencies.add(await(probe, deadline));
+		}
+
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < mirrors.size(); i++) {
+			order.add(i);
+		}
+		// a stable sort keeps the configured order among equally unreachable mirrors
+		Collections.sort(order, Comparator.comparing(latencies::get));
+
+		List<URL> ranked = new ArrayList<URL>();
+		StringBuilder summary = new StringBuilder();
+		for (int index : order) {
+			ranked.add(mirrors.get(index));
+			long latency = latencies.get(index);
+			summary.append(summary.length() > 0 ? ", " : "").append(mirrors.get(index).getHost())
+					.append(latency == UNREACHABLE ? " (no answer)" : " (" + TimeUnit.NANOSECONDS.toMillis(latency) + "ms)");
+		}
+		logger.debug("Mirrors by first-byte latency: {}", summary);
+		return ranked;
+	}
+
+	/*
+	 * Returns the nanoseconds until the first byte arrived, or UNREACHABLE.
+	 */
+	private long probe(URL mirror) {
+		long startTime = System.nanoTime();
+		try {
+			HttpURLConnection http = HttpConnectionPool.open(mirror, timeoutMillis, timeoutMillis);
+			http.setRequestProperty("Range", "bytes=0-0");
+			int responseCode = http.getResponseCode();
+			if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+				HttpConnectionPool.release(http);
+			}
+			else {
+				// a server ignoring the range would start sending the whole file
+				http.disconnect();
+			}
+
+			if (responseCode != HttpURLConnection.HTTP_PARTIAL && responseCode != HttpURLConnection.HTTP_OK) {
+				logger.debug("Mirror {} answered HTTP {}", mirror, Unbox.box(responseCode));
+				return UNREACHABLE;
+			}
+			return System.nanoTime() - startTime;
+		} catch (IOException ex) {
+			logger.debug("Mirror {} is not reachable: {}", mirror, ex.getMessage());
+			return UNREACHABLE;
+		}
+	}
+
+	private long await(CompletableFuture<Long> probe, long deadline) {
+		try {
+			return probe.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException | ExecutionException ex) {
+			return UNREACHABLE;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return UNREACHABLE;
+		}
+	}
+
+	private static class ProbeThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "mirror-probe-" + threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
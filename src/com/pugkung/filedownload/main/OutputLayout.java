@@ -0,0 +1,120 @@
+package com.pugkung.filedownload.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Where output files go on disk. With shard levels, a file is placed under
+ * directories named after the hash of its file name,
+ *
+ *   <output directory>/<2 hex digits>/<2 hex digits>/<file name>
+ *
+ * for two levels, so no single directory grows to millions of entries. The
+ * hash is String.hashCode(), which is fixed by the language specification, so
+ * every run and every cluster node places a file in the same directory.
+ *
+ * With preallocation, a file whose Content-Length is known is extended to its
+ * full size before the body is written.
+ */
+public class OutputLayout {
+
+	public final static int MAX_SHARD_LEVELS = 4;
+	public final static OutputLayout FLAT = new OutputLayout(0, false);
+
+	private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private final static ByteBuffer LAST_BYTE = ByteBuffer.allocate(1).asReadOnlyBuffer();
+
+	private final int shardLevels;
+	private final boolean preallocate;
+	// shard directories are few and reused constantly, so each is only created once per run
+	private final Set<String> createdDirectories = ConcurrentHashMap.newKeySet();
+
+	public OutputLayout(int shardLevels, boolean preallocate) {
+		if (shardLevels < 0 || shardLevels > MAX_SHARD_LEVELS) {
+			throw new IllegalArgumentException("Shard levels must be between 0 and " + MAX_SHARD_LEVELS + ": " + shardLevels);
+		}
+		this.shardLevels = shardLevels;
+		this.preallocate = preallocate;
+	}
+
+	public int getShardLevels() {
+		return shardLevels;
+	}
+
+	public boolean isPreallocate() {
+		return preallocate;
+	}
+
+	/*
+	 * The output directory is used as given, so it needs its trailing separator
+	 * just like with the flat layout.
+	 */
+	public String resolve(String outputDirectory, String fileName) {
+		if (shardLevels == 0) {
+			return outputDirectory + fileName;
+		}
+
+		int hash = mix(fileName.hashCode());
+		StringBuilder path = new StringBuilder(outputDirectory.length() + shardLevels * 3 + fileName.length());
+		path.append(outputDirectory);
+		for (int level = 0; level < shardLevels; level++) {
+			int bits = hash >>> (24 - level * 8);
+			path.append(HEX_DIGITS[(bits >> 4) & 0x0f]).append(HEX_DIGITS[bits & 0x0f]).append(File.separatorChar);
+		}
+		return path.append(fileName).toString();
+	}
+
+	public void createParentDirectory(String outputFilePath) throws IOException {
+		File parent = new File(outputFilePath).getAbsoluteFile().getParentFile();
+		if (parent == null || createdDirectories.contains(parent.getPath())) {
+			return;
+		}
+		Files.createDirectories(parent.toPath());
+		createdDirectories.add(parent.getPath());
+	}
+
+	/*
+	 * Extends the file to its final length unless preallocation is off or the
+	 * length is unknown. Java has no fallocate(), so on file systems with sparse
+	 * files this sets the size without reserving blocks.
+	 */
+	public void preallocate(FileChannel out, long length) throws IOException {
+		if (!preallocate || length <= 0 || out.size() >= length) {
+			return;
+		}
+		out.write(LAST_BYTE.duplicate(), length - 1);
+	}
+
+	/*
+	 * Replaces the target in one step, so readers and concurrent downloads see
+	 * either the old file or the complete new one, never a partial file.
+	 */
+	public static void moveIntoPlace(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/*
+	 * Spreads similar file names, which differ only in their last characters,
+	 * over all directories (the MurmurHash3 finalizer).
+	 */
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+}
@@ -0,0 +1,355 @@
+package com.pugkung.filedownload.main;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Maps a download URL to the name of its output file, relative to the output
+ * directory. Implementations must be thread-safe; one instance names every
+ * download of a run.
+ *
+ *   legacy    drops the scheme and turns "/" and "." into "_". Different URLs
+ *             can get the same name ("a/b.c" and "a_b/c").
+ *   escaped   percent-encodes the whole URL, keeping only RFC 3986 unreserved
+ *             characters, so every URL gets its own name and the name decodes
+ *             back to the URL.
+ *   hashed    the last path segment shortened and suffixed with a 64-bit hash
+ *             of the whole URL: "file_<16 hex digits>.bin".
+ *   template  a pattern such as "{host}/{name}{ext}" (see Template).
+ *
+ * Names longer than MAX_NAME_LENGTH, which most file systems cannot store,
+ * fall back to the hashed name.
+ */
+public interface OutputNamingStrategy {
+
+	public final static int MAX_NAME_LENGTH = 255;
+
+	public final static OutputNamingStrategy LEGACY = new Legacy();
+	public final static OutputNamingStrategy ESCAPED = new Escaped();
+	public final static OutputNamingStrategy HASHED = new Hashed();
+
+	String fileName(String uri);
+
+	/*
+	 * "legacy", "escaped", "hashed" or "template"; the template is only used by
+	 * the last. Throws IllegalArgumentException for anything else.
+	 */
+	public static OutputNamingStrategy forName(String name, String template) {
+		switch (name.trim().toLowerCase()) {
+		case "legacy":
+			return LEGACY;
+		case "escaped":
+			return ESCAPED;
+		case "hashed":
+			return HASHED;
+		case "template":
+			if (template == null || template.trim().isEmpty()) {
+				throw new IllegalArgumentException("The template naming strategy needs a template");
+			}
+			return new Template(template.trim());
+		default:
+			throw new IllegalArgumentException("Unknown naming strategy: " + name);
+		}
+	}
+
+	public static class Legacy implements OutputNamingStrategy {
+		@Override
+		public String fileName(String uri) {
+			char[] name = new char[Math.max(0, uri.length() - (uri.indexOf("://") + 3))];
+			uri.getChars(uri.length() - name.length, uri.length(), name, 0);
+			for (int i = 0; i < name.length; i++) {
+				if (name[i] == '/' || name[i] == '.') {
+					name[i] = '_';
+				}
+			}
+			return new String(name);
+		}
+	}
+
+	public static class Escaped implements OutputNamingStrategy {
+		private final static char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+		@Override
+		public String fileName(String uri) {
+			StringBuilder name = new StringBuilder(uri.length() + 16);
+			for (int i = 0; i < uri.length(); i++) {
+				char c = uri.charAt(i);
+				if (UriParts.isUnreserved(c)) {
+					name.append(c);
+				}
+				else if (c < 0x80) {
+					escape(name, c);
+				}
+				else {
+					int codePoint = uri.codePointAt(i);
+					if (Character.isSupplementaryCodePoint(codePoint)) {
+						i++;
+					}
+					escapeUtf8(name, codePoint);
+				}
+			}
+			if (UriParts.isDots(name, 0, name.length())) {
+				// "." and ".." name directories; "%2E" still decodes to the same URL
+				name.setLength(0);
+				for (int i = 0; i < uri.length(); i++) {
+					escape(name, uri.charAt(i));
+				}
+			}
+			return (name.length() <= MAX_NAME_LENGTH) ? name.toString() : HASHED.fileName(uri);
+		}
+
+		private static void escapeUtf8(StringBuilder name, int codePoint) {
+			if (codePoint < 0x800) {
+				escape(name, 0xc0 | (codePoint >> 6));
+			}
+			else if (codePoint < 0x10000) {
+				escape(name, 0xe0 | (codePoint >> 12));
+				escape(name, 0x80 | ((codePoint >> 6) & 0x3f));
+			}
+			else {
+				escape(name, 0xf0 | (codePoint >> 18));
+				escape(name, 0x80 | ((codePoint >> 12) & 0x3f));
+				escape(name, 0x80 | ((codePoint >> 6) & 0x3f));
+			}
+			escape(name, 0x80 | (codePoint & 0x3f));
+		}
+
+		private static void escape(StringBuilder name, int b) {
+			name.append('%').append(HEX_DIGITS[(b >> 4) & 0x0f]).append(HEX_DIGITS[b & 0x0f]);
+		}
+	}
+
+	public static class Hashed implements OutputNamingStrategy {
+		private final static int MAX_STEM_LENGTH = 64;
+		private final static int MAX_EXTENSION_LENGTH = 16;
+
+		@Override
+		public String fileName(String uri) {
+			UriParts parts = new UriParts(uri);
+			int stemEnd = parts.extensionStart();
+			if (stemEnd - parts.nameStart > MAX_STEM_LENGTH) {
+				stemEnd = parts.nameStart + MAX_STEM_LENGTH;
+			}
+			int extensionLength = parts.nameEnd - parts.extensionStart();
+
+			StringBuilder name = new StringBuilder(MAX_STEM_LENGTH + MAX_EXTENSION_LENGTH + 17);
+			if (parts.nameStart < parts.nameEnd) {
+				UriParts.appendSanitized(name, uri, parts.nameStart, stemEnd);
+			}
+			else {
+				UriParts.appendSanitized(name, uri, parts.hostStart, Math.min(parts.hostEnd, parts.hostStart + MAX_STEM_LENGTH));
+			}
+			name.append('_');
+			UriParts.appendHash(name, uri);
+			if (extensionLength > 1 && extensionLength <= MAX_EXTENSION_LENGTH) {
+				UriParts.appendSanitized(name, uri, parts.extensionStart(), parts.nameEnd);
+			}
+			return name.toString();
+		}
+	}
+
+	/*
+	 * Placeholders, each reduced to unreserved characters with "_" for the rest:
+	 *
+	 *   {host}   host name and port
+	 *   {path}   path without the leading "/", with "/" turned into "_"
+	 *   {name}   last path segment without its extension
+	 *   {ext}    extension of the last path segment including the ".", or nothing
+	 *   {query}  query string without the "?"
+	 *   {hash}   16 hex digits of a 64-bit hash of the whole URL
+	 *
+	 * Other text is copied as is, so a "/" in the template creates directories.
+	 * Without {hash}, different URLs can get the same name ("a/b.c?x" and "a/b.c?y"
+	 * under "{host}/{name}{ext}"): a later download replaces the earlier file.
+	 */
+	public static class Template implements OutputNamingStrategy {
+		private final static String[] PLACEHOLDERS = { "{host}", "{path}", "{name}", "{ext}", "{query}", "{hash}" };
+		private final static int HOST = 0, PATH = 1, NAME = 2, EXTENSION = 3, QUERY = 4, HASH = 5;
+
+		private final String template;
+		// literal text and placeholder indexes, alternating; parsed once
+		private final List<Object> elements = new ArrayList<Object>();
+
+		public Template(String template) {
+			this.template = template;
+			int position = 0;
+			while (position < template.length()) {
+				int open = template.indexOf('{', position);
+				if (open < 0) {
+					elements.add(template.substring(position));
+					break;
+				}
+				if (open > position) {
+					elements.add(template.substring(position, open));
+				}
+				int placeholder = placeholderAt(template, open);
+				elements.add(placeholder);
+				position = open + PLACEHOLDERS[placeholder].length();
+			}
+			for (String segment : template.split("/")) {
+				if (segment.equals("..") || segment.equals(".")) {
+					throw new IllegalArgumentException("Template must not leave the output directory: " + template);
+				}
+			}
+		}
+
+		/*
+		 * Only {hash} tells apart every pair of URLs.
+		 */
+		public boolean isCollisionFree() {
+			return elements.contains(HASH);
+		}
+
+		private static int placeholderAt(String template, int open) {
+			for (int i = 0; i < PLACEHOLDERS.length; i++) {
+				if (template.startsWith(PLACEHOLDERS[i], open)) {
+					return i;
+				}
+			}
+			throw new IllegalArgumentException("Unknown placeholder at position " + open + " of template: " + template);
+		}
+
+		@Override
+		public String fileName(String uri) {
+			UriParts parts = new UriParts(uri);
+			StringBuilder name = new StringBuilder(uri.length() + 32);
+			for (Object element : elements) {
+				if (element instanceof String) {
+					name.append((String) element);
+					continue;
+				}
+				switch ((Integer) element) {
+				case HOST:
+					UriParts.appendSanitized(name, uri, parts.hostStart, parts.hostEnd);
+					break;
+				case PATH:
+					UriParts.appendSanitized(name, uri, Math.min(parts.hostEnd + 1, parts.pathEnd), parts.pathEnd);
+					break;
+				case NAME:
+					UriParts.appendSanitized(name, uri, parts.nameStart, parts.extensionStart());
+					break;
+				case EXTENSION:
+					UriParts.appendSanitized(name, uri, parts.extensionStart(), parts.nameEnd);
+					break;
+				case QUERY:
+					UriParts.appendSanitized(name, uri, Math.min(parts.pathEnd + 1, parts.queryEnd), parts.queryEnd);
+					break;
+				default:
+					UriParts.appendHash(name, uri);
+					break;
+				}
+			}
+			return fitsFileSystem(name) ? name.toString() : HASHED.fileName(uri);
+		}
+
+		/*
+		 * Every "/"-separated part must be a usable name on its own.
+		 */
+		private static boolean fitsFileSystem(CharSequence name) {
+			int partStart = 0;
+			for (int i = 0; i <= name.length(); i++) {
+				if (i == name.length() || name.charAt(i) == '/') {
+					int length = i - partStart;
+					if (length == 0 || length > MAX_NAME_LENGTH || UriParts.isDots(name, partStart, i)) {
+						return false;
+					}
+					partStart = i + 1;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return template;
+		}
+	}
+
+	/*
+	 * Index ranges of the parts of a URL; parsing allocates nothing but this.
+	 */
+	final static class UriParts {
+		private final static long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+		private final static long FNV_PRIME = 0x100000001b3L;
+		private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+		final String uri;
+		final int hostStart;
+		final int hostEnd;
+		final int pathEnd;
+		final int queryEnd;
+		final int nameStart;
+		final int nameEnd;
+
+		UriParts(String uri) {
+			this.uri = uri;
+			int schemeEnd = uri.indexOf("://");
+			hostStart = (schemeEnd < 0) ? 0 : schemeEnd + 3;
+
+			int fragment = uri.indexOf('#', hostStart);
+			queryEnd = (fragment < 0) ? uri.length() : fragment;
+			int query = uri.indexOf('?', hostStart);
+			pathEnd = (query < 0 || query > queryEnd) ? queryEnd : query;
+			int slash = uri.indexOf('/', hostStart);
+			hostEnd = (slash < 0 || slash > pathEnd) ? pathEnd : slash;
+
+			nameEnd = pathEnd;
+			int lastSlash = uri.lastIndexOf('/', nameEnd - 1);
+			nameStart = (lastSlash < hostEnd) ? nameEnd : lastSlash + 1;
+		}
+
+		/*
+		 * Start of the extension including its ".", or nameEnd when there is none.
+		 */
+		int extensionStart() {
+			for (int i = nameEnd - 1; i > nameStart; i--) {
+				if (uri.charAt(i) == '.') {
+					return i;
+				}
+			}
+			return nameEnd;
+		}
+
+		static boolean isUnreserved(char c) {
+			return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+					c == '-' || c == '.' || c == '_' || c == '~';
+		}
+
+		/*
+		 * True for names like "." and ".." that a file system gives a special meaning.
+		 */
+		static boolean isDots(CharSequence name, int start, int end) {
+			if (end - start > 2) {
+				return false;
+			}
+			for (int i = start; i < end; i++) {
+				if (name.charAt(i) != '.') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		static void appendSanitized(StringBuilder name, String uri, int start, int end) {
+			for (int i = start; i < end; i++) {
+				char c = uri.charAt(i);
+				name.append(isUnreserved(c) ? c : '_');
+			}
+		}
+
+		/*
+		 * 64-bit FNV-1a. Not collision-proof, but a collision needs billions of
+		 * URLs, and FileDownloader refuses two downloads writing one file at once.
+		 */
+		static void appendHash(StringBuilder name, String uri) {
+			long hash = FNV_OFFSET_BASIS;
+			for (int i = 0; i < uri.length(); i++) {
+				hash ^= uri.charAt(i);
+				hash *= FNV_PRIME;
+			}
+			for (int shift = 60; shift >= 0; shift -= 4) {
+				name.append(HEX_DIGITS[(int) (hash >>> shift) & 0x0f]);
+			}
+		}
+	}
+}
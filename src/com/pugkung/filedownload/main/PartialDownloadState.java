@@ -0,0 +1,125 @@
+package com.pugkung.filedownload.main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/*
+ * Sidecar record stored next to a ".part" file so an interrupted download can
+ * be resumed by a later run. Kept in java.util.Properties format like the
+ * main configuration file.
+ */
+public class PartialDownloadState {
+
+	private final static String URL_KEYNAME = "url";
+	private final static String ETAG_KEYNAME = "etag";
+	private final static String LAST_MODIFIED_KEYNAME = "lastModified";
+	private final static String BYTES_COMMITTED_KEYNAME = "bytesCommitted";
+	private final static String TOTAL_LENGTH_KEYNAME = "totalLength";
+
+	public final static long UNKNOWN_LENGTH = -1;
+
+	private String url;
+	private String etag;
+	private String lastModified;
+	private long bytesCommitted;
+	private long totalLength;
+
+	public PartialDownloadState(String url, String etag, String lastModified, long bytesCommitted) {
+		this(url, etag, lastModified, bytesCommitted, UNKNOWN_LENGTH);
+	}
+
+	public PartialDownloadState(String url, String etag, String lastModified, long bytesCommitted, long totalLength) {
+		this.url = url;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.bytesCommitted = bytesCommitted;
+		this.totalLength = totalLength;
+	}
+
+	/*
+	 * Returns null when the sidecar is missing or unreadable.
+	 */
+	public static PartialDownloadState load(File stateFile) {
+		if (!stateFile.isFile()) {
+			return null;
+		}
+
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(stateFile)) {
+			props.load(in);
+			return new PartialDownloadState(
+					props.getProperty(URL_KEYNAME),
+					props.getProperty(ETAG_KEYNAME),
+					props.getProperty(LAST_MODIFIED_KEYNAME),
+					Long.parseLong(props.getProperty(BYTES_COMMITTED_KEYNAME, "0")),
+					Long.parseLong(props.getProperty(TOTAL_LENGTH_KEYNAME, String.valueOf(UNKNOWN_LENGTH))));
+		} catch (IOException | NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	public void save(File stateFile) throws IOException {
+		Properties props = new Properties();
+		props.setProperty(URL_KEYNAME, url);
+		if (etag != null) {
+			props.setProperty(ETAG_KEYNAME, etag);
+		}
+		if (lastModified != null) {
+			props.setProperty(LAST_MODIFIED_KEYNAME, lastModified);
+		}
+		props.setProperty(BYTES_COMMITTED_KEYNAME, String.valueOf(bytesCommitted));
+		if (totalLength != UNKNOWN_LENGTH) {
+			props.setProperty(TOTAL_LENGTH_KEYNAME, String.valueOf(totalLength));
+		}
+
+		try (OutputStream out = new FileOutputStream(stateFile)) {
+			props.store(out, null);
+		}
+	}
+
+	public boolean hasValidator() {
+		return getValidator() != null;
+	}
+
+	/*
+	 * Value for the If-Range header. A strong ETag is preferred over the date.
+	 */
+	public String getValidator() {
+		if (etag != null && !etag.startsWith("W/")) {
+			return etag;
+		}
+		return lastModified;
+	}
+
+	public String getURL() {
+		return url;
+	}
+
+	public String getETag() {
+		return etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	public long getBytesCommitted() {
+		return bytesCommitted;
+	}
+
+	public void setBytesCommitted(long bytesCommitted) {
+		this.bytesCommitted = bytesCommitted;
+	}
+
+	/*
+	 * Length of the whole file, or UNKNOWN_LENGTH when the server did not send one.
+	 */
+	public long getTotalLength() {
+		return totalLength;
+	}
+}
@@ -0,0 +1,326 @@
+package com.pugkung.filedownload.main;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import com.pugkung.filedownload.main.StreamCopier.TransferEngine;
+import com.pugkung.filedownload.main.StreamCopier.TransferListener;
+
+/*
+ * Single-stream HTTP download that writes into "<output>.part" and keeps a
+ * "<output>.part.meta" sidecar. When a transfer fails the partial file is kept
+ * so the next run can continue with "Range: bytes=N-" guarded by If-Range.
+ *
+ * With mirrors, a partial file written from one mirror can be continued from
+ * another. Validators are per server, so such a resume is checked against the
+ * total length in Content-Range instead of If-Range.
+ */
+public class ResumableDownloader {
+
+	public final static String PART_FILE_SUFFIX = ".part";
+	public final static String STATE_FILE_SUFFIX = ".part.meta";
+
+	private final static long CHECKPOINT_INTERVAL = 8 * 1024 * 1024;
+	private final static long THROUGHPUT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+	private Logger logger = LogManager.getLogger(ResumableDownloader.class);
+
+	private final int connectionTimeout;
+	private final int readTimeout;
+	private final StreamCopier copier;
+	private Set<String> mirrors = Collections.emptySet();
+	private long minBytesPerSecond = 0;
+	private OutputLayout outputLayout = OutputLayout.FLAT;
+
+	public ResumableDownloader(int connectionTimeout, int readTimeout) {
+		this(connectionTimeout, readTimeout, new StreamCopier(TransferEngine.COMMONS_IO));
+	}
+
+	public ResumableDownloader(int connectionTimeout, int readTimeout, StreamCopier copier) {
+		this.connectionTimeout = connectionTimeout;
+		this.readTimeout = readTimeout;
+		this.copier = copier;
+	}
+
+	public void download(URL url, File outputFile) throws IOException {
+		download(url, outputFile, null);
+	}
+
+	/*
+	 * With a cache, a fresh download of a file fetched by an earlier run is sent
+	 * as a conditional GET. Returns false when the server answered 304 Not
+	 * Modified and the existing output file was kept.
+	 */
+	public boolean download(URL url, File outputFile, ConditionalGetCache cache) throws IOException {
+		File partFile = getPartFile(outputFile);
+		File stateFile = getStateFile(outputFile);
+
+		PartialDownloadState state = loadResumableState(url, partFile, stateFile);
+		long offset = (state != null) ? state.getBytesCommitted() : 0;
+		boolean fromOtherMirror = offset > 0 && !url.toString().equals(state.getURL());
+		ConditionalGetCache.Entry cached = (cache != null && offset == 0) ? cache.lookup(url.toString(), outputFile) : null;
+
+		HttpURLConnection http = HttpConnectionPool.open(url, connectionTimeout, readTimeout);
+		if (offset > 0) {
+			http.setRequestProperty("Range", "bytes=" + offset + "-");
+			if (!fromOtherMirror) {
+				http.setRequestProperty("If-Range", state.getValidator());
+			}
+		}
+		else if (cached != null) {
+			ConditionalGetCache.addConditionalHeaders(http, cached);
+		}
+
+		int responseCode = DownloadMetrics.getSharedMetrics().awaitResponse(http);
+		if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+			HttpConnectionPool.release(http);
+			logger.debug("Not modified since the last download, keeping {}", outputFile);
+			return false;
+		}
+		else if (responseCode == HttpURLConnection.HTTP_PARTIAL && offset > 0) {
+			String contentRange = http.getHeaderField("Content-Range");
+			if (contentRange == null || !contentRange.startsWith("bytes " + offset + "-")) {
+				HttpConnectionPool.release(http);
+				throw new IOException("Unexpected Content-Range for resumed download: " + contentRange);
+			}
+			if (fromOtherMirror && totalLengthOf(contentRange) != state.getTotalLength()) {
+				HttpConnectionPool.release(http);
+				partFile.delete();
+				stateFile.delete();
+				throw new IOException("Mirror " + url + " has a different file than " + state.getURL() +
+						" (Content-Range " + contentRange + ", expected length " + state.getTotalLength() + ")");
+			}
+			logger.info("Resuming {} from byte {}{}{}", url, Unbox.box(offset), fromOtherMirror ? ", started on " : "",
+					fromOtherMirror ? state.getURL() : "");
+		}
+		else if (responseCode == HttpURLConnection.HTTP_OK) {
+			if (offset > 0) {
+				logger.info("Remote file changed since last attempt, restarting: {}", url);
+			}
+			offset = 0;
+		}
+		else if (offset > 0 && isClientError(responseCode)) {
+			// typically 416 after the remote file shrank; every later run would send the same range
+			HttpConnectionPool.release(http);
+			partFile.delete();
+			stateFile.delete();
+			logger.info("Server refused to resume {} from byte {} (HTTP {}), restarting", url, Unbox.box(offset),
+					Unbox.box(responseCode));
+			return download(url, outputFile, cache);
+		}
+		else {
+			long retryAfterMillis = HttpStatusException.parseRetryAfter(http.getHeaderField("Retry-After"));
+			HttpConnectionPool.release(http);
+			throw new HttpStatusException(responseCode, "Server returned HTTP " + responseCode + " for " + url, retryAfterMillis);
+		}
+
+		long contentLength = http.getContentLengthLong();
+		state = new PartialDownloadState(url.toString(), http.getHeaderField("ETag"), http.getHeaderField("Last-Modified"),
+				offset, (contentLength >= 0) ? offset + contentLength : PartialDownloadState.UNKNOWN_LENGTH);
+		if (state.hasValidator()) {
+			state.save(stateFile);
+		}
+
+		try (InputStream in = http.getInputStream();
+				FileChannel out = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+						StandardOpenOption.WRITE)) {
+			// drop anything written after the last committed byte
+			out.truncate(offset);
+			outputLayout.preallocate(out, state.getTotalLength());
+			copy(in, out, state, stateFile);
+			verifyLength(http, offset, state.getBytesCommitted());
+		} catch (IOException ex) {
+			keepOrDiscardPartial(state, partFile, stateFile);
+			throw ex;
+		}
+
+		OutputLayout.moveIntoPlace(partFile.toPath(), outputFile.toPath());
+		stateFile.delete();
+
+		if (cache != null) {
+			cache.update(url.toString(), state.getETag(), state.getLastModified(), outputFile.length());
+		}
+		return true;
+	}
+
+	private void copy(InputStream in, final FileChannel out, final PartialDownloadState state, final File stateFile)
+			throws IOException {
+		final long offset = state.getBytesCommitted();
+		if (offset > 0 && copier.isHashing()) {
+			digestCommittedBytes(out, offset, copier.getDigests());
+		}
+
+		long copied = copier.copy(in, out, offset, new TransferListener() {
+			private long lastCheckpoint = 0;
+			private long windowStart = System.nanoTime();
+			private long windowBytes = 0;
+
+			@Override
+			public void chunkWritten(ByteBuffer chunk, long totalBytes) throws IOException {
+				if (minBytesPerSecond > 0) {
+					checkThroughput(totalBytes);
+				}
+				if (totalBytes - lastCheckpoint >= CHECKPOINT_INTERVAL && state.hasValidator()) {
+					// only advertise bytes that are known to be on disk
+					copier.flush();
+					out.force(false);
+					state.setBytesCommitted(offset + totalBytes);
+					state.save(stateFile);
+					lastCheckpoint = totalBytes;
+				}
+			}
+
+			private void checkThroughput(long totalBytes) throws IOException {
+				long elapsed = System.nanoTime() - windowStart;
+				if (elapsed < THROUGHPUT_WINDOW_NANOS) {
+					return;
+				}
+				long bytesPerSecond = (totalBytes - windowBytes) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+				if (bytesPerSecond < minBytesPerSecond) {
+					throw new SlowTransferException(bytesPerSecond, "Transfer slowed to " + bytesPerSecond +
+							" bytes/s, below the minimum of " + minBytesPerSecond);
+				}
+				windowStart = System.nanoTime();
+				windowBytes = totalBytes;
+			}
+		});
+		state.setBytesCommitted(offset + copied);
+	}
+
+	/*
+	 * A digest cannot be saved with the sidecar, so a resumed download hashes the
+	 * bytes kept from the earlier attempt once before the rest streams in.
+	 */
+	private void digestCommittedBytes(FileChannel part, long length, MessageDigest[] digests) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long position = 0;
+		while (position < length) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), length - position));
+			int read = part.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Partial download is shorter than its committed length: " + position);
+			}
+			for (MessageDigest digest : digests) {
+				buffer.flip();
+				digest.update(buffer);
+			}
+			position += read;
+		}
+	}
+
+	private void verifyLength(HttpURLConnection http, long offset, long committed) throws IOException {
+		long contentLength = http.getContentLengthLong();
+		if (contentLength >= 0 && committed != offset + contentLength) {
+			throw new EOFException("Connection closed after " + committed + " of " + (offset + contentLength) + " bytes");
+		}
+	}
+
+	private PartialDownloadState loadResumableState(URL url, File partFile, File stateFile) {
+		PartialDownloadState state = PartialDownloadState.load(stateFile);
+		if (state == null || !partFile.isFile()) {
+			return null;
+		}
+		if (!state.hasValidator()) {
+			return null;
+		}
+		if (!url.toString().equals(state.getURL()) &&
+				(!mirrors.contains(state.getURL()) || state.getTotalLength() == PartialDownloadState.UNKNOWN_LENGTH)) {
+			return null;
+		}
+
+		// the sidecar may lag behind the file but must never be ahead of it
+		long committed = Math.min(state.getBytesCommitted(), partFile.length());
+		state.setBytesCommitted(committed);
+		return committed > 0 ? state : null;
+	}
+
+	private void keepOrDiscardPartial(PartialDownloadState state, File partFile, File stateFile) {
+		if (!state.hasValidator()) {
+			// nothing to check a later resume against
+			partFile.delete();
+			stateFile.delete();
+			return;
+		}
+
+		try {
+			if (outputLayout.isPreallocate() && state.getTotalLength() != PartialDownloadState.UNKNOWN_LENGTH) {
+				// the file already has its full length; only the last checkpoint is known to be written
+				try (FileChannel part = FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE)) {
+					part.truncate(state.getBytesCommitted());
+				}
+			}
+			state.setBytesCommitted(partFile.length());
+			state.save(stateFile);
+			logger.info("Keeping partial download for resume: {} ({} bytes)", partFile, Unbox.box(state.getBytesCommitted()));
+		} catch (IOException ex) {
+			logger.error("Unable to record partial download state: {}", ex.getMessage());
+			partFile.delete();
+			stateFile.delete();
+		}
+	}
+
+	/*
+	 * 4xx answers other than 429, which only asks to come back later.
+	 */
+	private static boolean isClientError(int responseCode) {
+		return responseCode >= 400 && responseCode < 500 && responseCode != 429;
+	}
+
+	private static long totalLengthOf(String contentRange) {
+		int separator = contentRange.lastIndexOf('/');
+		try {
+			return Long.parseLong(contentRange.substring(separator + 1).trim());
+		} catch (NumberFormatException ex) {
+			return PartialDownloadState.UNKNOWN_LENGTH;
+		}
+	}
+
+	/*
+	 * URLs serving the same file. A partial download from any of them can be
+	 * continued from the others.
+	 */
+	public void setMirrors(Collection<String> mirrors) {
+		this.mirrors = new HashSet<String>(mirrors);
+	}
+
+	/*
+	 * A transfer that stays below this rate for a couple of seconds fails with
+	 * SlowTransferException, keeping its partial file. 0 turns the check off.
+	 */
+	public void setMinThroughput(long bytesPerSecond) {
+		this.minBytesPerSecond = Math.max(0, bytesPerSecond);
+	}
+
+	/*
+	 * Decides whether the .part file is extended to its full length up front.
+	 */
+	public void setOutputLayout(OutputLayout outputLayout) {
+		this.outputLayout = (outputLayout == null) ? OutputLayout.FLAT : outputLayout;
+	}
+
+	public static File getPartFile(File outputFile) {
+		return new File(outputFile.getPath() + PART_FILE_SUFFIX);
+	}
+
+	public static File getStateFile(File outputFile) {
+		return new File(outputFile.getPath() + STATE_FILE_SUFFIX);
+	}
+}
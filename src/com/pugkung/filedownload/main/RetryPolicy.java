@@ -0,0 +1,106 @@
+package com.pugkung.filedownload.main;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+
+/*
+ * Decides whether a failed download is worth another attempt and how long to
+ * wait before it.
+ *
+ * Retryable: timeouts, connection resets and refusals, bodies cut short,
+ * HTTP 408, 429 and 5xx. Everything else is fatal, including malformed URLs,
+ * unknown hosts, 404 and other 4xx answers, and checksum mismatches.
+ *
+ * Delays grow exponentially from the base delay up to the maximum, with full
+ * jitter (a random delay between zero and the current step) so that downloads
+ * failing together do not come back together. A Retry-After from the server
+ * is honored when it asks for longer.
+ */
+public class RetryPolicy {
+
+	public final static int DEFAULT_MAX_RETRIES = 0;
+	public final static long DEFAULT_BASE_DELAY_MILLIS = 1000;
+	public final static long DEFAULT_MAX_DELAY_MILLIS = 60000;
+
+	public final static RetryPolicy NO_RETRY = new RetryPolicy(0, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+
+	private final int maxRetries;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+
+	public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+		this.maxRetries = Math.max(0, maxRetries);
+		this.baseDelayMillis = Math.max(1, baseDelayMillis);
+		this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+	}
+
+	/*
+	 * attempt is the number of the attempt that just failed, starting at 1.
+	 */
+	public boolean shouldRetry(int attempt, DownloaderStatus status, Throwable cause) {
+		return attempt <= maxRetries && isRetryable(status, cause);
+	}
+
+	public static boolean isRetryable(DownloaderStatus status, Throwable cause) {
+		if (status != DownloaderStatus.IO_ERROR) {
+			return false;
+		}
+		if (cause == null) {
+			// nothing to classify by; an I/O error is more often transient than not
+			return true;
+		}
+
+		int statusCode = HttpStatusException.statusCodeOf(cause);
+		if (statusCode != -1) {
+			return statusCode == 408 || statusCode == 429 || statusCode / 100 == 5;
+		}
+
+		for (Throwable failure = cause; failure != null; failure = failure.getCause()) {
+			if (failure instanceof UnknownHostException || failure instanceof FileNotFoundException) {
+				// FileNotFoundException is how HttpURLConnection reports 404 and 410
+				return false;
+			}
+			if (failure instanceof SocketTimeoutException || failure instanceof SocketException ||
+					failure instanceof EOFException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public long getDelayMillis(int attempt, Throwable cause) {
+		long step = baseDelayMillis << Math.min(attempt - 1, 30);
+		step = (step <= 0) ? maxDelayMillis : Math.min(step, maxDelayMillis);
+		long delay = ThreadLocalRandom.current().nextLong(step + 1);
+
+		long retryAfter = retryAfterOf(cause);
+		return Math.max(delay, retryAfter);
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public long getBaseDelayMillis() {
+		return baseDelayMillis;
+	}
+
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	private static long retryAfterOf(Throwable cause) {
+		for (Throwable failure = cause; failure != null; failure = failure.getCause()) {
+			if (failure instanceof HttpStatusException) {
+				return ((HttpStatusException) failure).getRetryAfterMillis();
+			}
+		}
+		return HttpStatusException.NO_RETRY_AFTER;
+	}
+}
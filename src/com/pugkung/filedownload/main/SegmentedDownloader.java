@@ -0,0 +1,254 @@
+package com.pugkung.filedownload.main;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import com.pugkung.filedownload.main.BandwidthLimiter.Throttle;
+
+/*
+ * Downloads one HTTP resource over several connections using Range requests.
+ * Each segment is written at its own offset of a preallocated output file.
+ * Segments send If-Range with the validator of the probe and must get back
+ * exactly their range of a resource of the probed length, so a file that
+ * changes on the server mid-download fails instead of mixing two versions.
+ */
+public class SegmentedDownloader {
+
+	public final static long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private final static ExecutorService segmentExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "segment-" + threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private Logger logger = LogManager.getLogger(SegmentedDownloader.class);
+
+	private final int segmentCount;
+	private final long minSegmentSize;
+	private final int connectionTimeout;
+	private final int readTimeout;
+	private Throttle throttle;
+	private DownloadMetrics.Transfer transfer;
+	private String etag;
+	private String lastModified;
+
+	public SegmentedDownloader(int segmentCount, long minSegmentSize, int connectionTimeout, int readTimeout) {
+		this.segmentCount = segmentCount;
+		this.minSegmentSize = minSegmentSize;
+		this.connectionTimeout = connectionTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/*
+	 * Returns false without touching the output file when the server does not
+	 * support byte ranges or the file is too small to split, so the caller can
+	 * fall back to a single stream.
+	 */
+	public boolean download(URL url, File outputFile) throws IOException {
+		long contentLength = probeRangeSupport(url);
+		if (contentLength < 0) {
+			return false;
+		}
+
+		int segments = (int) Math.min(segmentCount, contentLength / minSegmentSize);
+		if (segments < 2) {
+			return false;
+		}
+
+		logger.debug("Downloading {} in {} segments ({} bytes)", url, Unbox.box(segments), Unbox.box(contentLength));
+
+		try (RandomAccessFile file = new RandomAccessFile(outputFile, "rw")) {
+			file.setLength(contentLength);
+			FileChannel channel = file.getChannel();
+
+			long segmentSize = contentLength / segments;
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (int i = 0; i < segments; i++) {
+				final long start = i * segmentSize;
+				final long end = (i == segments - 1) ? contentLength - 1 : start + segmentSize - 1;
+				results.add(segmentExecutor.submit(() -> {
+					downloadSegment(url, channel, start, end, contentLength);
+					return null;
+				}));
+			}
+
+			awaitSegments(results);
+		}
+		return true;
+	}
+
+	/*
+	 * Returns the content length when the resource can be fetched by range, -1 otherwise.
+	 */
+	protected long probeRangeSupport(URL url) throws IOException {
+		HttpURLConnection http = HttpConnectionPool.open(url, connectionTimeout, readTimeout);
+		try {
+			http.setRequestMethod("HEAD");
+
+			if (http.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				return -1;
+			}
+
+			etag = http.getHeaderField("ETag");
+			lastModified = http.getHeaderField("Last-Modified");
+
+			String acceptRanges = http.getHeaderField("Accept-Ranges");
+			if (acceptRanges == null || !acceptRanges.trim().equalsIgnoreCase("bytes")) {
+				return -1;
+			}
+			return http.getContentLengthLong();
+		} finally {
+			HttpConnectionPool.release(http);
+		}
+	}
+
+	protected void downloadSegment(URL url, FileChannel channel, long start, long end, long contentLength)
+			throws IOException {
+		HttpURLConnection http = HttpConnectionPool.open(url, connectionTimeout, readTimeout);
+		http.setRequestProperty("Range", "bytes=" + start + "-" + end);
+		String validator = getValidator();
+		if (validator != null) {
+			http.setRequestProperty("If-Range", validator);
+		}
+
+		int responseCode = DownloadMetrics.getSharedMetrics().awaitResponse(http);
+		if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+			long retryAfterMillis = HttpStatusException.parseRetryAfter(http.getHeaderField("Retry-After"));
+			HttpConnectionPool.release(http);
+			throw new HttpStatusException(responseCode, "Server did not honor range request (HTTP " + responseCode + ")", retryAfterMillis);
+		}
+		String contentRange = http.getHeaderField("Content-Range");
+		if (!("bytes " + start + "-" + end + "/" + contentLength).equals(contentRange)) {
+			HttpConnectionPool.release(http);
+			throw new IOException("Unexpected Content-Range for segment " + start + "-" + end + " of " + contentLength +
+					" bytes: " + contentRange);
+		}
+
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long position = start;
+		try (InputStream in = http.getInputStream()) {
+			int read;
+			while (position <= end && (read = in.read(buffer)) != -1) {
+				// never write past the segment: the bytes beyond it belong to the next one
+				int accepted = (int) Math.min(read, end + 1 - position);
+				ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, accepted);
+				while (chunk.hasRemaining()) {
+					position += channel.write(chunk, position);
+				}
+				if (transfer != null) {
+					transfer.add(accepted);
+				}
+				if (accepted < read) {
+					throw tooLong(start, end);
+				}
+				if (throttle != null) {
+					throttle.acquire(read);
+				}
+			}
+			if (position == end + 1 && in.read() != -1) {
+				throw tooLong(start, end);
+			}
+		}
+
+		if (position != end + 1) {
+			throw new EOFException("Segment " + start + "-" + end + " ended early at byte " + position);
+		}
+	}
+
+	private static IOException tooLong(long start, long end) {
+		return new IOException("Server sent more than the " + (end + 1 - start) + " bytes of segment " + start + "-" + end);
+	}
+
+	/*
+	 * Value for the If-Range header. A strong ETag is preferred over the date,
+	 * as weak ETags must not be used with If-Range.
+	 */
+	private String getValidator() {
+		if (etag != null && !etag.startsWith("W/")) {
+			return etag;
+		}
+		return lastModified;
+	}
+
+	private void awaitSegments(List<Future<Void>> results) throws IOException {
+		IOException failure = null;
+		for (Future<Void> result : results) {
+			try {
+				result.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				failure = new IOException("Interrupted while waiting for segments", ex);
+			} catch (CancellationException ex) {
+				// cancelled after another segment failed
+			} catch (ExecutionException ex) {
+				if (failure == null) {
+					failure = (ex.getCause() instanceof IOException) ?
+							(IOException) ex.getCause() : new IOException(ex.getCause());
+				}
+			}
+
+			if (failure != null) {
+				for (Future<Void> pending : results) {
+					pending.cancel(true);
+				}
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/*
+	 * All segments of a download share the throttle, so the per-download cap
+	 * covers their combined rate.
+	 */
+	public void setThrottle(Throttle throttle) {
+		this.throttle = throttle;
+	}
+
+	/*
+	 * Shared by all segments like the throttle; null counts nothing.
+	 */
+	public void setTransfer(DownloadMetrics.Transfer transfer) {
+		this.transfer = transfer;
+	}
+
+	/*
+	 * Validators seen by the last range probe, null if the server sent none.
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+}
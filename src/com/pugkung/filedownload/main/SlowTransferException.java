@@ -0,0 +1,24 @@
+package com.pugkung.filedownload.main;
+
+import java.net.SocketTimeoutException;
+
+/*
+ * Thrown when a transfer keeps running below the minimum throughput while
+ * another mirror could take over. A timeout in all but name, so it is retried
+ * like one.
+ */
+public class SlowTransferException extends SocketTimeoutException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long bytesPerSecond;
+
+	public SlowTransferException(long bytesPerSecond, String message) {
+		super(message);
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+}
@@ -0,0 +1,270 @@
+package com.pugkung.filedownload.main;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.pugkung.filedownload.main.BandwidthLimiter.Throttle;
+
+/*
+ * Copies a response body into a file channel at a given position using the
+ * selected transfer engine, notifying a listener after every chunk written.
+ * An optional throttle is charged for each chunk before the next read, and any
+ * digests are updated from the same buffer, so hashing needs no second pass
+ * over the file.
+ *
+ * WRITE_BEHIND reads like NIO but hands full buffers to a WriteBehindWriter
+ * instead of writing them itself. Listeners are then notified once a chunk is
+ * queued; flush() waits until it is in the channel.
+ */
+public class StreamCopier {
+
+	public static enum TransferEngine {
+		COMMONS_IO,
+		NIO,
+		WRITE_BEHIND
+	}
+
+	public static interface TransferListener {
+		/*
+		 * Called after each chunk is written (queued, with WRITE_BEHIND). The buffer holds exactly the chunk
+		 * (position..limit) and must not be kept after the call returns.
+		 */
+		void chunkWritten(ByteBuffer chunk, long totalBytes) throws IOException;
+	}
+
+	private final static int HEAP_BUFFER_SIZE = 64 * 1024;
+
+	private static Logger logger = LogManager.getLogger(StreamCopier.class);
+
+	private final TransferEngine engine;
+	private final DirectBufferPool bufferPool;
+	private final Throttle throttle;
+	private final MessageDigest[] digests;
+	private DownloadMetrics.Transfer transfer;
+	private WriteBehindWriter writeBehindWriter;
+	private WriteBehindWriter.Sink sink;
+	private ByteBuffer pendingChunk;
+
+	public StreamCopier(TransferEngine engine) {
+		this(engine, DirectBufferPool.getSharedPool(), null);
+	}
+
+	public StreamCopier(TransferEngine engine, Throttle throttle) {
+		this(engine, DirectBufferPool.getSharedPool(), throttle);
+	}
+
+	public StreamCopier(TransferEngine engine, DirectBufferPool bufferPool) {
+		this(engine, bufferPool, null);
+	}
+
+	public StreamCopier(TransferEngine engine, DirectBufferPool bufferPool, Throttle throttle) {
+		this(engine, bufferPool, throttle, new MessageDigest[0]);
+	}
+
+	public StreamCopier(TransferEngine engine, Throttle throttle, MessageDigest... digests) {
+		this(engine, DirectBufferPool.getSharedPool(), throttle, digests);
+	}
+
+	public StreamCopier(TransferEngine engine, DirectBufferPool bufferPool, Throttle throttle, MessageDigest... digests) {
+		this.engine = (engine == null) ? TransferEngine.COMMONS_IO : engine;
+		this.bufferPool = bufferPool;
+		this.throttle = throttle;
+		this.digests = digests;
+	}
+
+	/*
+	 * Returns the number of bytes copied. The input stream is not closed.
+	 */
+	public long copy(InputStream in, FileChannel out, long position, TransferListener listener) throws IOException {
+		if (engine == TransferEngine.NIO) {
+			return copyWithChannel(Channels.newChannel(in), out, position, listener);
+		}
+		if (engine == TransferEngine.WRITE_BEHIND) {
+			return copyWriteBehind(Channels.newChannel(in), out, position, listener);
+		}
+		return copyWithHeapBuffer(in, out, position, listener);
+	}
+
+	private long copyWithChannel(ReadableByteChannel in, FileChannel out, long position, TransferListener listener)
+			throws IOException {
+		ByteBuffer buffer = bufferPool.acquire();
+		long total = 0;
+		try {
+			while (in.read(buffer) != -1) {
+				if (buffer.position() == 0) {
+					continue;
+				}
+				buffer.flip();
+				total += writeChunk(buffer, out, position + total, listener, total);
+				buffer.clear();
+			}
+		} finally {
+			bufferPool.release(buffer);
+		}
+		return total;
+	}
+
+	/*
+	 * Fills each buffer before handing it over, so the writers gather few large
+	 * buffers rather than many small socket reads. The chunk being notified is
+	 * queued after the listener returns, or by flush() if the listener calls it.
+	 */
+	private long copyWriteBehind(ReadableByteChannel in, FileChannel out, long position, TransferListener listener)
+			throws IOException {
+		WriteBehindWriter writer = getWriteBehindWriter();
+		sink = writer.open(out, position);
+		ByteBuffer buffer = null;
+		long total = 0;
+		boolean copied = false;
+		try {
+			boolean endOfStream = false;
+			while (!endOfStream) {
+				buffer = writer.acquireBuffer();
+				while (buffer.hasRemaining()) {
+					if (in.read(buffer) == -1) {
+						endOfStream = true;
+						break;
+					}
+				}
+				if (buffer.position() == 0) {
+					break;
+				}
+				buffer.flip();
+				pendingChunk = buffer;
+				buffer = null;
+				int length = pendingChunk.remaining();
+				afterChunk(pendingChunk, listener, total);
+				queuePendingChunk();
+				total += length;
+			}
+			copied = true;
+		} finally {
+			if (buffer != null) {
+				writer.releaseBuffer(buffer);
+			}
+			if (pendingChunk != null) {
+				writer.releaseBuffer(pendingChunk);
+				pendingChunk = null;
+			}
+			try {
+				// the caller closes the channel next, so everything queued must be written first
+				sink.close();
+			} catch (IOException ex) {
+				if (copied) {
+					throw ex;
+				}
+				logger.debug("Write-behind error after a failed copy: {}", ex.getMessage());
+			} finally {
+				sink = null;
+			}
+		}
+		return total;
+	}
+
+	private void queuePendingChunk() throws IOException {
+		ByteBuffer chunk = pendingChunk;
+		if (chunk != null) {
+			pendingChunk = null;
+			chunk.rewind();
+			sink.write(chunk);
+		}
+	}
+
+	private long copyWithHeapBuffer(InputStream in, FileChannel out, long position, TransferListener listener)
+			throws IOException {
+		byte[] bytes = new byte[HEAP_BUFFER_SIZE];
+		long total = 0;
+		int read;
+		while ((read = in.read(bytes)) != -1) {
+			total += writeChunk(ByteBuffer.wrap(bytes, 0, read), out, position + total, listener, total);
+		}
+		return total;
+	}
+
+	private int writeChunk(ByteBuffer chunk, FileChannel out, long position, TransferListener listener, long totalBefore)
+			throws IOException {
+		int start = chunk.position();
+		int length = chunk.remaining();
+		long writePosition = position;
+		while (chunk.hasRemaining()) {
+			writePosition += out.write(chunk, writePosition);
+		}
+		chunk.position(start);
+		afterChunk(chunk, listener, totalBefore);
+		return length;
+	}
+
+	private void afterChunk(ByteBuffer chunk, TransferListener listener, long totalBefore) throws IOException {
+		int start = chunk.position();
+		int length = chunk.remaining();
+		for (MessageDigest digest : digests) {
+			chunk.position(start);
+			digest.update(chunk);
+		}
+		if (transfer != null) {
+			transfer.add(length);
+		}
+		if (listener != null) {
+			chunk.position(start);
+			listener.chunkWritten(chunk, totalBefore + length);
+		}
+		if (throttle != null) {
+			throttle.acquire(length);
+		}
+	}
+
+	/*
+	 * For listeners of a write-behind copy: waits until every chunk notified so
+	 * far, including the current one, is in the channel, e.g. before forcing it
+	 * to disk. The listener must be done with the current chunk when calling it.
+	 * Returns at once for the other engines, which write before notifying.
+	 */
+	public void flush() throws IOException {
+		if (sink != null) {
+			queuePendingChunk();
+			sink.flush();
+		}
+	}
+
+	public TransferEngine getEngine() {
+		return engine;
+	}
+
+	public MessageDigest[] getDigests() {
+		return digests;
+	}
+
+	public boolean isHashing() {
+		return digests.length > 0;
+	}
+
+	public WriteBehindWriter getWriteBehindWriter() {
+		return (writeBehindWriter != null) ? writeBehindWriter : WriteBehindWriter.getSharedWriter();
+	}
+
+	/*
+	 * Null uses the shared writer.
+	 */
+	public void setWriteBehindWriter(WriteBehindWriter writeBehindWriter) {
+		this.writeBehindWriter = writeBehindWriter;
+	}
+
+	public DownloadMetrics.Transfer getTransfer() {
+		return transfer;
+	}
+
+	/*
+	 * Counts the bytes of every chunk written; null counts nothing.
+	 */
+	public void setTransfer(DownloadMetrics.Transfer transfer) {
+		this.transfer = transfer;
+	}
+}
@@ -0,0 +1,82 @@
+package com.pugkung.filedownload.main;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Lock-free token bucket measured in bytes per second.
+ *
+ * Instead of a token counter refilled by a timer, the bucket keeps the time at
+ * which everything reserved so far has been paid for. A caller reserves its
+ * bytes with a single compare-and-set and then sleeps outside of any lock until
+ * its share of the rate is available. Idle time builds up at most burstNanos
+ * worth of credit.
+ */
+public class TokenBucket {
+
+	public final static long UNLIMITED = 0;
+	public final static long DEFAULT_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+	private final static long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final AtomicLong paidUntilNanos = new AtomicLong(System.nanoTime());
+	private final long burstNanos;
+	private volatile long bytesPerSecond;
+
+	public TokenBucket(long bytesPerSecond) {
+		this(bytesPerSecond, DEFAULT_BURST_NANOS);
+	}
+
+	public TokenBucket(long bytesPerSecond, long burstNanos) {
+		this.bytesPerSecond = Math.max(UNLIMITED, bytesPerSecond);
+		this.burstNanos = Math.max(0, burstNanos);
+	}
+
+	/*
+	 * Blocks until the given number of bytes may be transferred. Returns
+	 * immediately while the bucket is unlimited.
+	 */
+	public void acquire(long bytes) throws InterruptedIOException {
+		long rate = bytesPerSecond;
+		if (rate <= UNLIMITED || bytes <= 0) {
+			return;
+		}
+
+		long cost = bytes * NANOS_PER_SECOND / rate;
+		long now, current, paidUntil;
+		do {
+			now = System.nanoTime();
+			current = paidUntilNanos.get();
+			paidUntil = Math.max(current, now - burstNanos) + cost;
+		} while (!paidUntilNanos.compareAndSet(current, paidUntil));
+
+		long waitNanos = paidUntil - now;
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+			}
+		}
+	}
+
+	/*
+	 * True when nothing reserved is still being paid for and the idle credit
+	 * has reached its cap, so a new bucket would behave the same.
+	 */
+	public boolean isFull() {
+		return paidUntilNanos.get() <= System.nanoTime() - burstNanos;
+	}
+
+	public long getRate() {
+		return bytesPerSecond;
+	}
+
+	/*
+	 * Takes effect for the next acquire(); bytes already reserved keep their wait.
+	 */
+	public void setRate(long bytesPerSecond) {
+		this.bytesPerSecond = Math.max(UNLIMITED, bytesPerSecond);
+	}
+}
@@ -2,16 +2,40 @@ package com.pugkung.filedownload.main;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 
+import com.pugkung.filedownload.main.BandwidthLimiter.Throttle;
+import com.pugkung.filedownload.main.StreamCopier.TransferEngine;
+
 public class URLDownloader extends FileDownloader {
 	
 	private final int CONNECTION_TIMEOUT_LIMIT = 10000;
 	private final int READ_TIMEOUT_LIMIT = 10000;
+	
+	private int segmentCount = 1;
+	private boolean resumeEnabled = true;
+	private TransferEngine transferEngine = TransferEngine.COMMONS_IO;
+	private BandwidthLimiter bandwidthLimiter = BandwidthLimiter.getSharedLimiter();
+	private ConditionalGetCache conditionalGetCache = null;
+	private ContentStore contentStore = null;
+	private ExpectedChecksum expectedChecksum = null;
+	private List<String> mirrors = Collections.emptyList();
+	private long minMirrorThroughput = 0;
+	private boolean notModified = false;
 
 	public URLDownloader(String sourceURI, String outputDirectory) {
 		super(sourceURI, outputDirectory);
@@ -21,32 +45,337 @@ public class URLDownloader extends FileDownloader {
 	
 	@Override
 	public DownloaderStatus downloadFile(String sourceURI, String outputFilePath){
+		// start, finish and failure are reported by the single summary record FileDownloader.run() logs
 		File outputFile = new File(outputFilePath);
+		if (!claimOutput(outputFilePath)) {
+			return DownloaderStatus.IO_ERROR;
+		}
 		try {
-			long startTime, finishTime;
-			startTime = System.currentTimeMillis();
-			logger.info("Start downloading: " + sourceURI);
+			logger.debug("Start downloading: {}", sourceURI);
 			
 			URL url = new URL(sourceURI);
 			downloadFromURL(url, outputFile);
 			
-			finishTime = System.currentTimeMillis();
-			logger.info("Task finished: " + sourceURI + " (" + (finishTime - startTime) +  "ms)");
-			return DownloaderStatus.COMPLETE;
+			return notModified ? DownloaderStatus.NOT_MODIFIED : DownloaderStatus.COMPLETE;
 		} catch (MalformedURLException ex) {
-			logger.error("Invalid URL Provided: " + ex.getMessage());
-			logger.info("Cleaning up: " + outputFilePath);
+			setFailureCause(ex);
 			outputFile.delete();
 			return DownloaderStatus.URL_ERROR;
+		} catch (ChecksumMismatchException ex) {
+			setFailureCause(ex);
+			outputFile.delete();
+			return DownloaderStatus.CHECKSUM_ERROR;
 		} catch (IOException ex) {
-			logger.error("Problem occurred while downloading: " + ex.getMessage());
-			logger.info("Cleaning up: " + outputFilePath);
+			setFailureCause(ex);
 			outputFile.delete();
 			return DownloaderStatus.IO_ERROR;
-        }
+        } finally {
+			releaseOutput(outputFilePath);
+		}
 	}
 	
 	public void downloadFromURL(URL url, File outputFile) throws IOException {
-		FileUtils.copyURLToFile(url, outputFile, CONNECTION_TIMEOUT_LIMIT, READ_TIMEOUT_LIMIT);
+		Throttle throttle = bandwidthLimiter.newThrottle(url.toString());
+		MessageDigest storeDigest = (contentStore != null) ? contentStore.newDigest() : null;
+		MessageDigest checksumDigest = null;
+		if (expectedChecksum != null) {
+			// the store already hashes with SHA-256, so an expected SHA-256 reuses its digest
+			boolean shared = storeDigest != null && expectedChecksum.getAlgorithm() == ExpectedChecksum.Algorithm.SHA256;
+			checksumDigest = shared ? storeDigest : expectedChecksum.newDigest();
+		}
+		StreamCopier copier = new StreamCopier(transferEngine, throttle, distinctDigests(storeDigest, checksumDigest));
+		DownloadMetrics.Transfer transfer = DownloadMetrics.getSharedMetrics().startTransfer(url.toString());
+		copier.setTransfer(transfer);
+		notModified = false;
+		
+		boolean transferred = false;
+		try {
+			transfer(url, outputFile, throttle, copier);
+			transferred = !notModified;
+		} finally {
+			transfer.finish(transferred);
+			setBytesTransferred(transfer.getBytes());
+		}
+		if (notModified) {
+			return;
+		}
+		
+		String storeHash = (storeDigest != null) ? ContentStore.toHex(storeDigest.digest()) : null;
+		if (checksumDigest != null) {
+			String actual = (checksumDigest == storeDigest) ? storeHash : ContentStore.toHex(checksumDigest.digest());
+			if (!expectedChecksum.matches(actual)) {
+				throw new ChecksumMismatchException(expectedChecksum.getHex(), actual, "Checksum mismatch for " + url +
+						": expected " + expectedChecksum + ", got " + actual);
+			}
+			if (expectedChecksum.getAlgorithm() == ExpectedChecksum.Algorithm.SHA256) {
+				setContentDigest(actual);
+			}
+		}
+		
+		if (storeDigest != null) {
+			contentStore.store(url.toString(), outputFile, storeHash);
+			setContentDigest(storeHash);
+		}
+	}
+	
+	private static MessageDigest[] distinctDigests(MessageDigest storeDigest, MessageDigest checksumDigest) {
+		if (storeDigest == null) {
+			return (checksumDigest == null) ? new MessageDigest[0] : new MessageDigest[] { checksumDigest };
+		}
+		if (checksumDigest == null || checksumDigest == storeDigest) {
+			return new MessageDigest[] { storeDigest };
+		}
+		return new MessageDigest[] { storeDigest, checksumDigest };
+	}
+	
+	private void transfer(URL url, File outputFile, Throttle throttle, StreamCopier copier) throws IOException {
+		if (!isHttpURL(url)) {
+			copyURLToFile(url, outputFile, copier);
+			return;
+		}
+		
+		if (!mirrors.isEmpty()) {
+			transferFromMirrors(url, outputFile, copier);
+			return;
+		}
+		
+		// a file kept from an earlier run is usually unchanged, so one conditional GET beats probing for segments;
+		// segments arrive out of order and cannot be hashed inline, so hashed downloads use one stream
+		boolean cached = conditionalGetCache != null && conditionalGetCache.lookup(url.toString(), outputFile) != null;
+		if (segmentCount > 1 && !cached && !copier.isHashing() && downloadSegmented(url, outputFile, throttle, copier)) {
+			return;
+		}
+		
+		if (resumeEnabled) {
+			ResumableDownloader downloader = new ResumableDownloader(CONNECTION_TIMEOUT_LIMIT, READ_TIMEOUT_LIMIT, copier);
+			downloader.setOutputLayout(getOutputLayout());
+			notModified = !downloader.download(url, outputFile, conditionalGetCache);
+		}
+		else {
+			copyURLToFile(url, outputFile, copier);
+		}
+	}
+	
+	/*
+	 * Tries the mirrors fastest first. A failed or collapsing transfer moves on
+	 * to the next mirror, which continues the same partial file when resuming
+	 * is enabled. Mirrors are not split into segments.
+	 */
+	private void transferFromMirrors(URL url, File outputFile, StreamCopier copier) throws IOException {
+		List<URL> sources = new ArrayList<URL>();
+		List<String> sourceNames = new ArrayList<String>();
+		sources.add(url);
+		sourceNames.add(url.toString());
+		for (String mirror : mirrors) {
+			try {
+				sources.add(new URL(mirror));
+				sourceNames.add(mirror);
+			} catch (MalformedURLException ex) {
+				logger.warn("Ignoring invalid mirror of {}: {}", url, mirror);
+			}
+		}
+		sources = new MirrorSelector(CONNECTION_TIMEOUT_LIMIT).rank(sources);
+		
+		IOException lastFailure = null;
+		for (int i = 0; i < sources.size(); i++) {
+			URL source = sources.get(i);
+			boolean lastSource = (i == sources.size() - 1);
+			// a resumed download re-hashes the kept bytes, a restarted one hashes from the start
+			for (MessageDigest digest : copier.getDigests()) {
+				digest.reset();
+			}
+			
+			try {
+				if (resumeEnabled && isHttpURL(source)) {
+					ResumableDownloader downloader = new ResumableDownloader(CONNECTION_TIMEOUT_LIMIT, READ_TIMEOUT_LIMIT, copier);
+					downloader.setMirrors(sourceNames);
+					downloader.setOutputLayout(getOutputLayout());
+					// the last mirror is allowed to be slow; there is nothing faster left to switch to
+					downloader.setMinThroughput(lastSource ? 0 : minMirrorThroughput);
+					notModified = !downloader.download(source, outputFile, conditionalGetCache);
+				}
+				else {
+					copyURLToFile(source, outputFile, copier);
+				}
+				return;
+			} catch (IOException ex) {
+				lastFailure = ex;
+				if (!lastSource) {
+					logger.warn("Download from {} failed ({}), switching to {}", source, ex.getMessage(), sources.get(i + 1));
+				}
+			}
+		}
+		throw lastFailure;
+	}
+	
+	private void copyURLToFile(URL url, File outputFile, StreamCopier copier) throws IOException {
+		boolean conditional = conditionalGetCache != null && isHttpURL(url);
+		
+		// commons-io has no hook in its copy loop and sends no extra headers, so shaped,
+		// conditional and hashed downloads always go through StreamCopier
+		if (transferEngine == TransferEngine.COMMONS_IO && !bandwidthLimiter.isLimited() && !conditional &&
+				!copier.isHashing()) {
+			FileUtils.copyURLToFile(url, outputFile, CONNECTION_TIMEOUT_LIMIT, READ_TIMEOUT_LIMIT);
+			if (copier.getTransfer() != null) {
+				copier.getTransfer().add(outputFile.length());
+			}
+			return;
+		}
+		
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(CONNECTION_TIMEOUT_LIMIT);
+		connection.setReadTimeout(READ_TIMEOUT_LIMIT);
+		ConditionalGetCache.Entry cached = conditional ? conditionalGetCache.lookup(url.toString(), outputFile) : null;
+		if (cached != null) {
+			ConditionalGetCache.addConditionalHeaders((HttpURLConnection) connection, cached);
+		}
+		if (connection instanceof HttpURLConnection) {
+			int responseCode = DownloadMetrics.getSharedMetrics().awaitResponse((HttpURLConnection) connection);
+			if (cached != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				HttpConnectionPool.release((HttpURLConnection) connection);
+				logger.debug("Not modified since the last download, keeping {}", outputFile);
+				notModified = true;
+				return;
+			}
+		}
+		
+		if (contentStore != null) {
+			// the old output is a hard link into the store; writing through it would change the stored object
+			Files.deleteIfExists(outputFile.toPath());
+		}
+		
+		File parent = outputFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Unable to create output directory: " + parent);
+		}
+		
+		try (InputStream in = connection.getInputStream();
+				FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			getOutputLayout().preallocate(out, connection.getContentLengthLong());
+			long copied = copier.copy(in, out, 0, null);
+			// a body shorter than its Content-Length must not keep the preallocated tail
+			out.truncate(copied);
+		}
+		
+		if (conditional) {
+			conditionalGetCache.update(url.toString(), (HttpURLConnection) connection, outputFile.length());
+		}
+	}
+	
+	private boolean downloadSegmented(URL url, File outputFile, Throttle throttle, StreamCopier copier) throws IOException {
+		SegmentedDownloader segmented = new SegmentedDownloader(segmentCount,
+				SegmentedDownloader.DEFAULT_MIN_SEGMENT_SIZE, CONNECTION_TIMEOUT_LIMIT, READ_TIMEOUT_LIMIT);
+		segmented.setThrottle(throttle);
+		segmented.setTransfer(copier.getTransfer());
+		File partFile = ResumableDownloader.getPartFile(outputFile);
+		
+		try {
+			if (!segmented.download(url, partFile)) {
+				logger.debug("Range requests not available, using single stream: {}", url);
+				return false;
+			}
+		} catch (IOException ex) {
+			partFile.delete();
+			throw ex;
+		}
+		
+		OutputLayout.moveIntoPlace(partFile.toPath(), outputFile.toPath());
+		if (conditionalGetCache != null) {
+			conditionalGetCache.update(url.toString(), segmented.getETag(), segmented.getLastModified(), outputFile.length());
+		}
+		return true;
+	}
+	
+	private boolean isHttpURL(URL url) {
+		String protocol = url.getProtocol();
+		return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol);
+	}
+	
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+	
+	public void setSegmentCount(int segmentCount) {
+		this.segmentCount = Math.max(1, segmentCount);
+	}
+	
+	public boolean isResumeEnabled() {
+		return resumeEnabled;
+	}
+	
+	public void setResumeEnabled(boolean resumeEnabled) {
+		this.resumeEnabled = resumeEnabled;
+	}
+	
+	public TransferEngine getTransferEngine() {
+		return transferEngine;
+	}
+	
+	public void setTransferEngine(TransferEngine transferEngine) {
+		this.transferEngine = (transferEngine == null) ? TransferEngine.COMMONS_IO : transferEngine;
+	}
+	
+	public BandwidthLimiter getBandwidthLimiter() {
+		return bandwidthLimiter;
+	}
+	
+	public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+		this.bandwidthLimiter = (bandwidthLimiter == null) ? BandwidthLimiter.getSharedLimiter() : bandwidthLimiter;
+	}
+	
+	public ConditionalGetCache getConditionalGetCache() {
+		return conditionalGetCache;
+	}
+	
+	/*
+	 * null turns conditional requests off.
+	 */
+	public void setConditionalGetCache(ConditionalGetCache conditionalGetCache) {
+		this.conditionalGetCache = conditionalGetCache;
+	}
+	
+	public ContentStore getContentStore() {
+		return contentStore;
+	}
+	
+	/*
+	 * null writes every download to its own output file.
+	 */
+	public void setContentStore(ContentStore contentStore) {
+		this.contentStore = contentStore;
+	}
+	
+	public ExpectedChecksum getExpectedChecksum() {
+		return expectedChecksum;
+	}
+	
+	/*
+	 * null skips verification.
+	 */
+	public void setExpectedChecksum(ExpectedChecksum expectedChecksum) {
+		this.expectedChecksum = expectedChecksum;
+	}
+	
+	public List<String> getMirrors() {
+		return mirrors;
+	}
+	
+	/*
+	 * Other URLs serving the same file as the source URI. null or an empty list downloads from the source only.
+	 */
+	public void setMirrors(List<String> mirrors) {
+		this.mirrors = (mirrors == null) ? Collections.<String>emptyList() : mirrors;
+	}
+	
+	public long getMinMirrorThroughput() {
+		return minMirrorThroughput;
+	}
+	
+	/*
+	 * Bytes per second below which a download switches to the next mirror. 0 switches only on errors.
+	 */
+	public void setMinMirrorThroughput(long bytesPerSecond) {
+		this.minMirrorThroughput = Math.max(0, bytesPerSecond);
 	}
 }
@@ -0,0 +1,232 @@
+package com.pugkung.filedownload.main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Moves file writes off the network threads. A download fills pooled buffers
+ * and hands each full one to the Sink of its file; a few disk writer threads
+ * drain the sinks with gathering writes, so a slow disk or fsync no longer
+ * stops the socket from being read.
+ *
+ * All downloads share one memory budget. When every buffer of it is waiting for
+ * the disk, acquireBuffer() blocks the network thread until a writer frees one.
+ */
+public class WriteBehindWriter {
+
+	public final static long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+	public final static int DEFAULT_WRITER_THREADS = 2;
+	private final static int MAX_GATHERED_BUFFERS = 16;
+
+	private static Logger logger = LogManager.getLogger(WriteBehindWriter.class);
+	private static WriteBehindWriter sharedWriter;
+
+	private final DirectBufferPool bufferPool;
+	private final Semaphore bufferBudget;
+	private final int budgetBuffers;
+	private final ExecutorService diskWriters;
+
+	public WriteBehindWriter(DirectBufferPool bufferPool, long memoryBudget, int writerThreads) {
+		this.bufferPool = bufferPool;
+		this.budgetBuffers = (int) Math.max(2, Math.min(Integer.MAX_VALUE, memoryBudget / bufferPool.getBufferSize()));
+		this.bufferBudget = new Semaphore(budgetBuffers);
+		this.diskWriters = Executors.newFixedThreadPool(Math.max(1, writerThreads), new DiskWriterThreadFactory());
+	}
+
+	public static synchronized WriteBehindWriter getSharedWriter() {
+		if (sharedWriter == null) {
+			sharedWriter = new WriteBehindWriter(DirectBufferPool.getSharedPool(), DEFAULT_MEMORY_BUDGET,
+					DEFAULT_WRITER_THREADS);
+		}
+		return sharedWriter;
+	}
+
+	/*
+	 * Must run before the first download uses the shared writer; 0 keeps a default.
+	 */
+	public static synchronized void configureSharedWriter(long memoryBudget, int writerThreads) {
+		if (sharedWriter != null) {
+			logger.debug("Write-behind writer is already configured");
+			return;
+		}
+		if (memoryBudget <= 0) {
+			memoryBudget = DEFAULT_MEMORY_BUDGET;
+		}
+		if (writerThreads <= 0) {
+			writerThreads = DEFAULT_WRITER_THREADS;
+		}
+		sharedWriter = new WriteBehindWriter(DirectBufferPool.getSharedPool(), memoryBudget, writerThreads);
+		logger.info("Write-behind: {} KB buffer budget, {} disk writer thread(s)", memoryBudget / 1024, writerThreads);
+	}
+
+	/*
+	 * Blocks while the whole budget is queued for the disk. The buffer comes
+	 * back through Sink.write() or releaseBuffer().
+	 */
+	public ByteBuffer acquireBuffer() throws InterruptedIOException {
+		try {
+			bufferBudget.acquire();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a write-behind buffer");
+		}
+		return bufferPool.acquire();
+	}
+
+	public void releaseBuffer(ByteBuffer buffer) {
+		bufferPool.release(buffer);
+		bufferBudget.release();
+	}
+
+	public int getAvailableBuffers() {
+		return bufferBudget.availablePermits();
+	}
+
+	public int getBudgetBuffers() {
+		return budgetBuffers;
+	}
+
+	/*
+	 * Sequential writes into the channel starting at the given position.
+	 */
+	public Sink open(FileChannel channel, long position) {
+		return new Sink(channel, position);
+	}
+
+	public class Sink implements Closeable {
+		private final FileChannel channel;
+		private final ConcurrentLinkedQueue<ByteBuffer> pending = new ConcurrentLinkedQueue<ByteBuffer>();
+		private final AtomicBoolean draining = new AtomicBoolean();
+		private final Object drainedLock = new Object();
+		private long nextPosition;
+		private int queuedBuffers = 0;
+		private volatile IOException failure;
+
+		private Sink(FileChannel channel, long position) {
+			this.channel = channel;
+			this.nextPosition = position;
+		}
+
+		/*
+		 * Queues the flipped buffer, which now belongs to the sink. Throws the
+		 * error of an earlier write, if any.
+		 */
+		public void write(ByteBuffer buffer) throws IOException {
+			if (failure != null) {
+				releaseBuffer(buffer);
+				throw failure;
+			}
+			synchronized (drainedLock) {
+				queuedBuffers++;
+			}
+			pending.offer(buffer);
+			if (draining.compareAndSet(false, true)) {
+				diskWriters.execute(this::drain);
+			}
+		}
+
+		/*
+		 * Blocks until every queued buffer reached the channel.
+		 */
+		public void flush() throws IOException {
+			synchronized (drainedLock) {
+				while (queuedBuffers > 0) {
+					try {
+						drainedLock.wait();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting for the disk writer");
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+		/*
+		 * Writes one batch, then goes to the back of the writer queue if more is
+		 * pending, so one fast download cannot hold a writer thread.
+		 */
+		private void drain() {
+			ByteBuffer[] batch = new ByteBuffer[MAX_GATHERED_BUFFERS];
+			int count = 0;
+			ByteBuffer buffer;
+			while (count < batch.length && (buffer = pending.poll()) != null) {
+				batch[count++] = buffer;
+			}
+
+			if (count > 0) {
+				writeBatch(batch, count);
+			}
+			if (!pending.isEmpty()) {
+				diskWriters.execute(this::drain);
+				return;
+			}
+			draining.set(false);
+			// a buffer queued after the last poll found draining still set
+			if (!pending.isEmpty() && draining.compareAndSet(false, true)) {
+				diskWriters.execute(this::drain);
+			}
+		}
+
+		private void writeBatch(ByteBuffer[] batch, int count) {
+			try {
+				if (failure == null) {
+					long length = 0;
+					for (int i = 0; i < count; i++) {
+						length += batch[i].remaining();
+					}
+					channel.position(nextPosition);
+					long written = 0;
+					while (written < length) {
+						written += channel.write(batch, 0, count);
+					}
+					nextPosition += length;
+				}
+			} catch (IOException ex) {
+				failure = ex;
+			} catch (RuntimeException ex) {
+				// e.g. NonWritableChannelException
+				failure = new IOException("Write-behind failed: " + ex, ex);
+			} finally {
+				for (int i = 0; i < count; i++) {
+					releaseBuffer(batch[i]);
+				}
+				synchronized (drainedLock) {
+					queuedBuffers -= count;
+					drainedLock.notifyAll();
+				}
+			}
+		}
+	}
+
+	private static class DiskWriterThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "disk-writer-" + threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.AdaptiveConcurrencyController;
+import com.pugkung.filedownload.main.DownloadMetrics;
+import com.pugkung.filedownload.main.DownloadScheduler;
+import com.pugkung.filedownload.main.DownloadScheduler.ExecutionMode;
+import com.pugkung.filedownload.main.FileDownloader;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.HttpStatusException;
+
+public class AdaptiveConcurrencyControllerTester {
+
+	private final static long LONG_WINDOW_MILLIS = 60000;
+
+	private final static long SHORT_WINDOW_MILLIS = 100;
+
+	private DownloadScheduler scheduler;
+	private AdaptiveConcurrencyController controller;
+	private DownloadMetrics metrics = new DownloadMetrics();
+	private CountDownLatch release = new CountDownLatch(1);
+
+	private static class FinishedDownloader extends FileDownloader {
+		public FinishedDownloader(Exception failureCause) {
+			super("http://example.com/file", "");
+			setFailureCause(failureCause);
+		}
+	}
+
+	private static class BlockedDownloader extends FileDownloader {
+		private final CountDownLatch release;
+
+		public BlockedDownloader(CountDownLatch release) {
+			super("http://example.com/blocked", "");
+			this.release = release;
+		}
+
+		@Override
+		public DownloaderStatus downloadFile(String sourceURI, String outputFilePath) {
+			try {
+				release.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			return DownloaderStatus.COMPLETE;
+		}
+	}
+
+	private void fillQueue(int count) {
+		for (int i = 0; i < count; i++) {
+			scheduler.submit(new BlockedDownloader(release));
+		}
+	}
+
+	@After
+	public void stopScheduler() throws Exception {
+		if (controller != null) {
+			controller.close();
+		}
+		release.countDown();
+		if (scheduler != null) {
+			scheduler.awaitCompletion();
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void TestAdaptiveConcurrencyController_startAtInitialLimit() {
+		scheduler = new DownloadScheduler(8, 100, 0, ExecutionMode.PLATFORM);
+		controller = AdaptiveConcurrencyController.attach(scheduler);
+
+		assertEquals(AdaptiveConcurrencyController.DEFAULT_INITIAL_LIMIT, controller.getConcurrencyLimit());
+		assertEquals(8, scheduler.getMaxConcurrentDownloads());
+	}
+
+	@Test
+	public void TestAdaptiveConcurrencyController_growWhileThroughputImproves() throws Exception {
+		scheduler = new DownloadScheduler(8, 100, 0, ExecutionMode.PLATFORM);
+		controller = AdaptiveConcurrencyController.attach(scheduler, metrics, 1, 8, 2, LONG_WINDOW_MILLIS);
+		fillQueue(20);
+
+		// bytes of running downloads count, long before any of them completes
+		DownloadMetrics.Transfer transfer = metrics.startTransfer("http://example.com/large");
+		long size = 64 * 1024;
+		for (int i = 0; i < 4; i++) {
+			Thread.sleep(20);
+			transfer.add(size);
+			controller.sample();
+			size *= 4;
+		}
+
+		assertEquals(6, controller.getConcurrencyLimit());
+		assertEquals(6, scheduler.getConcurrencyLimit());
+	}
+
+	@Test
+	public void TestAdaptiveConcurrencyController_noGrowthWithoutQueuedWork() throws Exception {
+		scheduler = new DownloadScheduler(8, 100, 0, ExecutionMode.PLATFORM);
+		controller = AdaptiveConcurrencyController.attach(scheduler, metrics, 1, 8, 2, LONG_WINDOW_MILLIS);
+
+		DownloadMetrics.Transfer transfer = metrics.startTransfer("http://example.com/large");
+		long size = 64 * 1024;
+		for (int i = 0; i < 4; i++) {
+			Thread.sleep(20);
+			transfer.add(size);
+			controller.sample();
+			size *= 4;
+		}
+
+		assertEquals(2, controller.getConcurrencyLimit());
+	}
+
+	@Test
+	public void TestAdaptiveConcurrencyController_shrinkWhenThroughputFalls() throws Exception {
+		scheduler = new DownloadScheduler(8, 100, 0, ExecutionMode.PLATFORM);
+		controller = AdaptiveConcurrencyController.attach(scheduler, metrics, 1, 8, 2, LONG_WINDOW_MILLIS);
+		fillQueue(20);
+		DownloadMetrics.Transfer transfer = metrics.startTransfer("http://example.com/large");
+
+		Thread.sleep(20);
+		transfer.add(16 * 1024 * 1024);
+		metrics.recordTimeToFirstByte(TimeUnit.MILLISECONDS.toNanos(10));
+		controller.sample();
+		assertEquals(3, controller.getConcurrencyLimit());
+
+		// slower, and the server takes longer to answer
+		Thread.sleep(20);
+		transfer.add(64 * 1024);
+		metrics.recordTimeToFirstByte(TimeUnit.MILLISECONDS.toNanos(200));
+		controller.sample();
+		assertEquals(2, controller.getConcurrencyLimit());
+
+		// a stall: no bytes, no responses and no download finishing
+		Thread.sleep(20);
+		controller.sample();
+		assertEquals(1, controller.getConcurrencyLimit());
+	}
+
+	@Test
+	public void TestAdaptiveConcurrencyController_backOffOnOverload() throws Exception {
+		scheduler = new DownloadScheduler(8, 100, 0, ExecutionMode.PLATFORM);
+		controller = AdaptiveConcurrencyController.attach(scheduler, metrics, 1, 8, 8, LONG_WINDOW_MILLIS);
+
+		controller.downloadFinished(new FinishedDownloader(new HttpStatusException(503, "Server returned HTTP 503")),
+				DownloaderStatus.IO_ERROR, 1000000L);
+		assertEquals(4, controller.getConcurrencyLimit());
+
+		// further 503s from the same overload do not keep halving within the window
+		controller.downloadFinished(new FinishedDownloader(new HttpStatusException(503, "Server returned HTTP 503")),
+				DownloaderStatus.IO_ERROR, 1000000L);
+		assertEquals(4, controller.getConcurrencyLimit());
+	}
+
+	@Test
+	public void TestAdaptiveConcurrencyController_overloadSignals() throws Exception {
+		scheduler = new DownloadScheduler(8, 100, 0, ExecutionMode.PLATFORM);
+		controller = AdaptiveConcurrencyController.attach(scheduler, metrics, 1, 8, 8, SHORT_WINDOW_MILLIS);
+		fillQueue(20);
+
+		controller.downloadFinished(new FinishedDownloader(new SocketTimeoutException("Read timed out")),
+				DownloaderStatus.IO_ERROR, 1000000L);
+		assertEquals(4, controller.getConcurrencyLimit());
+
+		Thread.sleep(2 * SHORT_WINDOW_MILLIS);
+		controller.downloadFinished(new FinishedDownloader(
+				new IOException("Server returned HTTP response code: 429 for URL: http://example.com/file")),
+				DownloaderStatus.IO_ERROR, 1000000L);
+		assertEquals(2, controller.getConcurrencyLimit());
+
+		controller.downloadFinished(new FinishedDownloader(new HttpStatusException(404, "Server returned HTTP 404")),
+				DownloaderStatus.IO_ERROR, 1000000L);
+		// not an overload, but a window with only errors still steps down by one
+		controller.sample();
+		assertEquals(1, controller.getConcurrencyLimit());
+	}
+}
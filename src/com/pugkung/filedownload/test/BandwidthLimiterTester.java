@@ -0,0 +1,151 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.BandwidthLimiter;
+import com.pugkung.filedownload.main.BandwidthLimiter.Throttle;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.TokenBucket;
+import com.pugkung.filedownload.main.URLDownloader;
+
+public class BandwidthLimiterTester {
+
+	private final static int CHUNK_SIZE = 64 * 1024;
+	private final static long ONE_MB = 1024 * 1024;
+
+	private static long timeAcquire(Throttle throttle, int chunks) throws Exception {
+		long startTime = System.currentTimeMillis();
+		for (int i = 0; i < chunks; i++) {
+			throttle.acquire(CHUNK_SIZE);
+		}
+		return System.currentTimeMillis() - startTime;
+	}
+
+	@Test
+	public void TestBandwidthLimiter_tokenBucketRate() throws Exception {
+		TokenBucket bucket = new TokenBucket(ONE_MB);
+
+		long startTime = System.currentTimeMillis();
+		for (int i = 0; i < 20; i++) {
+			bucket.acquire(CHUNK_SIZE);
+		}
+		long elapsed = System.currentTimeMillis() - startTime;
+
+		// 1.25MB at 1MB/s minus the 200ms burst allowance
+		assertTrue("elapsed " + elapsed + "ms", elapsed >= 950);
+		assertTrue("elapsed " + elapsed + "ms", elapsed < 2000);
+	}
+
+	@Test
+	public void TestBandwidthLimiter_adjustRateAtRuntime() throws Exception {
+		BandwidthLimiter limiter = new BandwidthLimiter();
+		Throttle throttle = limiter.newThrottle("http://example.com/file");
+
+		assertFalse(limiter.isLimited());
+		assertTrue(timeAcquire(throttle, 160) < 200);
+
+		limiter.setPerDownloadRate(ONE_MB);
+		assertTrue(limiter.isLimited());
+		long elapsed = timeAcquire(throttle, 16);
+		assertTrue("elapsed " + elapsed + "ms", elapsed >= 700);
+
+		limiter.setPerDownloadRate(BandwidthLimiter.UNLIMITED);
+		assertTrue(timeAcquire(throttle, 160) < 200);
+	}
+
+	@Test
+	public void TestBandwidthLimiter_perHostCapIsShared() throws Exception {
+		final BandwidthLimiter limiter = new BandwidthLimiter();
+		limiter.setPerHostRate(ONE_MB);
+		final Throttle first = limiter.newThrottle("http://example.com/a");
+		Throttle second = limiter.newThrottle("http://EXAMPLE.com/b");
+		Throttle otherHost = limiter.newThrottle("http://example.org/c");
+
+		long startTime = System.currentTimeMillis();
+		Thread worker = new Thread(new Runnable() {
+			public void run() {
+				try {
+					timeAcquire(first, 10);
+				} catch (Exception ex) {
+					fail(ex.getMessage());
+				}
+			}
+		});
+		worker.start();
+		timeAcquire(second, 10);
+		worker.join();
+		long elapsed = System.currentTimeMillis() - startTime;
+
+		// 1.25MB for the host at 1MB/s; another host has its own bucket
+		assertTrue("elapsed " + elapsed + "ms", elapsed >= 950);
+		assertTrue(timeAcquire(otherHost, 3) < 200);
+	}
+
+	@Test
+	public void TestBandwidthLimiter_dropIdleHostBuckets() throws Exception {
+		BandwidthLimiter limiter = new BandwidthLimiter();
+		limiter.setPerHostRate(ONE_MB);
+		for (int i = 0; i < 1000; i++) {
+			limiter.newThrottle("http://host" + i + ".example.com/file").acquire(1);
+		}
+		// every bucket is full again once the burst window has passed
+		Thread.sleep(300);
+		limiter.newThrottle("http://last.example.com/file").acquire(1);
+
+		assertTrue("host buckets: " + limiter.getHostCount(), limiter.getHostCount() <= 100);
+	}
+
+	@Test
+	public void TestBandwidthLimiter_adjustRateThroughJmx() throws Exception {
+		BandwidthLimiter limiter = new BandwidthLimiter();
+		Throttle throttle = limiter.newThrottle("http://example.com/file");
+		ObjectName name = new ObjectName(BandwidthLimiter.OBJECT_NAME);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		limiter.registerMBean();
+		try {
+			server.setAttribute(name, new Attribute("PerDownloadRate", ONE_MB));
+			assertEquals(ONE_MB, limiter.getPerDownloadRate());
+			assertEquals(true, server.getAttribute(name, "Limited"));
+			// 1MB at 1MB/s for a download that was already running
+			long elapsed = timeAcquire(throttle, 16);
+			assertTrue("elapsed " + elapsed + "ms", elapsed >= 700);
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+	@Test
+	public void TestBandwidthLimiter_urlDownloaderIsThrottled() throws Exception {
+		LocalHttpServer server = new LocalHttpServer(640 * 1024, false);
+		try {
+			String testURL = server.getURL("/file.bin");
+			File outputFile = File.createTempFile("throttled", ".out");
+			outputFile.deleteOnExit();
+			BandwidthLimiter limiter = new BandwidthLimiter();
+			limiter.setGlobalRate(ONE_MB);
+
+			URLDownloader fd = new URLDownloader(testURL, "");
+			fd.setResumeEnabled(false);
+			fd.setBandwidthLimiter(limiter);
+			long startTime = System.currentTimeMillis();
+			DownloaderStatus status = fd.downloadFile(testURL, outputFile.getPath());
+			long elapsed = System.currentTimeMillis() - startTime;
+
+			assertEquals(DownloaderStatus.COMPLETE, status);
+			assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+			assertTrue("elapsed " + elapsed + "ms", elapsed >= 300);
+		} finally {
+			server.stop();
+		}
+	}
+}
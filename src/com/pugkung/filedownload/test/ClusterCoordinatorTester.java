@@ -0,0 +1,176 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.ClusterCoordinator;
+import com.pugkung.filedownload.main.FileDownloadClient;
+
+public class ClusterCoordinatorTester {
+
+	private File workDir;
+
+	@Before
+	public void createWorkDir() throws Exception {
+		workDir = Files.createTempDirectory("cluster").toFile();
+	}
+
+	@After
+	public void deleteWorkDir() {
+		delete(workDir);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void TestClusterCoordinator_oneLeasePerShard() throws Exception {
+		try (ClusterCoordinator nodeA = new ClusterCoordinator(workDir.getPath(), "a", 60000);
+				ClusterCoordinator nodeB = new ClusterCoordinator(workDir.getPath(), "b", 60000)) {
+			ClusterCoordinator.Lease lease = nodeA.tryAcquire("manifest-0");
+			assertNotNull(lease);
+			assertNull(nodeB.tryAcquire("manifest-0"));
+			assertNotNull(nodeB.tryAcquire("manifest-1"));
+
+			assertTrue(lease.complete());
+			assertTrue(nodeB.isDone("manifest-0"));
+			assertNull(nodeB.tryAcquire("manifest-0"));
+			assertFalse(new File(workDir, "manifest-0.lease").exists());
+		}
+	}
+
+	@Test
+	public void TestClusterCoordinator_takeOverExpiredLease() throws Exception {
+		try (ClusterCoordinator nodeA = new ClusterCoordinator(workDir.getPath(), "a", 60000);
+				ClusterCoordinator nodeB = new ClusterCoordinator(workDir.getPath(), "b", 60000)) {
+			ClusterCoordinator.Lease stale = nodeA.tryAcquire("config");
+			// as if node a had stopped renewing two minutes ago
+			Files.setLastModifiedTime(new File(workDir, "config.lease").toPath(),
+					FileTime.fromMillis(System.currentTimeMillis() - 120000));
+
+			ClusterCoordinator.Lease lease = nodeB.tryAcquire("config");
+			assertNotNull(lease);
+			assertTrue(new String(Files.readAllBytes(new File(workDir, "config.lease").toPath()),
+					StandardCharsets.UTF_8).startsWith("b "));
+
+			// node a finds out it lost the shard and leaves it to b
+			assertFalse(stale.complete());
+			assertFalse(stale.isValid());
+			assertFalse(nodeA.isDone("config"));
+			assertTrue(lease.complete());
+		}
+	}
+
+	@Test
+	public void TestClusterCoordinator_keepLeaseWhileTakeOverChecksIt() throws Exception {
+		try (ClusterCoordinator nodeA = new ClusterCoordinator(workDir.getPath(), "a", 60000)) {
+			ClusterCoordinator.Lease lease = nodeA.tryAcquire("manifest-0");
+			Path leaseFile = new File(workDir, "manifest-0.lease").toPath();
+			Path checkedFile = new File(workDir, "manifest-0.lease.check.expired").toPath();
+
+			// what another node's takeOver() does with a lease that is still live
+			Files.move(leaseFile, checkedFile, StandardCopyOption.ATOMIC_MOVE);
+			Thread restore = new Thread(() -> {
+				try {
+					Thread.sleep(50);
+					Files.createLink(leaseFile, checkedFile);
+					Files.delete(checkedFile);
+				} catch (Exception ex) {
+					throw new RuntimeException(ex);
+				}
+			});
+			restore.start();
+
+			assertTrue(lease.complete());
+			restore.join();
+			assertTrue(nodeA.isDone("manifest-0"));
+			assertFalse(Files.exists(leaseFile));
+		}
+	}
+
+	@Test
+	public void TestClusterCoordinator_renewedLeaseDoesNotExpire() throws Exception {
+		ClusterCoordinator nodeA = new ClusterCoordinator(workDir.getPath(), "a", 600);
+		try (ClusterCoordinator nodeB = new ClusterCoordinator(workDir.getPath(), "b", 600)) {
+			ClusterCoordinator.Lease lease = nodeA.tryAcquire("manifest-0");
+			Thread.sleep(1500);
+
+			assertNull(nodeB.tryAcquire("manifest-0"));
+			assertTrue(lease.isValid());
+
+			nodeA.close();
+			// released leases are free at once
+			assertNotNull(nodeB.tryAcquire("manifest-0"));
+		} finally {
+			nodeA.close();
+		}
+	}
+
+	@Test
+	public void TestClusterCoordinator_downloadEachURLOnceAcrossProcesses() throws Exception {
+		int urlCount = 30;
+		int nodes = 3;
+		LocalHttpServer server = new LocalHttpServer(64 * 1024, true);
+		try {
+			File outputDir = new File(workDir, "out");
+			outputDir.mkdirs();
+			StringBuilder manifest = new StringBuilder();
+			for (int i = 0; i < urlCount; i++) {
+				manifest.append(server.getURL("/file" + i + ".bin")).append('\n');
+			}
+			Files.write(new File(workDir, "urls.txt").toPath(), manifest.toString().getBytes(StandardCharsets.UTF_8));
+
+			String config = "outputPath=" + outputDir.getPath() + "/\n" +
+					"urlManifest=" + new File(workDir, "urls.txt").getPath() + "\n" +
+					"clusterDirectory=" + new File(workDir, "cluster").getPath() + "\n" +
+					"clusterShardSize=4\n" +
+					"clusterLeaseTimeout=10\n" +
+					"maxConcurrentDownloads=2\n";
+			File configFile = new File(workDir, "cluster.properties");
+			Files.write(configFile.toPath(), config.getBytes(StandardCharsets.UTF_8));
+
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			List<Process> processes = new ArrayList<Process>();
+			for (int i = 0; i < nodes; i++) {
+				processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+						FileDownloadClient.class.getName(), configFile.getPath())
+						.directory(workDir)
+						.redirectErrorStream(true)
+						.redirectOutput(new File(workDir, "node" + i + ".out"))
+						.start());
+			}
+			for (Process process : processes) {
+				assertTrue(process.waitFor(120, TimeUnit.SECONDS));
+			}
+
+			assertEquals(urlCount, server.getRequestCount());
+			assertEquals(urlCount, outputDir.list().length);
+			for (int shard = 0; shard < (urlCount + 3) / 4; shard++) {
+				assertTrue(new File(workDir, "cluster/manifest-" + shard + ".done").exists());
+				assertFalse(new File(workDir, "cluster/manifest-" + shard + ".lease").exists());
+			}
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.ConditionalGetCache;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.URLDownloader;
+
+public class ConditionalGetCacheTester {
+
+	private LocalHttpServer server;
+	private File outputFile;
+	private File cacheFile;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new LocalHttpServer(64 * 1024, false);
+		server.setETag("\"v1\"");
+		outputFile = File.createTempFile("conditional", ".out");
+		outputFile.delete();
+		outputFile.deleteOnExit();
+		cacheFile = File.createTempFile("conditional", ".validators");
+		cacheFile.delete();
+		cacheFile.deleteOnExit();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop();
+	}
+
+	private DownloaderStatus download(ConditionalGetCache cache, boolean resumeEnabled) {
+		String testURL = server.getURL("/file.bin");
+		URLDownloader fd = new URLDownloader(testURL, "");
+		fd.setResumeEnabled(resumeEnabled);
+		fd.setConditionalGetCache(cache);
+		return fd.downloadFile(testURL, outputFile.getPath());
+	}
+
+	@Test
+	public void TestConditionalGetCache_keepUnchangedFileAcrossRuns() throws Exception {
+		ConditionalGetCache cache = ConditionalGetCache.open(cacheFile.getPath());
+		assertEquals(DownloaderStatus.COMPLETE, download(cache, true));
+		cache.save();
+
+		long lastModified = outputFile.lastModified();
+		ConditionalGetCache reloaded = ConditionalGetCache.open(cacheFile.getPath());
+		assertEquals(1, reloaded.size());
+		assertEquals(DownloaderStatus.NOT_MODIFIED, download(reloaded, true));
+
+		assertEquals(1, server.getNotModifiedCount());
+		assertEquals(lastModified, outputFile.lastModified());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+	}
+
+	@Test
+	public void TestConditionalGetCache_refetchChangedFile() throws Exception {
+		ConditionalGetCache cache = new ConditionalGetCache(cacheFile.getPath());
+		assertEquals(DownloaderStatus.COMPLETE, download(cache, true));
+
+		server.setETag("\"v2\"");
+		assertEquals(DownloaderStatus.COMPLETE, download(cache, true));
+		assertEquals(0, server.getNotModifiedCount());
+		assertEquals("\"v2\"", cache.lookup(server.getURL("/file.bin"), outputFile).getETag());
+
+		assertEquals(DownloaderStatus.NOT_MODIFIED, download(cache, true));
+	}
+
+	@Test
+	public void TestConditionalGetCache_notModifiedWithoutResume() throws Exception {
+		ConditionalGetCache cache = new ConditionalGetCache(cacheFile.getPath());
+		assertEquals(DownloaderStatus.COMPLETE, download(cache, false));
+		assertEquals(DownloaderStatus.NOT_MODIFIED, download(cache, false));
+		assertEquals(1, server.getNotModifiedCount());
+	}
+
+	@Test
+	public void TestConditionalGetCache_fullRequestWhenOutputMissing() throws Exception {
+		ConditionalGetCache cache = new ConditionalGetCache(cacheFile.getPath());
+		assertEquals(DownloaderStatus.COMPLETE, download(cache, true));
+
+		outputFile.delete();
+		assertNull(cache.lookup(server.getURL("/file.bin"), outputFile));
+		assertEquals(DownloaderStatus.COMPLETE, download(cache, true));
+		assertEquals(0, server.getNotModifiedCount());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+	}
+}
@@ -1,7 +1,11 @@
 package com.pugkung.filedownload.test;
 
 import com.pugkung.filedownload.main.ConfigReader;
+import com.pugkung.filedownload.main.DownloadPriority;
+import com.pugkung.filedownload.main.DownloadScheduler;
+import com.pugkung.filedownload.main.DownloadScheduler.ExecutionMode;
 import java.io.File;
+import java.util.Arrays;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -27,6 +31,99 @@ public class ConfigReaderTester {
 		assertNotEquals(0, cr.getURLs().size());
 	}
 	
+	@Test
+	public void TestConfigReader_readMaxConcurrentDownloadsFromConfig() {
+		String configFile = "src/test/resources/concurrencyLimit.properties";
+		ConfigReader cr  = new ConfigReader(configFile);
+		boolean success = cr.loadConfigData();
+		
+		assertTrue(success);
+		assertEquals(2, cr.getMaxConcurrentDownloads());
+		assertEquals(2, cr.getURLs().size());
+	}
+	
+	@Test
+	public void TestConfigReader_maxConcurrentDownloadsIsNotProvided() {
+		String configFile = "src/test/resources/downloadSingleFile.properties";
+		ConfigReader cr  = new ConfigReader(configFile);
+		boolean success = cr.loadConfigData();
+		
+		assertTrue(success);
+		assertEquals(DownloadScheduler.DEFAULT_MAX_CONCURRENT_DOWNLOADS, cr.getMaxConcurrentDownloads());
+	}
+	
+	@Test
+	public void TestConfigReader_readExecutionModeFromConfig() {
+		String configFile = "src/test/resources/virtualThreads.properties";
+		ConfigReader cr  = new ConfigReader(configFile);
+		boolean success = cr.loadConfigData();
+		
+		assertTrue(success);
+		assertEquals(ExecutionMode.VIRTUAL, cr.getExecutionMode());
+		assertEquals(1, cr.getURLs().size());
+	}
+	
+	@Test
+	public void TestConfigReader_readURLManifestFromConfig() {
+		String configFile = "src/test/resources/urlManifest.properties";
+		ConfigReader cr  = new ConfigReader(configFile);
+		boolean success = cr.loadConfigData();
+		
+		assertTrue(success);
+		assertEquals("src/test/resources/urls.txt", cr.getURLManifest());
+		assertEquals(0, cr.getURLs().size());
+	}
+	
+	@Test
+	public void TestConfigReader_readChecksumsFromConfig() {
+		String configFile = "src/test/resources/checksums.properties";
+		ConfigReader cr  = new ConfigReader(configFile);
+		boolean success = cr.loadConfigData();
+		
+		assertTrue(success);
+		assertEquals(3, cr.getURLs().size());
+		assertEquals("sha256:9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08",
+				cr.getExpectedChecksum("http://www.orimi.com/pdf-test.pdf").toString());
+		// too short for CRC32, so ignored
+		assertNull(cr.getExpectedChecksum("ftp://speedtest.tele2.net/512KB.zip"));
+		assertNull(cr.getExpectedChecksum("https://example.com/third.bin"));
+	}
+	
+	@Test
+	public void TestConfigReader_readMirrorsFromConfig() {
+		String configFile = "src/test/resources/mirrors.properties";
+		ConfigReader cr  = new ConfigReader(configFile);
+		boolean success = cr.loadConfigData();
+		
+		assertTrue(success);
+		assertEquals(2, cr.getURLs().size());
+		assertEquals(128, cr.getMirrorMinThroughput());
+		assertEquals(Arrays.asList("http://mirror1.example.com/pdf-test.pdf", "http://mirror2.example.com/pdf-test.pdf"),
+				cr.getMirrors("http://www.orimi.com/pdf-test.pdf"));
+		// a URL is not its own mirror
+		assertTrue(cr.getMirrors("ftp://speedtest.tele2.net/512KB.zip").isEmpty());
+	}
+	
+	@Test
+	public void TestConfigReader_readPrioritiesFromConfig() {
+		String configFile = "src/test/resources/priorities.properties";
+		ConfigReader cr  = new ConfigReader(configFile);
+		long before = System.currentTimeMillis();
+		boolean success = cr.loadConfigData();
+		
+		assertTrue(success);
+		assertEquals(3, cr.getURLs().size());
+		assertTrue(cr.isShortestJobFirst());
+		
+		DownloadPriority urgent = cr.getPriority("http://www.orimi.com/pdf-test.pdf");
+		assertEquals(10, urgent.getPriority());
+		assertTrue(urgent.getDeadlineMillis() >= before + 30 * 60 * 1000);
+		assertTrue(urgent.getDeadlineMillis() <= System.currentTimeMillis() + 30 * 60 * 1000);
+		// an invalid priority keeps the default order
+		assertEquals(DownloadPriority.DEFAULT, cr.getPriority("ftp://speedtest.tele2.net/512KB.zip"));
+		assertEquals(DownloadPriority.DEFAULT, cr.getPriority("https://example.com/third.bin"));
+	}
+	
 	@Test
 	public void TestConfigReader_outputPathIsNotProvided() {
 		String configFile = "src/test/resources/noOutputPath.properties";
@@ -0,0 +1,42 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.ContentLengthProbe;
+import com.pugkung.filedownload.main.FileDownloader;
+
+public class ContentLengthProbeTester {
+
+	private final static int PROBE_TIMEOUT_MILLIS = 30000;
+
+	@Test
+	public void TestContentLengthProbe_probeWithHeadRequests() throws Exception {
+		LocalHttpServer small = new LocalHttpServer(1024, true);
+		LocalHttpServer large = new LocalHttpServer(300 * 1024, true);
+		try {
+			String smallURL = small.getURL("/small.bin");
+			String largeURL = large.getURL("/large.bin");
+			String unreachableURL = "http://127.0.0.1:1/file.bin";
+			String ftpURL = "ftp://speedtest.tele2.net/512KB.zip";
+
+			// the unreachable and ftp URLs are answered at once, so only a busy
+			// machine could make the local servers take long
+			Map<String, Long> lengths = new ContentLengthProbe(PROBE_TIMEOUT_MILLIS).probe(
+					Arrays.asList(largeURL, smallURL, unreachableURL, ftpURL, smallURL));
+
+			assertEquals(4, lengths.size());
+			assertEquals(1024L, (long) lengths.get(smallURL));
+			assertEquals(300 * 1024L, (long) lengths.get(largeURL));
+			assertEquals(FileDownloader.UNKNOWN_LENGTH, (long) lengths.get(unreachableURL));
+			assertEquals(FileDownloader.UNKNOWN_LENGTH, (long) lengths.get(ftpURL));
+		} finally {
+			small.stop();
+			large.stop();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.ContentStore;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.StreamCopier.TransferEngine;
+import com.pugkung.filedownload.main.URLDownloader;
+
+public class ContentStoreTester {
+
+	private LocalHttpServer server;
+	private File workDir;
+	private ContentStore store;
+	private String expectedHash;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new LocalHttpServer(256 * 1024, true);
+		server.setETag("\"v1\"");
+		workDir = Files.createTempDirectory("content-store").toFile();
+		store = new ContentStore(new File(workDir, "store").getPath());
+		expectedHash = ContentStore.toHex(MessageDigest.getInstance("SHA-256").digest(server.getContent()));
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+		deleteRecursively(workDir);
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+	private URLDownloader download(String path, TransferEngine engine, boolean resumeEnabled) {
+		String testURL = server.getURL(path);
+		URLDownloader fd = new URLDownloader(testURL, workDir.getPath() + "/");
+		fd.setTransferEngine(engine);
+		fd.setResumeEnabled(resumeEnabled);
+		fd.setContentStore(store);
+		fd.run();
+		return fd;
+	}
+
+	private static Object inodeOf(Path path) throws Exception {
+		return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+	}
+
+	@Test
+	public void TestContentStore_storeIdenticalPayloadOnce() throws Exception {
+		URLDownloader first = download("/mirror1/file.bin", TransferEngine.COMMONS_IO, true);
+		URLDownloader second = download("/mirror2/file.bin", TransferEngine.NIO, false);
+
+		assertEquals(DownloaderStatus.COMPLETE, first.getResultCd());
+		assertEquals(DownloaderStatus.COMPLETE, second.getResultCd());
+		assertEquals(expectedHash, first.getContentDigest());
+		assertEquals(expectedHash, second.getContentDigest());
+		assertEquals(1, store.getStoredCount());
+		assertEquals(1, store.getDeduplicatedCount());
+
+		Path object = store.getObjectPath(expectedHash);
+		assertArrayEquals(server.getContent(), Files.readAllBytes(object));
+		assertArrayEquals(server.getContent(), Files.readAllBytes(new File(first.getOutputFilePath()).toPath()));
+		assertEquals(inodeOf(object), inodeOf(new File(first.getOutputFilePath()).toPath()));
+		assertEquals(inodeOf(object), inodeOf(new File(second.getOutputFilePath()).toPath()));
+
+		List<String> index = Files.readAllLines(new File(workDir, "store/index").toPath(), StandardCharsets.UTF_8);
+		assertEquals(2, index.size());
+		assertTrue(index.get(1).startsWith(expectedHash + "\t" + server.getContent().length + "\t" + server.getURL("/mirror2/file.bin")));
+	}
+
+	@Test
+	public void TestContentStore_hashResumedDownload() throws Exception {
+		server.failNextResponseAfter(100 * 1024);
+		URLDownloader failed = download("/file.bin", TransferEngine.NIO, true);
+		assertEquals(DownloaderStatus.IO_ERROR, failed.getResultCd());
+
+		URLDownloader resumed = download("/file.bin", TransferEngine.NIO, true);
+		assertEquals(DownloaderStatus.COMPLETE, resumed.getResultCd());
+		assertEquals(1, server.getRangeRequestCount());
+		assertEquals(expectedHash, resumed.getContentDigest());
+	}
+
+	@Test
+	public void TestContentStore_redownloadDoesNotChangeStoredObject() throws Exception {
+		download("/file.bin", TransferEngine.NIO, false);
+		Path object = store.getObjectPath(expectedHash);
+		Object inode = inodeOf(object);
+
+		URLDownloader again = download("/file.bin", TransferEngine.NIO, false);
+
+		assertEquals(DownloaderStatus.COMPLETE, again.getResultCd());
+		assertEquals(1, store.getDeduplicatedCount());
+		assertEquals(inode, inodeOf(object));
+		assertArrayEquals(server.getContent(), Files.readAllBytes(object));
+	}
+}
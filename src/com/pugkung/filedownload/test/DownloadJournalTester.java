@@ -0,0 +1,161 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.DownloadJournal;
+import com.pugkung.filedownload.main.DownloadScheduler;
+import com.pugkung.filedownload.main.FileDownloader;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+
+public class DownloadJournalTester {
+
+	private File workDir;
+	private File journalFile;
+
+	private static class WritingDownloader extends FileDownloader {
+		private final int size;
+		private final DownloaderStatus status;
+
+		public WritingDownloader(String sourceURI, String outputDirectory, int size, DownloaderStatus status) {
+			super(sourceURI, outputDirectory);
+			this.size = size;
+			this.status = status;
+		}
+
+		@Override
+		public DownloaderStatus downloadFile(String sourceURI, String outputFilePath) {
+			if (status == DownloaderStatus.COMPLETE) {
+				try {
+					Files.write(new File(outputFilePath).toPath(), new byte[size]);
+				} catch (Exception ex) {
+					return DownloaderStatus.IO_ERROR;
+				}
+			}
+			return status;
+		}
+	}
+
+	@Before
+	public void createWorkDir() throws Exception {
+		workDir = Files.createTempDirectory("journal").toFile();
+		workDir.deleteOnExit();
+		journalFile = new File(workDir, "downloads.journal");
+		journalFile.deleteOnExit();
+	}
+
+	private File runDownload(DownloadJournal journal, String url, int size, DownloaderStatus status) {
+		WritingDownloader fd = new WritingDownloader(url, workDir.getPath() + "/", size, status);
+		journal.queued(url);
+		journal.downloadStarted(fd);
+		fd.run();
+		journal.downloadFinished(fd, fd.getResultCd(), 0);
+
+		File output = new File(fd.getOutputFilePath());
+		output.deleteOnExit();
+		return output;
+	}
+
+	@Test
+	public void TestDownloadJournal_skipCompletedAfterRestart() throws Exception {
+		DownloadJournal journal = DownloadJournal.open(journalFile.getPath());
+		runDownload(journal, "http://example.com/done.bin", 1234, DownloaderStatus.COMPLETE);
+		runDownload(journal, "http://example.com/failed.bin", 0, DownloaderStatus.IO_ERROR);
+		journal.queued("http://example.com/never-started.bin");
+		journal.close();
+
+		List<String> lines = Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8);
+		assertEquals(7, lines.size());
+		assertEquals("FAILED\thttp://example.com/failed.bin\tIO_ERROR", lines.get(5));
+
+		DownloadJournal reopened = DownloadJournal.open(journalFile.getPath());
+		try {
+			assertEquals(1, reopened.getRecoveredCount());
+			assertTrue(reopened.isComplete("http://example.com/done.bin"));
+			assertFalse(reopened.isComplete("http://example.com/failed.bin"));
+			assertFalse(reopened.isComplete("http://example.com/never-started.bin"));
+		} finally {
+			reopened.close();
+		}
+
+		// compacted down to the completed entry
+		lines = Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8);
+		assertEquals(1, lines.size());
+		assertTrue(lines.get(0).startsWith("COMPLETE\thttp://example.com/done.bin\t1234\t"));
+	}
+
+	@Test
+	public void TestDownloadJournal_redownloadWhenOutputChanged() throws Exception {
+		DownloadJournal journal = DownloadJournal.open(journalFile.getPath());
+		File deleted = runDownload(journal, "http://example.com/deleted.bin", 100, DownloaderStatus.COMPLETE);
+		File truncated = runDownload(journal, "http://example.com/truncated.bin", 100, DownloaderStatus.COMPLETE);
+		journal.close();
+
+		deleted.delete();
+		Files.write(truncated.toPath(), new byte[10]);
+
+		DownloadJournal reopened = DownloadJournal.open(journalFile.getPath());
+		try {
+			assertFalse(reopened.isComplete("http://example.com/deleted.bin"));
+			assertFalse(reopened.isComplete("http://example.com/truncated.bin"));
+		} finally {
+			reopened.close();
+		}
+	}
+
+	@Test
+	public void TestDownloadJournal_ignoreTornLastLine() throws Exception {
+		File output = new File(workDir, "a.bin");
+		output.deleteOnExit();
+		Files.write(output.toPath(), new byte[5]);
+		String journal =
+				"QUEUED\thttp://example.com/a.bin\n" +
+				"COMPLETE\thttp://example.com/a.bin\t5\t-\t" + output.getPath() + "\n" +
+				"COMPLETE\thttp://example.com/b.bin\t5\t-\t" + output.getPath() + "\n" +
+				"STARTED\thttp://example.com/b.bin\n" +
+				"COMPLETE\thttp://example.com/c.bin\t1";
+		Files.write(journalFile.toPath(), journal.getBytes(StandardCharsets.UTF_8));
+
+		DownloadJournal reopened = DownloadJournal.open(journalFile.getPath());
+		try {
+			assertEquals(1, reopened.getRecoveredCount());
+			assertTrue(reopened.isComplete("http://example.com/a.bin"));
+			// started again after its completion was recorded, so it did not finish the second time
+			assertFalse(reopened.isComplete("http://example.com/b.bin"));
+			assertFalse(reopened.isComplete("http://example.com/c.bin"));
+		} finally {
+			reopened.close();
+		}
+	}
+
+	@Test
+	public void TestDownloadJournal_batchSyncsWithScheduler() throws Exception {
+		DownloadJournal journal = DownloadJournal.open(journalFile.getPath());
+		DownloadScheduler scheduler = new DownloadScheduler(8, 100);
+		scheduler.addDownloadListener(journal);
+
+		int downloads = 500;
+		for (int i = 0; i < downloads; i++) {
+			String url = "http://example.com/file" + i;
+			journal.queued(url);
+			scheduler.submit(new WritingDownloader(url, workDir.getPath() + "/", 16, DownloaderStatus.COMPLETE));
+		}
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+		journal.close();
+
+		List<String> lines = Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8);
+		assertEquals(downloads * 3, lines.size());
+		assertTrue("batches: " + journal.getSyncedBatchCount(), journal.getSyncedBatchCount() < lines.size());
+		for (File item : workDir.listFiles()) {
+			item.delete();
+		}
+	}
+}
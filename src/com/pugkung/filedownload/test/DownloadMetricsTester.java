@@ -0,0 +1,127 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.DownloadMetrics;
+import com.pugkung.filedownload.main.DownloadScheduler;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.MetricsHttpServer;
+import com.pugkung.filedownload.main.StreamCopier.TransferEngine;
+import com.pugkung.filedownload.main.URLDownloader;
+
+public class DownloadMetricsTester {
+
+	private static String fetch(URL url) throws Exception {
+		HttpURLConnection http = (HttpURLConnection) url.openConnection();
+		assertEquals(200, http.getResponseCode());
+		assertTrue(http.getContentType().startsWith("text/plain; version=0.0.4"));
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (InputStream in = http.getInputStream()) {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				body.write(buffer, 0, read);
+			}
+		}
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void TestDownloadMetrics_histogramBucketsAreCumulative() {
+		DownloadMetrics metrics = new DownloadMetrics();
+		metrics.downloadStarted(null, TimeUnit.SECONDS.toNanos(2));
+		metrics.downloadStarted(null, TimeUnit.MILLISECONDS.toNanos(50));
+		DownloadMetrics.Transfer transfer = metrics.startTransfer("http://example.com/file");
+		transfer.add(4096);
+		assertEquals(4096, metrics.getBytesTransferred());
+		assertEquals(1, metrics.getActiveTransfers().length);
+		transfer.finish(true);
+
+		String text = metrics.toPrometheusText();
+		assertEquals(0, metrics.getActiveTransfers().length);
+		assertTrue(text.contains("filedownload_bytes_total 4096\n"));
+		assertTrue(text.contains("filedownload_queue_wait_seconds_bucket{le=\"0.1\"} 1\n"));
+		assertTrue(text.contains("filedownload_queue_wait_seconds_bucket{le=\"1\"} 1\n"));
+		assertTrue(text.contains("filedownload_queue_wait_seconds_bucket{le=\"5\"} 2\n"));
+		assertTrue(text.contains("filedownload_queue_wait_seconds_bucket{le=\"+Inf\"} 2\n"));
+		assertTrue(text.contains("filedownload_queue_wait_seconds_count 2\n"));
+		assertTrue(text.contains("filedownload_download_bytes_per_second_count 1\n"));
+		assertEquals(1025, metrics.getMeanQueueWaitMillis(), 0.001);
+	}
+
+	@Test
+	public void TestDownloadMetrics_recordScheduledDownloads() throws Exception {
+		LocalHttpServer server = new LocalHttpServer(200 * 1024, true);
+		File workDir = Files.createTempDirectory("metrics").toFile();
+		DownloadMetrics metrics = DownloadMetrics.getSharedMetrics();
+		long bytesBefore = metrics.getBytesTransferred();
+		try {
+			DownloadScheduler scheduler = new DownloadScheduler(2, 10);
+			metrics.attach(scheduler);
+
+			URLDownloader fd = new URLDownloader(server.getURL("/file.bin"), workDir.getPath() + "/");
+			fd.setTransferEngine(TransferEngine.NIO);
+			Future<DownloaderStatus> result = scheduler.submit(fd);
+			scheduler.awaitCompletion();
+			scheduler.shutdown();
+
+			assertEquals(DownloaderStatus.COMPLETE, result.get());
+			assertEquals(200 * 1024, metrics.getBytesTransferred() - bytesBefore);
+			assertEquals(200 * 1024, fd.getBytesTransferred());
+			assertEquals(1, metrics.getCompletedDownloads());
+			assertEquals(0, metrics.getFailedDownloads());
+			assertEquals(0, metrics.getActiveDownloads());
+			assertTrue(metrics.getMeanTimeToFirstByteMillis() > 0);
+
+			String text = metrics.toPrometheusText();
+			assertTrue(text.contains("filedownload_results_total{status=\"complete\"} 1\n"));
+			assertTrue(text.contains("# TYPE filedownload_time_to_first_byte_seconds histogram\n"));
+		} finally {
+			server.stop();
+			new File(workDir, "file.bin").delete();
+			workDir.delete();
+		}
+	}
+
+	@Test
+	public void TestDownloadMetrics_serveOverHttpAndJmx() throws Exception {
+		DownloadMetrics metrics = new DownloadMetrics();
+		metrics.startTransfer("http://example.com/file").add(123);
+
+		MetricsHttpServer server = new MetricsHttpServer(0, metrics);
+		try {
+			String text = fetch(new URL("http://127.0.0.1:" + server.getPort() + MetricsHttpServer.METRICS_PATH));
+			assertTrue(text.contains("# TYPE filedownload_bytes_total counter\nfiledownload_bytes_total 123\n"));
+
+			HttpURLConnection post = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() +
+					MetricsHttpServer.METRICS_PATH).openConnection();
+			post.setRequestMethod("POST");
+			assertEquals(405, post.getResponseCode());
+		} finally {
+			server.stop();
+		}
+
+		ObjectName name = new ObjectName(DownloadMetrics.OBJECT_NAME);
+		metrics.registerMBean();
+		try {
+			assertEquals(123L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "BytesTransferred"));
+		} finally {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+	}
+}
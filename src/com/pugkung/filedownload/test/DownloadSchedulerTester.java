@@ -0,0 +1,396 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.AsyncFileDownloader;
+import com.pugkung.filedownload.main.DownloadPriority;
+import com.pugkung.filedownload.main.DownloadScheduler;
+import com.pugkung.filedownload.main.DownloadScheduler.ExecutionMode;
+import com.pugkung.filedownload.main.FileDownloader;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.HttpStatusException;
+import com.pugkung.filedownload.main.RetryPolicy;
+
+public class DownloadSchedulerTester {
+
+	private static class SleepingDownloader extends FileDownloader {
+		private final AtomicInteger running;
+		private final AtomicInteger maxRunning;
+		private final DownloaderStatus status;
+
+		public SleepingDownloader(AtomicInteger running, AtomicInteger maxRunning, DownloaderStatus status) {
+			this("http://localhost/file.out", running, maxRunning, status);
+		}
+
+		public SleepingDownloader(String sourceURI, AtomicInteger running, AtomicInteger maxRunning, DownloaderStatus status) {
+			super(sourceURI, "");
+			this.running = running;
+			this.maxRunning = maxRunning;
+			this.status = status;
+		}
+
+		@Override
+		public DownloaderStatus downloadFile(String sourceURI, String outputFilePath) {
+			int current = running.incrementAndGet();
+			maxRunning.accumulateAndGet(current, Math::max);
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			running.decrementAndGet();
+			return status;
+		}
+	}
+
+	private static class RecordingDownloader extends FileDownloader {
+		private final List<String> startOrder;
+		private final CountDownLatch release;
+
+		public RecordingDownloader(String sourceURI, List<String> startOrder, CountDownLatch release) {
+			super(sourceURI, "");
+			this.startOrder = startOrder;
+			this.release = release;
+		}
+
+		@Override
+		public DownloaderStatus downloadFile(String sourceURI, String outputFilePath) {
+			startOrder.add(DownloadScheduler.hostKeyOf(sourceURI));
+			try {
+				release.await();
+				Thread.sleep(10);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			return DownloaderStatus.COMPLETE;
+		}
+	}
+
+	private static class FlakyDownloader extends FileDownloader {
+		private final IOException failure;
+		private final int failures;
+		private final List<String> finishOrder;
+		private final AtomicInteger attempts = new AtomicInteger();
+
+		public FlakyDownloader(String sourceURI, IOException failure, int failures, List<String> finishOrder) {
+			super(sourceURI, "");
+			this.failure = failure;
+			this.failures = failures;
+			this.finishOrder = finishOrder;
+		}
+
+		@Override
+		public DownloaderStatus downloadFile(String sourceURI, String outputFilePath) {
+			finishOrder.add(sourceURI);
+			if (attempts.incrementAndGet() <= failures) {
+				setFailureCause(failure);
+				return DownloaderStatus.IO_ERROR;
+			}
+			return DownloaderStatus.COMPLETE;
+		}
+	}
+
+	@Test
+	public void TestDownloadScheduler_limitConcurrentDownloads() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		DownloadScheduler scheduler = new DownloadScheduler(3, 2);
+
+		for (int i = 0; i < 30; i++) {
+			scheduler.submit(new SleepingDownloader(running, maxRunning, DownloaderStatus.COMPLETE));
+			assertTrue(scheduler.getQueuedCount() <= 3 + 2);
+		}
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+
+		assertTrue(maxRunning.get() <= 3);
+		assertEquals(30, scheduler.getResultCount(DownloaderStatus.COMPLETE));
+	}
+
+	@Test
+	public void TestDownloadScheduler_futureReturnsDownloaderStatus() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		DownloadScheduler scheduler = new DownloadScheduler(2);
+		List<Future<DownloaderStatus>> futures = new ArrayList<Future<DownloaderStatus>>();
+
+		futures.add(scheduler.submit(new SleepingDownloader(running, maxRunning, DownloaderStatus.COMPLETE)));
+		futures.add(scheduler.submit(new SleepingDownloader(running, maxRunning, DownloaderStatus.IO_ERROR)));
+		futures.add(scheduler.submit(new SleepingDownloader(running, maxRunning, DownloaderStatus.URL_ERROR)));
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+
+		assertEquals(DownloaderStatus.COMPLETE, futures.get(0).get());
+		assertEquals(DownloaderStatus.IO_ERROR, futures.get(1).get());
+		assertEquals(DownloaderStatus.URL_ERROR, futures.get(2).get());
+		assertEquals(1, scheduler.getResultCount(DownloaderStatus.IO_ERROR));
+	}
+
+	@Test
+	public void TestDownloadScheduler_virtualExecutionMode() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		DownloadScheduler scheduler = new DownloadScheduler(4, ExecutionMode.VIRTUAL);
+
+		if (DownloadScheduler.isVirtualThreadSupported()) {
+			assertEquals(ExecutionMode.VIRTUAL, scheduler.getExecutionMode());
+		}
+		else {
+			assertEquals(ExecutionMode.PLATFORM, scheduler.getExecutionMode());
+		}
+
+		for (int i = 0; i < 20; i++) {
+			scheduler.submit(new SleepingDownloader(running, maxRunning, DownloaderStatus.COMPLETE));
+		}
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+
+		assertTrue(maxRunning.get() <= 4);
+		assertEquals(20, scheduler.getResultCount(DownloaderStatus.COMPLETE));
+	}
+
+	@Test
+	public void TestDownloadScheduler_invalidLimitFallsBackToDefault() {
+		DownloadScheduler scheduler = new DownloadScheduler(0);
+
+		assertEquals(DownloadScheduler.DEFAULT_MAX_CONCURRENT_DOWNLOADS, scheduler.getMaxConcurrentDownloads());
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void TestDownloadScheduler_limitDownloadsPerHost() throws Exception {
+		AtomicInteger runningA = new AtomicInteger();
+		AtomicInteger maxRunningA = new AtomicInteger();
+		AtomicInteger runningB = new AtomicInteger();
+		AtomicInteger maxRunningB = new AtomicInteger();
+		DownloadScheduler scheduler = new DownloadScheduler(4, 0, 2, ExecutionMode.PLATFORM);
+		List<Future<DownloaderStatus>> hostBResults = new ArrayList<Future<DownloaderStatus>>();
+
+		for (int i = 0; i < 12; i++) {
+			scheduler.submit(new SleepingDownloader("http://a.example.com/file" + i, runningA, maxRunningA, DownloaderStatus.COMPLETE));
+		}
+		for (int i = 0; i < 4; i++) {
+			hostBResults.add(scheduler.submit(new SleepingDownloader("http://b.example.com/file" + i, runningB, maxRunningB, DownloaderStatus.COMPLETE)));
+		}
+
+		// host b only waits for its own two slots, not for the twelve host a downloads ahead of it
+		for (Future<DownloaderStatus> result : hostBResults) {
+			assertEquals(DownloaderStatus.COMPLETE, result.get());
+		}
+		assertTrue(scheduler.getQueuedCount() > 0);
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+
+		assertEquals(2, scheduler.getMaxDownloadsPerHost());
+		assertTrue(maxRunningA.get() <= 2);
+		assertTrue(maxRunningB.get() <= 2);
+		assertEquals(16, scheduler.getResultCount(DownloaderStatus.COMPLETE));
+	}
+
+	@Test
+	public void TestDownloadScheduler_roundRobinAcrossHosts() throws Exception {
+		List<String> startOrder = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch release = new CountDownLatch(1);
+		DownloadScheduler scheduler = new DownloadScheduler(1, 10, 0, ExecutionMode.PLATFORM);
+
+		for (int i = 0; i < 4; i++) {
+			scheduler.submit(new RecordingDownloader("http://a.example.com/file" + i, startOrder, release));
+		}
+		for (int i = 0; i < 3; i++) {
+			scheduler.submit(new RecordingDownloader("http://B.example.com:8080/file" + i, startOrder, release));
+		}
+		release.countDown();
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+
+		// the first download of host a was already running when host b's downloads arrived
+		assertEquals(7, startOrder.size());
+		assertEquals("a.example.com", startOrder.get(0));
+		for (int i = 1; i < 7; i++) {
+			String expectedHost = (i % 2 == 1) ? "a.example.com" : "b.example.com:8080";
+			assertEquals(expectedHost, startOrder.get(i));
+		}
+	}
+
+	@Test
+	public void TestDownloadScheduler_hostKeyOf() {
+		assertEquals("example.com", DownloadScheduler.hostKeyOf("http://Example.COM/a/b.zip"));
+		assertEquals("example.com:2121", DownloadScheduler.hostKeyOf("ftp://example.com:2121/file"));
+		assertEquals("", DownloadScheduler.hostKeyOf("not_an_url"));
+	}
+
+	@Test
+	public void TestDownloadScheduler_lowerConcurrencyLimitAtRuntime() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		DownloadScheduler scheduler = new DownloadScheduler(4, 20);
+		final AtomicInteger finished = new AtomicInteger();
+		scheduler.addDownloadListener(new DownloadScheduler.DownloadListener() {
+			public void downloadFinished(FileDownloader downloader, DownloaderStatus status, long elapsedNanos) {
+				assertTrue(elapsedNanos > 0);
+				finished.incrementAndGet();
+			}
+		});
+
+		scheduler.setConcurrencyLimit(1);
+		for (int i = 0; i < 10; i++) {
+			scheduler.submit(new SleepingDownloader(running, maxRunning, DownloaderStatus.COMPLETE));
+		}
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+
+		assertEquals(1, scheduler.getConcurrencyLimit());
+		assertEquals(1, maxRunning.get());
+		assertEquals(10, finished.get());
+	}
+
+	@Test
+	public void TestDownloadScheduler_retryWithoutHoldingWorker() throws Exception {
+		List<String> finishOrder = Collections.synchronizedList(new ArrayList<String>());
+		DownloadScheduler scheduler = new DownloadScheduler(1, 10);
+		scheduler.setRetryPolicy(new RetryPolicy(3, 1, 1));
+		final AtomicInteger attempts = new AtomicInteger();
+		scheduler.addDownloadListener(new DownloadScheduler.DownloadListener() {
+			public void downloadFinished(FileDownloader downloader, DownloaderStatus status, long elapsedNanos) {
+				attempts.incrementAndGet();
+			}
+		});
+
+		// Retry-After keeps the first download away long enough for the others to use the only worker
+		FlakyDownloader flaky = new FlakyDownloader("http://flaky.example.com/file",
+				new HttpStatusException(503, "Service Unavailable", 300), 1, finishOrder);
+		Future<DownloaderStatus> flakyResult = scheduler.submit(flaky);
+		for (int i = 0; i < 3; i++) {
+			scheduler.submit(new FlakyDownloader("http://other.example.com/file" + i, null, 0, finishOrder));
+		}
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+
+		assertEquals(DownloaderStatus.COMPLETE, flakyResult.get());
+		assertEquals(5, finishOrder.size());
+		assertEquals("http://flaky.example.com/file", finishOrder.get(0));
+		assertEquals("http://flaky.example.com/file", finishOrder.get(4));
+		assertEquals(4, scheduler.getResultCount(DownloaderStatus.COMPLETE));
+		assertEquals(0, scheduler.getResultCount(DownloaderStatus.IO_ERROR));
+		assertEquals(1, scheduler.getRetryCount());
+		assertEquals(5, attempts.get());
+	}
+
+	@Test
+	public void TestDownloadScheduler_giveUpAfterMaxRetries() throws Exception {
+		List<String> finishOrder = Collections.synchronizedList(new ArrayList<String>());
+		DownloadScheduler scheduler = new DownloadScheduler(2, 10);
+		scheduler.setRetryPolicy(new RetryPolicy(2, 1, 5));
+
+		Future<DownloaderStatus> transientResult = scheduler.submit(new FlakyDownloader("http://a.example.com/timeout",
+				new SocketTimeoutException("Read timed out"), Integer.MAX_VALUE, finishOrder));
+		Future<DownloaderStatus> fatalResult = scheduler.submit(new FlakyDownloader("http://b.example.com/missing",
+				new HttpStatusException(404, "Not Found"), Integer.MAX_VALUE, finishOrder));
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+
+		assertEquals(DownloaderStatus.IO_ERROR, transientResult.get());
+		assertEquals(DownloaderStatus.IO_ERROR, fatalResult.get());
+		assertEquals(3, Collections.frequency(finishOrder, "http://a.example.com/timeout"));
+		assertEquals(1, Collections.frequency(finishOrder, "http://b.example.com/missing"));
+		assertEquals(2, scheduler.getResultCount(DownloaderStatus.IO_ERROR));
+		assertEquals(2, scheduler.getRetryCount());
+	}
+
+	private static FlakyDownloader queued(String sourceURI, int priority, long deadlineMillis, long expectedLength,
+			List<String> finishOrder) {
+		FlakyDownloader downloader = new FlakyDownloader(sourceURI, null, 0, finishOrder);
+		downloader.setPriority(new DownloadPriority(priority, deadlineMillis));
+		downloader.setExpectedLength(expectedLength);
+		return downloader;
+	}
+
+	@Test
+	public void TestDownloadScheduler_startByPriorityThenDeadline() throws Exception {
+		List<String> finishOrder = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch release = new CountDownLatch(1);
+		DownloadScheduler scheduler = new DownloadScheduler(1, 10);
+		long now = System.currentTimeMillis();
+
+		// holds the only worker until everything else is queued
+		scheduler.submit(new RecordingDownloader("http://a.example.com/first", new ArrayList<String>(), release));
+		scheduler.submit(queued("http://a.example.com/low", 0, DownloadPriority.NO_DEADLINE, -1, finishOrder));
+		scheduler.submit(queued("http://a.example.com/late", 0, now + 3600000, -1, finishOrder));
+		scheduler.submit(queued("http://b.example.com/soon", 0, now + 60000, -1, finishOrder));
+		scheduler.submit(queued("http://c.example.com/high", 5, DownloadPriority.NO_DEADLINE, -1, finishOrder));
+		release.countDown();
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+
+		assertEquals(Arrays.asList("http://c.example.com/high", "http://b.example.com/soon", "http://a.example.com/late",
+				"http://a.example.com/low"), finishOrder);
+	}
+
+	@Test
+	public void TestDownloadScheduler_shortestJobFirst() throws Exception {
+		List<String> finishOrder = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch release = new CountDownLatch(1);
+		DownloadScheduler scheduler = new DownloadScheduler(1, 10);
+		scheduler.setShortestJobFirst(true);
+
+		scheduler.submit(new RecordingDownloader("http://a.example.com/first", new ArrayList<String>(), release));
+		scheduler.submit(queued("http://a.example.com/unknown", 0, DownloadPriority.NO_DEADLINE, -1, finishOrder));
+		scheduler.submit(queued("http://a.example.com/large", 0, DownloadPriority.NO_DEADLINE, 1 << 30, finishOrder));
+		scheduler.submit(queued("http://b.example.com/small", 0, DownloadPriority.NO_DEADLINE, 1024, finishOrder));
+		scheduler.submit(queued("http://a.example.com/medium", 0, DownloadPriority.NO_DEADLINE, 1 << 20, finishOrder));
+		// priority still comes before size
+		scheduler.submit(queued("http://c.example.com/urgent", 1, DownloadPriority.NO_DEADLINE, 1 << 30, finishOrder));
+		release.countDown();
+		scheduler.awaitCompletion();
+		scheduler.shutdown();
+
+		assertEquals(Arrays.asList("http://c.example.com/urgent", "http://b.example.com/small",
+				"http://a.example.com/medium", "http://a.example.com/large", "http://a.example.com/unknown"), finishOrder);
+	}
+
+	@Test
+	public void TestDownloadScheduler_failTaskThatCannotStart() throws Exception {
+		DownloadScheduler scheduler = new DownloadScheduler(1);
+		CompletableFuture<DownloaderStatus> result = scheduler.submitAsync(new AsyncFileDownloader() {
+			@Override
+			public CompletableFuture<DownloaderStatus> downloadAsync() {
+				throw new IllegalStateException("engine unavailable");
+			}
+
+			@Override
+			public String getSourceURI() {
+				return "http://a.example.com/broken";
+			}
+		});
+
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			fail("A download that cannot start should fail its future");
+		} catch (ExecutionException ex) {
+			assertEquals("engine unavailable", ex.getCause().getMessage());
+		}
+		scheduler.awaitCompletion();
+		assertEquals(0, scheduler.getActiveCount());
+
+		// the slot was released for the next download
+		Future<DownloaderStatus> next = scheduler.submit(new FlakyDownloader("http://a.example.com/next", null, 0,
+				new ArrayList<String>()));
+		assertEquals(DownloaderStatus.COMPLETE, next.get(5, TimeUnit.SECONDS));
+		scheduler.shutdown();
+	}
+}
@@ -0,0 +1,132 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.ChecksumMismatchException;
+import com.pugkung.filedownload.main.ContentStore;
+import com.pugkung.filedownload.main.ExpectedChecksum;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.StreamCopier.TransferEngine;
+import com.pugkung.filedownload.main.URLDownloader;
+
+public class ExpectedChecksumTester {
+
+	private LocalHttpServer server;
+	private File outputFile;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new LocalHttpServer(300 * 1024, false);
+		outputFile = File.createTempFile("checksum", ".out");
+		outputFile.delete();
+		outputFile.deleteOnExit();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop();
+	}
+
+	private URLDownloader download(String checksum, TransferEngine engine) {
+		String testURL = server.getURL("/file.bin");
+		URLDownloader fd = new URLDownloader(testURL, "");
+		fd.setResumeEnabled(false);
+		fd.setTransferEngine(engine);
+		fd.setExpectedChecksum(ExpectedChecksum.parse(checksum));
+		fd.run();
+		return fd;
+	}
+
+	private String sha256OfContent() throws Exception {
+		return ContentStore.toHex(MessageDigest.getInstance("SHA-256").digest(server.getContent()));
+	}
+
+	private String crc32OfContent() {
+		CRC32 crc = new CRC32();
+		crc.update(server.getContent());
+		return String.format("%08x", crc.getValue());
+	}
+
+	@Test
+	public void TestExpectedChecksum_parse() {
+		ExpectedChecksum checksum = ExpectedChecksum.parse("CRC32:0A0B0C0D");
+		assertEquals(ExpectedChecksum.Algorithm.CRC32, checksum.getAlgorithm());
+		assertEquals("0a0b0c0d", checksum.getHex());
+
+		for (String invalid : new String[] { "0a0b0c0d", "whirlpool:0a0b0c0d", "sha1:0a0b0c0d", "crc32:0a0b0c0g" }) {
+			try {
+				ExpectedChecksum.parse(invalid);
+				fail("Accepted invalid checksum: " + invalid);
+			} catch (IllegalArgumentException ex) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void TestExpectedChecksum_verifySha256WhileDownloading() throws Exception {
+		URLDownloader fd = download("sha256:" + sha256OfContent(), TransferEngine.COMMONS_IO);
+
+		assertEquals(DownloaderStatus.COMPLETE, fd.getResultCd());
+		assertEquals(sha256OfContent(), fd.getContentDigest());
+		assertTrue(new File(fd.getOutputFilePath()).isFile());
+		new File(fd.getOutputFilePath()).delete();
+	}
+
+	@Test
+	public void TestExpectedChecksum_verifyCrc32FromDirectBuffers() throws Exception {
+		URLDownloader fd = download("crc32:" + crc32OfContent(), TransferEngine.NIO);
+
+		assertEquals(DownloaderStatus.COMPLETE, fd.getResultCd());
+		new File(fd.getOutputFilePath()).delete();
+	}
+
+	@Test
+	public void TestExpectedChecksum_mismatchDeletesOutput() throws Exception {
+		String wrong = sha256OfContent().replace('a', 'b').replace('0', '1');
+		URLDownloader fd = download("sha256:" + wrong, TransferEngine.NIO);
+
+		assertEquals(DownloaderStatus.CHECKSUM_ERROR, fd.getResultCd());
+		assertTrue(fd.getFailureCause() instanceof ChecksumMismatchException);
+		assertEquals(sha256OfContent(), ((ChecksumMismatchException) fd.getFailureCause()).getActual());
+		assertFalse(new File(fd.getOutputFilePath()).exists());
+	}
+
+	@Test
+	public void TestExpectedChecksum_crc32cOnJava9() throws Exception {
+		boolean available;
+		try {
+			Class.forName("java.util.zip.CRC32C");
+			available = true;
+		} catch (ClassNotFoundException ex) {
+			available = false;
+		}
+
+		if (!available) {
+			try {
+				ExpectedChecksum.parse("crc32c:00000000");
+				fail("CRC32C accepted on a runtime without it");
+			} catch (IllegalArgumentException ex) {
+				assertTrue(ex.getMessage().contains("Java 9"));
+			}
+		}
+		Assume.assumeTrue(available);
+
+		MessageDigest crc32c = ExpectedChecksum.parse("crc32c:00000000").newDigest();
+		crc32c.update(server.getContent());
+		String expected = ContentStore.toHex(crc32c.digest());
+
+		URLDownloader fd = download("crc32c:" + expected, TransferEngine.NIO);
+		assertEquals(DownloaderStatus.COMPLETE, fd.getResultCd());
+		new File(fd.getOutputFilePath()).delete();
+	}
+}
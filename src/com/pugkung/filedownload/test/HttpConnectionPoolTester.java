@@ -0,0 +1,59 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.SegmentedDownloader;
+import com.pugkung.filedownload.main.URLDownloader;
+
+public class HttpConnectionPoolTester {
+
+	private LocalHttpServer server;
+
+	@After
+	public void stopServer() {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void TestHttpConnectionPool_reuseConnectionForSmallFiles() throws Exception {
+		server = new LocalHttpServer(4 * 1024, true);
+		server.setETag("\"small\"");
+
+		for (int i = 0; i < 10; i++) {
+			String testURL = server.getURL("/small" + i + ".bin");
+			File outputFile = File.createTempFile("pooled", ".out");
+			outputFile.deleteOnExit();
+
+			URLDownloader fd = new URLDownloader(testURL, "");
+			assertEquals(DownloaderStatus.COMPLETE, fd.downloadFile(testURL, outputFile.getPath()));
+		}
+
+		assertEquals(10, server.getRequestCount());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void TestHttpConnectionPool_reuseConnectionsAcrossSegmentedDownloads() throws Exception {
+		server = new LocalHttpServer(512 * 1024, true);
+		SegmentedDownloader downloader = new SegmentedDownloader(4, 64 * 1024, 5000, 5000);
+
+		for (int i = 0; i < 3; i++) {
+			File outputFile = File.createTempFile("pooled", ".out");
+			outputFile.deleteOnExit();
+			assertTrue(downloader.download(new URL(server.getURL("/large.bin")), outputFile));
+		}
+
+		// 3 x (HEAD probe + 4 segments); parallel segments may still open a few extra connections
+		assertEquals(15, server.getRequestCount());
+		assertTrue(server.getConnectionCount() < server.getRequestCount());
+	}
+}
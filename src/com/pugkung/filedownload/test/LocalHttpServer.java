@@ -0,0 +1,211 @@
+package com.pugkung.filedownload.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Loopback HTTP server serving one generated payload, used to exercise the
+ * downloaders without touching the network.
+ */
+public class LocalHttpServer {
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final byte[] content;
+	private final boolean rangeSupported;
+	private final AtomicInteger rangeRequests = new AtomicInteger();
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger notModifiedResponses = new AtomicInteger();
+	private final Set<InetSocketAddress> clientConnections = ConcurrentHashMap.newKeySet();
+	private volatile String etag;
+	private volatile int failAfterBytes = -1;
+	private volatile int slowAfterBytes = -1;
+	private volatile int slowBytesPerSecond;
+	private volatile long responseDelayMillis = 0;
+	private volatile String lastRange;
+
+	public LocalHttpServer(int contentLength, boolean rangeSupported) throws IOException {
+		this.content = new byte[contentLength];
+		new Random(contentLength).nextBytes(content);
+		this.rangeSupported = rangeSupported;
+
+		executor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public String getURL(String path) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+	}
+
+	public byte[] getContent() {
+		return content;
+	}
+
+	public int getRequestCount() {
+		return requests.get();
+	}
+
+	public int getConnectionCount() {
+		return clientConnections.size();
+	}
+
+	public int getRangeRequestCount() {
+		return rangeRequests.get();
+	}
+
+	public int getNotModifiedCount() {
+		return notModifiedResponses.get();
+	}
+
+	public void setETag(String etag) {
+		this.etag = etag;
+	}
+
+	/*
+	 * Closes the next response after the given number of body bytes.
+	 */
+	public void failNextResponseAfter(int bytes) {
+		this.failAfterBytes = bytes;
+	}
+
+	/*
+	 * Sends the next response at the given rate once the given number of body bytes is out.
+	 */
+	public void slowNextResponseAfter(int bytes, int bytesPerSecond) {
+		this.slowBytesPerSecond = bytesPerSecond;
+		this.slowAfterBytes = bytes;
+	}
+
+	/*
+	 * Waits before answering every request.
+	 */
+	public void setResponseDelay(long millis) {
+		this.responseDelayMillis = millis;
+	}
+
+	public String getLastRange() {
+		return lastRange;
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	protected void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		clientConnections.add(exchange.getRemoteAddress());
+		if (responseDelayMillis > 0) {
+			try {
+				Thread.sleep(responseDelayMillis);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		Headers responseHeaders = exchange.getResponseHeaders();
+		if (rangeSupported) {
+			responseHeaders.set("Accept-Ranges", "bytes");
+		}
+		if (etag != null) {
+			responseHeaders.set("ETag", etag);
+		}
+
+		String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+		if (etag != null && etag.equals(ifNoneMatch)) {
+			notModifiedResponses.incrementAndGet();
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+
+		int start = 0;
+		int end = content.length - 1;
+		int status = 200;
+
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		if (range != null && !range.equals("bytes=0-0")) {
+			lastRange = range;
+		}
+		boolean rangeValid = ifRange == null || ifRange.equals(etag);
+		if (rangeSupported && rangeValid && range != null && range.startsWith("bytes=")) {
+			rangeRequests.incrementAndGet();
+			String[] bounds = range.substring("bytes=".length()).split("-", -1);
+			start = Integer.parseInt(bounds[0]);
+			if (!bounds[1].isEmpty()) {
+				end = Math.min(end, Integer.parseInt(bounds[1]));
+			}
+			if (start > end) {
+				responseHeaders.set("Content-Range", "bytes */" + content.length);
+				exchange.sendResponseHeaders(416, -1);
+				exchange.close();
+				return;
+			}
+			status = 206;
+			responseHeaders.set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+		}
+
+		int length = end - start + 1;
+		if ("HEAD".equals(exchange.getRequestMethod())) {
+			responseHeaders.set("Content-Length", String.valueOf(length));
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+			return;
+		}
+
+		// single-byte probes leave the next failure or slowdown for the real download
+		int failAfter = (length > 1) ? failAfterBytes : -1;
+		int slowAfter = (length > 1) ? slowAfterBytes : -1;
+		if (length > 1) {
+			failAfterBytes = -1;
+			slowAfterBytes = -1;
+		}
+
+		exchange.sendResponseHeaders(status, length);
+		if (failAfter >= 0 && failAfter < length) {
+			OutputStream out = exchange.getResponseBody();
+			out.write(content, start, failAfter);
+			out.flush();
+			// closing a fixed-length body early drops the connection
+			exchange.close();
+			return;
+		}
+		if (slowAfter >= 0 && slowAfter < length) {
+			writeSlowly(exchange, start, length, slowAfter);
+			return;
+		}
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(content, start, length);
+		}
+	}
+
+	private void writeSlowly(HttpExchange exchange, int start, int length, int fastBytes) throws IOException {
+		int chunk = 1024;
+		long pause = 1000L * chunk / slowBytesPerSecond;
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(content, start, fastBytes);
+			out.flush();
+			for (int sent = fastBytes; sent < length; sent += chunk) {
+				Thread.sleep(pause);
+				out.write(content, start + sent, Math.min(chunk, length - sent));
+				out.flush();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.DownloadPriority;
+import com.pugkung.filedownload.main.ManifestReader;
+
+public class ManifestReaderTester {
+
+	/*
+	 * Produces "http://example.com/<n>\n" lines on the fly without holding the manifest in memory.
+	 */
+	private static class GeneratedManifest extends InputStream {
+		private final long lines;
+		private long line = 0;
+		private byte[] current = new byte[0];
+		private int position = 0;
+
+		GeneratedManifest(long lines) {
+			this.lines = lines;
+		}
+
+		@Override
+		public int read() {
+			if (position == current.length) {
+				if (line == lines) {
+					return -1;
+				}
+				current = ("http://example.com/" + line++ + "\n").getBytes(StandardCharsets.US_ASCII);
+				position = 0;
+			}
+			return current[position++];
+		}
+	}
+
+	private static List<String> readAll(ManifestReader manifest) {
+		List<String> urls = new ArrayList<String>();
+		while (manifest.hasNext()) {
+			urls.add(manifest.next());
+		}
+		return urls;
+	}
+
+	@Test
+	public void TestManifestReader_readLinesInOrder() throws Exception {
+		try (ManifestReader manifest = ManifestReader.open("src/test/resources/urls.txt")) {
+			List<String> urls = readAll(manifest);
+
+			assertEquals(3, urls.size());
+			assertEquals("http://www.orimi.com/pdf-test.pdf", urls.get(0));
+			assertEquals("ftp://speedtest.tele2.net/512KB.zip", urls.get(1));
+			assertEquals("https://example.com/third.bin", urls.get(2));
+			assertEquals(3, manifest.getURLCount());
+		}
+	}
+
+	@Test
+	public void TestManifestReader_readGzipManifest() throws Exception {
+		File gzipFile = File.createTempFile("manifest", ".txt.gz");
+		gzipFile.deleteOnExit();
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzipFile.toPath()))) {
+			out.write(Files.readAllBytes(new File("src/test/resources/urls.txt").toPath()));
+		}
+
+		try (ManifestReader manifest = ManifestReader.open(gzipFile.getPath())) {
+			List<String> urls = readAll(manifest);
+
+			assertEquals(3, urls.size());
+			assertEquals("http://www.orimi.com/pdf-test.pdf", urls.get(0));
+		}
+	}
+
+	@Test
+	public void TestManifestReader_streamLargeManifest() throws Exception {
+		long lines = 2000000;
+
+		try (ManifestReader manifest = new ManifestReader(new GeneratedManifest(lines))) {
+			long count = 0;
+			String last = null;
+			while (manifest.hasNext()) {
+				last = manifest.next();
+				count++;
+			}
+
+			assertEquals(lines, count);
+			assertEquals("http://example.com/" + (lines - 1), last);
+		}
+	}
+
+	@Test
+	public void TestManifestReader_corruptGzip() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = new GZIPOutputStream(bytes)) {
+			for (int i = 0; i < 50000; i++) {
+				out.write(("http://example.com/" + i + "\n").getBytes(StandardCharsets.US_ASCII));
+			}
+		}
+		byte[] truncated = new byte[bytes.size() / 2];
+		System.arraycopy(bytes.toByteArray(), 0, truncated, 0, truncated.length);
+
+		try (ManifestReader manifest = new ManifestReader(new ByteArrayInputStream(truncated))) {
+			readAll(manifest);
+			fail("Truncated gzip manifest should not read to the end");
+		} catch (UncheckedIOException ex) {
+			assertTrue(ex.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void TestManifestReader_readPriorityAttributes() throws Exception {
+		String lines = "http://example.com/plain\n" +
+				"http://example.com/urgent\tpriority=10 deadline=2026-10-18T06:00:00Z\n" +
+				"http://example.com/invalid priority=high\n";
+
+		try (ManifestReader manifest = new ManifestReader(new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8)))) {
+			assertEquals("http://example.com/plain", manifest.next());
+			assertEquals(DownloadPriority.DEFAULT, manifest.getPriority());
+
+			assertEquals("http://example.com/urgent", manifest.next());
+			assertEquals(10, manifest.getPriority().getPriority());
+			assertEquals(1792303200000L, manifest.getPriority().getDeadlineMillis());
+
+			assertEquals("http://example.com/invalid", manifest.next());
+			assertEquals(DownloadPriority.DEFAULT, manifest.getPriority());
+			assertFalse(manifest.hasNext());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void TestManifestReader_missingManifest() throws Exception {
+		ManifestReader.open("src/test/resources/missingManifest.txt");
+	}
+}
@@ -0,0 +1,96 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.MirrorSelector;
+import com.pugkung.filedownload.main.StreamCopier.TransferEngine;
+import com.pugkung.filedownload.main.URLDownloader;
+
+public class MirrorSelectorTester {
+
+	private final static int CONTENT_LENGTH = 256 * 1024;
+
+	private LocalHttpServer primary;
+	private LocalHttpServer mirror;
+	private File workDir;
+
+	@Before
+	public void startServers() throws Exception {
+		// both servers generate the same payload from its length
+		primary = new LocalHttpServer(CONTENT_LENGTH, true);
+		primary.setETag("\"primary\"");
+		mirror = new LocalHttpServer(CONTENT_LENGTH, true);
+		mirror.setETag("\"mirror\"");
+		workDir = Files.createTempDirectory("mirrors").toFile();
+	}
+
+	@After
+	public void stopServers() {
+		primary.stop();
+		mirror.stop();
+		for (File child : workDir.listFiles()) {
+			child.delete();
+		}
+		workDir.delete();
+	}
+
+	private URLDownloader download(long minThroughput) {
+		URLDownloader fd = new URLDownloader(primary.getURL("/file.bin"), workDir.getPath() + "/");
+		fd.setTransferEngine(TransferEngine.NIO);
+		fd.setMirrors(Arrays.asList(mirror.getURL("/file.bin")));
+		fd.setMinMirrorThroughput(minThroughput);
+		fd.run();
+		return fd;
+	}
+
+	@Test
+	public void TestMirrorSelector_rankByFirstByteLatency() throws Exception {
+		primary.setResponseDelay(300);
+		URL slow = new URL(primary.getURL("/file.bin"));
+		URL fast = new URL(mirror.getURL("/file.bin"));
+		URL unreachable = new URL("http://127.0.0.1:1/file.bin");
+
+		List<URL> ranked = new MirrorSelector(2000).rank(Arrays.asList(unreachable, slow, fast));
+
+		assertEquals(Arrays.asList(fast, slow, unreachable), ranked);
+	}
+
+	@Test
+	public void TestMirrorSelector_failOverAtCurrentOffset() throws Exception {
+		mirror.setResponseDelay(200);
+		primary.failNextResponseAfter(100 * 1024);
+
+		URLDownloader fd = download(0);
+
+		assertEquals(DownloaderStatus.COMPLETE, fd.getResultCd());
+		assertEquals("bytes=" + (100 * 1024) + "-", mirror.getLastRange());
+		assertArrayEquals(primary.getContent(), Files.readAllBytes(new File(fd.getOutputFilePath()).toPath()));
+	}
+
+	@Test
+	public void TestMirrorSelector_switchWhenThroughputCollapses() throws Exception {
+		mirror.setResponseDelay(200);
+		// the first 64 KB arrive at once, then 1 KB/s; far below the 8 KB/s minimum
+		// in every throughput window, however busy the machine is
+		primary.slowNextResponseAfter(64 * 1024, 1024);
+
+		URLDownloader fd = download(8 * 1024);
+
+		// staying on the slow primary would take over three minutes and never ask the mirror for a range
+		assertEquals(DownloaderStatus.COMPLETE, fd.getResultCd());
+		assertNotNull(mirror.getLastRange());
+		assertTrue(Long.parseLong(mirror.getLastRange().replaceAll("[^0-9]", "")) >= 64 * 1024);
+		assertArrayEquals(primary.getContent(), Files.readAllBytes(new File(fd.getOutputFilePath()).toPath()));
+	}
+}
@@ -0,0 +1,96 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.OutputLayout;
+import com.pugkung.filedownload.main.URLDownloader;
+
+public class OutputLayoutTester {
+
+	@Test
+	public void TestOutputLayout_spreadFilesOverShardDirectories() {
+		OutputLayout layout = new OutputLayout(2, false);
+		String path = layout.resolve("/out/", "example_com_file_bin");
+		String separator = File.separator.equals("\\") ? "\\\\" : File.separator;
+
+		assertTrue(path, path.matches("/out/[0-9a-f]{2}" + separator + "[0-9a-f]{2}" + separator + "example_com_file_bin"));
+		assertEquals(path, layout.resolve("/out/", "example_com_file_bin"));
+		assertEquals("/out/example_com_file_bin", OutputLayout.FLAT.resolve("/out/", "example_com_file_bin"));
+
+		Set<String> directories = new HashSet<String>();
+		for (int i = 0; i < 1000; i++) {
+			directories.add(new File(layout.resolve("/out/", "example_com_file" + i)).getParentFile().getParent());
+		}
+		assertTrue("first level directories used: " + directories.size(), directories.size() > 200);
+	}
+
+	@Test
+	public void TestOutputLayout_preallocateKnownLength() throws Exception {
+		File file = File.createTempFile("layout", ".out");
+		file.deleteOnExit();
+
+		try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			OutputLayout.FLAT.preallocate(out, 4096);
+			assertEquals(0, out.size());
+			new OutputLayout(0, true).preallocate(out, 4096);
+			assertEquals(4096, out.size());
+		}
+	}
+
+	@Test
+	public void TestOutputLayout_downloadIntoShardDirectory() throws Exception {
+		LocalHttpServer server = new LocalHttpServer(64 * 1024, true);
+		File workDir = Files.createTempDirectory("layout").toFile();
+		try {
+			URLDownloader fd = new URLDownloader(server.getURL("/file.bin"), workDir.getPath() + "/");
+			fd.setOutputLayout(new OutputLayout(2, true));
+			fd.run();
+
+			assertEquals(DownloaderStatus.COMPLETE, fd.getResultCd());
+			File outputFile = new File(fd.getOutputFilePath());
+			assertEquals(workDir, outputFile.getParentFile().getParentFile().getParentFile());
+			assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+			outputFile.delete();
+			outputFile.getParentFile().delete();
+			outputFile.getParentFile().getParentFile().delete();
+		} finally {
+			server.stop();
+			workDir.delete();
+		}
+	}
+
+	@Test
+	public void TestOutputLayout_refuseConcurrentWritesToSameOutput() throws Exception {
+		LocalHttpServer server = new LocalHttpServer(64 * 1024, true);
+		server.setResponseDelay(1000);
+		File workDir = Files.createTempDirectory("layout").toFile();
+		try {
+			URLDownloader first = new URLDownloader(server.getURL("/file.bin"), workDir.getPath() + "/");
+			URLDownloader second = new URLDownloader(server.getURL("/file.bin"), workDir.getPath() + "/");
+			Thread firstThread = new Thread(first);
+			firstThread.start();
+			Thread.sleep(300);
+			second.run();
+			firstThread.join();
+
+			assertEquals(DownloaderStatus.COMPLETE, first.getResultCd());
+			assertEquals(DownloaderStatus.IO_ERROR, second.getResultCd());
+			assertTrue(second.getFailureCause().getMessage().contains("being written by another download"));
+			assertArrayEquals(server.getContent(), Files.readAllBytes(new File(first.getOutputFilePath()).toPath()));
+			new File(first.getOutputFilePath()).delete();
+		} finally {
+			server.stop();
+			workDir.delete();
+		}
+	}
+}
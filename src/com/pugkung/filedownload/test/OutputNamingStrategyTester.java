@@ -0,0 +1,127 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.OutputNamingStrategy;
+import com.pugkung.filedownload.main.URLDownloader;
+
+public class OutputNamingStrategyTester {
+
+	@Test
+	public void TestOutputNamingStrategy_legacyNamesAreUnchanged() {
+		OutputNamingStrategy naming = OutputNamingStrategy.LEGACY;
+
+		assertEquals("example_com_dir_file_bin", naming.fileName("http://example.com/dir/file.bin"));
+		assertEquals(naming.fileName("http://example.com/a/b.c"), naming.fileName("http://example.com/a_b/c"));
+		assertEquals("example_com_file_bin",
+				new URLDownloader("http://example.com/file.bin", "").generateOutputFileName("http://example.com/file.bin"));
+	}
+
+	@Test
+	public void TestOutputNamingStrategy_escapedNamesDecodeToTheURL() throws Exception {
+		OutputNamingStrategy naming = OutputNamingStrategy.ESCAPED;
+		String[] urls = { "http://example.com/a/b.c", "http://example.com/a_b/c", "https://example.com/a/b.c",
+				"http://example.com/search?q=a+b&lang=th#top", "http://example.com/%E0%B8%81",
+				"http://example.com/\u0e01\ud83d\ude00" };
+
+		for (String url : urls) {
+			String name = naming.fileName(url);
+			assertTrue(name, name.matches("[A-Za-z0-9._~%-]+"));
+			assertEquals(url, URLDecoder.decode(name, "UTF-8"));
+		}
+		assertNotEquals(naming.fileName(urls[0]), naming.fileName(urls[1]));
+		assertEquals("http%3A%2F%2Fexample.com%2Fa%2Fb.c", naming.fileName(urls[0]));
+	}
+
+	@Test
+	public void TestOutputNamingStrategy_hashedNamesAreShort() {
+		OutputNamingStrategy naming = OutputNamingStrategy.HASHED;
+		StringBuilder longQuery = new StringBuilder("http://example.com/dir/report.pdf?");
+		for (int i = 0; i < 1000; i++) {
+			longQuery.append("key").append(i).append("=value&");
+		}
+
+		assertTrue(naming.fileName("http://example.com/dir/report.pdf").matches("report_[0-9a-f]{16}\\.pdf"));
+		assertTrue(naming.fileName("http://example.com/").matches("example\\.com_[0-9a-f]{16}"));
+		assertTrue(naming.fileName(longQuery.toString()).matches("report_[0-9a-f]{16}\\.pdf"));
+		assertNotEquals(naming.fileName("http://example.com/a/b.c"), naming.fileName("http://example.com/a_b/b.c"));
+		assertNotEquals(naming.fileName(longQuery.toString()), naming.fileName("http://example.com/dir/report.pdf"));
+		assertEquals(naming.fileName(longQuery.toString()), naming.fileName(longQuery.toString()));
+	}
+
+	@Test
+	public void TestOutputNamingStrategy_templateNames() {
+		OutputNamingStrategy naming = OutputNamingStrategy.forName("template", "{host}/{path}{ext}.{query}");
+
+		assertEquals("example.com_8080/dir_file.tar.gz.gz.a_1",
+				naming.fileName("http://example.com:8080/dir/file.tar.gz?a=1#top"));
+		assertEquals("file_b", OutputNamingStrategy.forName("template", "{name}_{query}").fileName("ftp://host/file?b"));
+		// a name that would leave the output directory falls back to the hashed name
+		assertTrue(OutputNamingStrategy.forName("template", "{name}{ext}").fileName("http://host/a/..")
+				.matches("\\._[0-9a-f]{16}"));
+
+		try {
+			OutputNamingStrategy.forName("template", "{host}/{size}");
+			fail("Unknown placeholders should be rejected");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+		try {
+			OutputNamingStrategy.forName("template", "../{name}");
+			fail("Templates leaving the output directory should be rejected");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void TestOutputNamingStrategy_templateCollisionFree() {
+		OutputNamingStrategy.Template named = (OutputNamingStrategy.Template) OutputNamingStrategy.forName("template",
+				"{host}/{name}{ext}");
+		OutputNamingStrategy.Template hashed = (OutputNamingStrategy.Template) OutputNamingStrategy.forName("template",
+				"{host}/{name}_{hash}{ext}");
+
+		assertFalse(named.isCollisionFree());
+		assertEquals(named.fileName("http://host/a/b.c?x"), named.fileName("http://host/a/b.c?y"));
+		assertTrue(hashed.isCollisionFree());
+		assertNotEquals(hashed.fileName("http://host/a/b.c?x"), hashed.fileName("http://host/a/b.c?y"));
+	}
+
+	@Test
+	public void TestOutputNamingStrategy_detectCollisionsInFlight() throws Exception {
+		LocalHttpServer server = new LocalHttpServer(64 * 1024, true);
+		server.setResponseDelay(1000);
+		File workDir = Files.createTempDirectory("naming").toFile();
+		try {
+			// the legacy strategy maps both URLs to the same file name
+			URLDownloader first = new URLDownloader(server.getURL("/a/b.c"), workDir.getPath() + "/");
+			URLDownloader second = new URLDownloader(server.getURL("/a_b/c"), workDir.getPath() + "/");
+			Thread firstThread = new Thread(first);
+			firstThread.start();
+			Thread.sleep(300);
+			second.run();
+			firstThread.join();
+
+			assertEquals(DownloaderStatus.COMPLETE, first.getResultCd());
+			assertEquals(DownloaderStatus.IO_ERROR, second.getResultCd());
+			assertTrue(second.getFailureCause().getMessage().startsWith("Output file name collision"));
+			new File(first.getOutputFilePath()).delete();
+
+			second.setNamingStrategy(OutputNamingStrategy.ESCAPED);
+			second.run();
+			assertEquals(DownloaderStatus.COMPLETE, second.getResultCd());
+			assertNotEquals(first.getOutputFilePath(), second.getOutputFilePath());
+			new File(second.getOutputFilePath()).delete();
+		} finally {
+			server.stop();
+			workDir.delete();
+		}
+	}
+}
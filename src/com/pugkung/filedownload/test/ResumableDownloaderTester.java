@@ -0,0 +1,137 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.OutputLayout;
+import com.pugkung.filedownload.main.PartialDownloadState;
+import com.pugkung.filedownload.main.ResumableDownloader;
+import com.pugkung.filedownload.main.URLDownloader;
+
+public class ResumableDownloaderTester {
+
+	private LocalHttpServer server;
+	private File outputFile;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new LocalHttpServer(512 * 1024, true);
+		server.setETag("\"v1\"");
+		outputFile = File.createTempFile("resumable", ".out");
+		outputFile.delete();
+		outputFile.deleteOnExit();
+		ResumableDownloader.getPartFile(outputFile).deleteOnExit();
+		ResumableDownloader.getStateFile(outputFile).deleteOnExit();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop();
+		ResumableDownloader.getPartFile(outputFile).delete();
+		ResumableDownloader.getStateFile(outputFile).delete();
+	}
+
+	@Test
+	public void TestResumableDownloader_keepPartialFileOnFailure() throws Exception {
+		String testURL = server.getURL("/file.bin");
+		URLDownloader fd = new URLDownloader(testURL, "");
+
+		server.failNextResponseAfter(100 * 1024);
+		DownloaderStatus status = fd.downloadFile(testURL, outputFile.getPath());
+
+		assertEquals(DownloaderStatus.IO_ERROR, status);
+		assertFalse(outputFile.exists());
+		assertTrue(ResumableDownloader.getPartFile(outputFile).exists());
+
+		PartialDownloadState state = PartialDownloadState.load(ResumableDownloader.getStateFile(outputFile));
+		assertNotNull(state);
+		assertEquals(testURL, state.getURL());
+		assertEquals("\"v1\"", state.getETag());
+		assertEquals(100 * 1024, state.getBytesCommitted());
+	}
+
+	@Test
+	public void TestResumableDownloader_resumeFromCommittedByte() throws Exception {
+		String testURL = server.getURL("/file.bin");
+		ResumableDownloader downloader = new ResumableDownloader(5000, 5000);
+
+		server.failNextResponseAfter(100 * 1024);
+		try {
+			downloader.download(new URL(testURL), outputFile);
+			fail("Expected the first attempt to fail");
+		} catch (Exception ex) {
+			// expected
+		}
+		downloader.download(new URL(testURL), outputFile);
+
+		assertEquals(1, server.getRangeRequestCount());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+		assertFalse(ResumableDownloader.getPartFile(outputFile).exists());
+		assertFalse(ResumableDownloader.getStateFile(outputFile).exists());
+	}
+
+	@Test
+	public void TestResumableDownloader_resumePreallocatedFile() throws Exception {
+		String testURL = server.getURL("/file.bin");
+		ResumableDownloader downloader = new ResumableDownloader(5000, 5000);
+		downloader.setOutputLayout(new OutputLayout(0, true));
+
+		server.failNextResponseAfter(100 * 1024);
+		try {
+			downloader.download(new URL(testURL), outputFile);
+			fail("Expected the first attempt to fail");
+		} catch (Exception ex) {
+			// expected
+		}
+		// the preallocated tail past the received bytes is not kept
+		assertEquals(100 * 1024, ResumableDownloader.getPartFile(outputFile).length());
+
+		downloader.download(new URL(testURL), outputFile);
+		assertEquals(1, server.getRangeRequestCount());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+		assertFalse(ResumableDownloader.getPartFile(outputFile).exists());
+	}
+
+	@Test
+	public void TestResumableDownloader_restartWhenValidatorChanged() throws Exception {
+		String testURL = server.getURL("/file.bin");
+		ResumableDownloader downloader = new ResumableDownloader(5000, 5000);
+
+		server.failNextResponseAfter(100 * 1024);
+		try {
+			downloader.download(new URL(testURL), outputFile);
+			fail("Expected the first attempt to fail");
+		} catch (Exception ex) {
+			// expected
+		}
+		server.setETag("\"v2\"");
+		downloader.download(new URL(testURL), outputFile);
+
+		assertEquals(0, server.getRangeRequestCount());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+	}
+
+	@Test
+	public void TestResumableDownloader_restartWhenRangeNotSatisfiable() throws Exception {
+		String testURL = server.getURL("/file.bin");
+		// left by a run against a longer version of the file with the same validator
+		int staleLength = 600 * 1024;
+		Files.write(ResumableDownloader.getPartFile(outputFile).toPath(), new byte[staleLength]);
+		new PartialDownloadState(testURL, "\"v1\"", null, staleLength).save(ResumableDownloader.getStateFile(outputFile));
+
+		new ResumableDownloader(5000, 5000).download(new URL(testURL), outputFile);
+
+		assertEquals("bytes=" + staleLength + "-", server.getLastRange());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+		assertFalse(ResumableDownloader.getPartFile(outputFile).exists());
+		assertFalse(ResumableDownloader.getStateFile(outputFile).exists());
+	}
+}
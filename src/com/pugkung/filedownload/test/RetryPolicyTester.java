@@ -0,0 +1,121 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.ChecksumMismatchException;
+import com.pugkung.filedownload.main.DownloadScheduler;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.HttpStatusException;
+import com.pugkung.filedownload.main.RetryPolicy;
+import com.pugkung.filedownload.main.StreamCopier.TransferEngine;
+import com.pugkung.filedownload.main.URLDownloader;
+
+public class RetryPolicyTester {
+
+	@Test
+	public void TestRetryPolicy_classifyFailures() {
+		assertTrue(RetryPolicy.isRetryable(DownloaderStatus.IO_ERROR, new SocketTimeoutException("Read timed out")));
+		assertTrue(RetryPolicy.isRetryable(DownloaderStatus.IO_ERROR, new ConnectException("Connection refused")));
+		assertTrue(RetryPolicy.isRetryable(DownloaderStatus.IO_ERROR, new EOFException("Body ended early")));
+		assertTrue(RetryPolicy.isRetryable(DownloaderStatus.IO_ERROR, new HttpStatusException(503, "Service Unavailable")));
+		assertTrue(RetryPolicy.isRetryable(DownloaderStatus.IO_ERROR, new HttpStatusException(429, "Too Many Requests")));
+		assertTrue(RetryPolicy.isRetryable(DownloaderStatus.IO_ERROR,
+				new IOException("Server returned HTTP response code: 502 for URL: http://example.com/")));
+		assertTrue(RetryPolicy.isRetryable(DownloaderStatus.IO_ERROR, new IOException(new SocketTimeoutException())));
+
+		assertFalse(RetryPolicy.isRetryable(DownloaderStatus.IO_ERROR, new HttpStatusException(404, "Not Found")));
+		assertFalse(RetryPolicy.isRetryable(DownloaderStatus.IO_ERROR, new HttpStatusException(403, "Forbidden")));
+		assertFalse(RetryPolicy.isRetryable(DownloaderStatus.IO_ERROR, new FileNotFoundException("http://example.com/")));
+		assertFalse(RetryPolicy.isRetryable(DownloaderStatus.IO_ERROR, new UnknownHostException("nowhere.invalid")));
+		assertFalse(RetryPolicy.isRetryable(DownloaderStatus.URL_ERROR, new MalformedURLException()));
+		assertFalse(RetryPolicy.isRetryable(DownloaderStatus.CHECKSUM_ERROR, new ChecksumMismatchException("aa", "bb", "Checksum mismatch")));
+		assertFalse(RetryPolicy.isRetryable(DownloaderStatus.COMPLETE, null));
+	}
+
+	@Test
+	public void TestRetryPolicy_limitAttempts() {
+		RetryPolicy policy = new RetryPolicy(2, 10, 100);
+		IOException timeout = new SocketTimeoutException();
+
+		assertTrue(policy.shouldRetry(1, DownloaderStatus.IO_ERROR, timeout));
+		assertTrue(policy.shouldRetry(2, DownloaderStatus.IO_ERROR, timeout));
+		assertFalse(policy.shouldRetry(3, DownloaderStatus.IO_ERROR, timeout));
+		assertFalse(RetryPolicy.NO_RETRY.shouldRetry(1, DownloaderStatus.IO_ERROR, timeout));
+	}
+
+	@Test
+	public void TestRetryPolicy_exponentialBackoffWithJitter() {
+		RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+
+		long maxSeen = 0;
+		for (int i = 0; i < 200; i++) {
+			long first = policy.getDelayMillis(1, null);
+			assertTrue(first >= 0 && first <= 100);
+			long third = policy.getDelayMillis(3, null);
+			assertTrue(third >= 0 && third <= 400);
+			long late = policy.getDelayMillis(40, null);
+			assertTrue(late >= 0 && late <= 1000);
+			maxSeen = Math.max(maxSeen, late);
+		}
+		// full jitter spreads the delays over the whole range
+		assertTrue(maxSeen > 500);
+	}
+
+	@Test
+	public void TestRetryPolicy_honorRetryAfter() {
+		RetryPolicy policy = new RetryPolicy(3, 10, 100);
+		HttpStatusException throttled = new HttpStatusException(503, "Service Unavailable",
+				HttpStatusException.parseRetryAfter("2"));
+
+		assertEquals(2000, throttled.getRetryAfterMillis());
+		assertEquals(2000, policy.getDelayMillis(1, new IOException(throttled)));
+
+		long inFiveSeconds = HttpStatusException.parseRetryAfter(java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME
+				.format(java.time.ZonedDateTime.now(java.time.ZoneOffset.UTC).plusSeconds(5)));
+		assertTrue(inFiveSeconds > 3000 && inFiveSeconds <= 5000);
+		assertEquals(HttpStatusException.NO_RETRY_AFTER, HttpStatusException.parseRetryAfter("soon"));
+		assertEquals(HttpStatusException.NO_RETRY_AFTER, HttpStatusException.parseRetryAfter(null));
+	}
+
+	@Test
+	public void TestRetryPolicy_resumeInterruptedDownload() throws Exception {
+		LocalHttpServer server = new LocalHttpServer(256 * 1024, true);
+		server.setETag("\"v1\"");
+		File workDir = Files.createTempDirectory("retry").toFile();
+		try {
+			server.failNextResponseAfter(100 * 1024);
+			DownloadScheduler scheduler = new DownloadScheduler(1, 10);
+			scheduler.setRetryPolicy(new RetryPolicy(2, 1, 10));
+
+			URLDownloader fd = new URLDownloader(server.getURL("/file.bin"), workDir.getPath() + "/");
+			fd.setTransferEngine(TransferEngine.NIO);
+			Future<DownloaderStatus> result = scheduler.submit(fd);
+			scheduler.awaitCompletion();
+			scheduler.shutdown();
+
+			assertEquals(DownloaderStatus.COMPLETE, result.get());
+			assertEquals(1, scheduler.getRetryCount());
+			assertEquals(1, server.getRangeRequestCount());
+			assertArrayEquals(server.getContent(), Files.readAllBytes(new File(fd.getOutputFilePath()).toPath()));
+		} finally {
+			server.stop();
+			for (File child : workDir.listFiles()) {
+				child.delete();
+			}
+			workDir.delete();
+		}
+	}
+}
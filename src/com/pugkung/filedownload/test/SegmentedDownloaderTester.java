@@ -0,0 +1,129 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.SegmentedDownloader;
+import com.pugkung.filedownload.main.URLDownloader;
+
+import com.sun.net.httpserver.HttpExchange;
+
+public class SegmentedDownloaderTester {
+
+	private LocalHttpServer server;
+
+	@After
+	public void stopServer() {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void TestSegmentedDownloader_reassembleSegments() throws Exception {
+		server = new LocalHttpServer(1024 * 1024 + 17, true);
+		File outputFile = File.createTempFile("segmented", ".out");
+		outputFile.deleteOnExit();
+
+		SegmentedDownloader downloader = new SegmentedDownloader(4, 64 * 1024, 5000, 5000);
+		boolean segmented = downloader.download(new URL(server.getURL("/large.bin")), outputFile);
+
+		assertTrue(segmented);
+		assertEquals(4, server.getRangeRequestCount());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+	}
+
+	@Test
+	public void TestSegmentedDownloader_failWhenFileChangesAfterProbe() throws Exception {
+		server = new LocalHttpServer(1024 * 1024, true);
+		server.setETag("\"v1\"");
+		File outputFile = File.createTempFile("segmented", ".out");
+		outputFile.deleteOnExit();
+
+		SegmentedDownloader downloader = new SegmentedDownloader(4, 64 * 1024, 5000, 5000) {
+			@Override
+			protected long probeRangeSupport(URL url) throws IOException {
+				long contentLength = super.probeRangeSupport(url);
+				server.setETag("\"v2\"");
+				return contentLength;
+			}
+		};
+		try {
+			downloader.download(new URL(server.getURL("/large.bin")), outputFile);
+			fail("Segments of a changed file should be refused");
+		} catch (IOException ex) {
+			// expected: If-Range no longer matches, so the server sends the whole file
+		}
+		assertEquals(0, server.getRangeRequestCount());
+	}
+
+	@Test
+	public void TestSegmentedDownloader_failWhenSegmentTooLong() throws Exception {
+		// answers the first segment with the right Content-Range but 1 KB of zeros too many
+		server = new LocalHttpServer(1024 * 1024, true) {
+			@Override
+			protected void handle(HttpExchange exchange) throws IOException {
+				String range = exchange.getRequestHeaders().getFirst("Range");
+				if (!"GET".equals(exchange.getRequestMethod()) || range == null || !range.startsWith("bytes=0-")) {
+					super.handle(exchange);
+					return;
+				}
+				int end = Integer.parseInt(range.substring("bytes=0-".length()));
+				byte[] body = new byte[end + 1 + 1024];
+				System.arraycopy(getContent(), 0, body, 0, end + 1);
+				exchange.getResponseHeaders().set("Content-Range", "bytes 0-" + end + "/" + getContent().length);
+				exchange.sendResponseHeaders(206, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		};
+		File outputFile = File.createTempFile("segmented", ".out");
+		outputFile.deleteOnExit();
+
+		SegmentedDownloader downloader = new SegmentedDownloader(4, 64 * 1024, 5000, 5000);
+		try {
+			downloader.download(new URL(server.getURL("/large.bin")), outputFile);
+			fail("A segment longer than its range should be refused");
+		} catch (IOException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().startsWith("Server sent more than"));
+		}
+	}
+
+	@Test
+	public void TestSegmentedDownloader_rangeNotSupported() throws Exception {
+		server = new LocalHttpServer(1024 * 1024, false);
+		File outputFile = File.createTempFile("segmented", ".out");
+		outputFile.deleteOnExit();
+
+		SegmentedDownloader downloader = new SegmentedDownloader(4, 64 * 1024, 5000, 5000);
+		boolean segmented = downloader.download(new URL(server.getURL("/large.bin")), outputFile);
+
+		assertFalse(segmented);
+		assertEquals(0, server.getRangeRequestCount());
+	}
+
+	@Test
+	public void TestSegmentedDownloader_fallbackToSingleStream() throws Exception {
+		server = new LocalHttpServer(3 * 1024 * 1024, false);
+		String testURL = server.getURL("/large.bin");
+		File outputFile = File.createTempFile("segmented", ".out");
+		outputFile.deleteOnExit();
+
+		URLDownloader fd = new URLDownloader(testURL, "");
+		fd.setSegmentCount(4);
+		DownloaderStatus status = fd.downloadFile(testURL, outputFile.getPath());
+
+		assertEquals(DownloaderStatus.COMPLETE, status);
+		assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+	}
+}
@@ -0,0 +1,114 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.BandwidthLimiter.Throttle;
+import com.pugkung.filedownload.main.DirectBufferPool;
+import com.pugkung.filedownload.main.FileDownloader.DownloaderStatus;
+import com.pugkung.filedownload.main.StreamCopier;
+import com.pugkung.filedownload.main.StreamCopier.TransferEngine;
+import com.pugkung.filedownload.main.StreamCopier.TransferListener;
+import com.pugkung.filedownload.main.URLDownloader;
+import com.pugkung.filedownload.main.WriteBehindWriter;
+
+public class StreamCopierTester {
+
+	private byte[] copyWith(StreamCopier copier, byte[] data, AtomicLong notifiedBytes) throws IOException {
+		File outputFile = File.createTempFile("copier", ".out");
+		outputFile.deleteOnExit();
+
+		try (FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE)) {
+			long copied = copier.copy(new ByteArrayInputStream(data), out, 0, new TransferListener() {
+				public void chunkWritten(ByteBuffer chunk, long totalBytes) {
+					notifiedBytes.addAndGet(chunk.remaining());
+				}
+			});
+			assertEquals(data.length, copied);
+		}
+		return Files.readAllBytes(outputFile.toPath());
+	}
+
+	@Test
+	public void TestStreamCopier_nioEngine() throws Exception {
+		byte[] data = new byte[300 * 1024 + 5];
+		new Random(1).nextBytes(data);
+		DirectBufferPool pool = new DirectBufferPool(16 * 1024, 4);
+		AtomicLong notifiedBytes = new AtomicLong();
+
+		byte[] result = copyWith(new StreamCopier(TransferEngine.NIO, pool), data, notifiedBytes);
+
+		assertArrayEquals(data, result);
+		assertEquals(data.length, notifiedBytes.get());
+		assertEquals(1, pool.getPooledCount());
+	}
+
+	@Test
+	public void TestStreamCopier_commonsIOEngine() throws Exception {
+		byte[] data = new byte[300 * 1024 + 5];
+		new Random(2).nextBytes(data);
+		AtomicLong notifiedBytes = new AtomicLong();
+
+		byte[] result = copyWith(new StreamCopier(TransferEngine.COMMONS_IO), data, notifiedBytes);
+
+		assertArrayEquals(data, result);
+		assertEquals(data.length, notifiedBytes.get());
+	}
+
+	@Test
+	public void TestStreamCopier_urlDownloaderWithNioEngine() throws Exception {
+		LocalHttpServer server = new LocalHttpServer(200 * 1024, false);
+		try {
+			String testURL = server.getURL("/file.bin");
+			File outputFile = File.createTempFile("copier", ".out");
+			outputFile.deleteOnExit();
+
+			URLDownloader fd = new URLDownloader(testURL, "");
+			fd.setResumeEnabled(false);
+			fd.setTransferEngine(TransferEngine.NIO);
+			DownloaderStatus status = fd.downloadFile(testURL, outputFile.getPath());
+
+			assertEquals(DownloaderStatus.COMPLETE, status);
+			assertArrayEquals(server.getContent(), Files.readAllBytes(outputFile.toPath()));
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void TestStreamCopier_writeBehindEngine() throws Exception {
+		byte[] data = new byte[300 * 1024 + 5];
+		new Random(3).nextBytes(data);
+		WriteBehindWriter writer = new WriteBehindWriter(new DirectBufferPool(16 * 1024, 8), 64 * 1024, 2);
+		StreamCopier copier = new StreamCopier(TransferEngine.WRITE_BEHIND, (Throttle) null, MessageDigest.getInstance("SHA-256"));
+		copier.setWriteBehindWriter(writer);
+		File outputFile = File.createTempFile("copier", ".out");
+		outputFile.deleteOnExit();
+
+		try (FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE)) {
+			long copied = copier.copy(new ByteArrayInputStream(data), out, 0, new TransferListener() {
+				public void chunkWritten(ByteBuffer chunk, long totalBytes) throws IOException {
+					copier.flush();
+					assertEquals(totalBytes, out.size());
+				}
+			});
+			assertEquals(data.length, copied);
+		}
+
+		assertArrayEquals(data, Files.readAllBytes(outputFile.toPath()));
+		assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), copier.getDigests()[0].digest());
+		assertEquals(writer.getBudgetBuffers(), writer.getAvailableBuffers());
+	}
+}
@@ -0,0 +1,106 @@
+package com.pugkung.filedownload.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.pugkung.filedownload.main.DirectBufferPool;
+import com.pugkung.filedownload.main.WriteBehindWriter;
+
+public class WriteBehindWriterTester {
+
+	private final static int BUFFER_SIZE = 4096;
+
+	private static ByteBuffer filled(WriteBehindWriter writer, int value) throws IOException {
+		ByteBuffer buffer = writer.acquireBuffer();
+		while (buffer.hasRemaining()) {
+			buffer.put((byte) value);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	@Test
+	public void TestWriteBehindWriter_writeSequentiallyFromPosition() throws Exception {
+		WriteBehindWriter writer = new WriteBehindWriter(new DirectBufferPool(BUFFER_SIZE, 8), 8 * BUFFER_SIZE, 3);
+		File outputFile = File.createTempFile("writebehind", ".out");
+		outputFile.deleteOnExit();
+
+		int buffers = 100;
+		try (FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE)) {
+			WriteBehindWriter.Sink sink = writer.open(out, 10);
+			for (int i = 0; i < buffers; i++) {
+				sink.write(filled(writer, i));
+			}
+			sink.close();
+		}
+
+		byte[] written = Files.readAllBytes(outputFile.toPath());
+		assertEquals(10 + buffers * BUFFER_SIZE, written.length);
+		for (int i = 0; i < buffers; i++) {
+			assertEquals((byte) i, written[10 + i * BUFFER_SIZE]);
+			assertEquals((byte) i, written[10 + (i + 1) * BUFFER_SIZE - 1]);
+		}
+		assertEquals(8, writer.getAvailableBuffers());
+	}
+
+	@Test
+	public void TestWriteBehindWriter_blockWhenBudgetIsExhausted() throws Exception {
+		WriteBehindWriter writer = new WriteBehindWriter(new DirectBufferPool(BUFFER_SIZE, 8), 2 * BUFFER_SIZE, 1);
+		ByteBuffer first = writer.acquireBuffer();
+		writer.acquireBuffer();
+		assertEquals(0, writer.getAvailableBuffers());
+
+		CompletableFuture<ByteBuffer> third = CompletableFuture.supplyAsync(() -> {
+			try {
+				return writer.acquireBuffer();
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+		});
+		try {
+			third.get(200, TimeUnit.MILLISECONDS);
+			fail("The budget should be exhausted");
+		} catch (TimeoutException ex) {
+			// expected
+		}
+
+		writer.releaseBuffer(first);
+		assertNotNull(third.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void TestWriteBehindWriter_reportWriteErrors() throws Exception {
+		WriteBehindWriter writer = new WriteBehindWriter(new DirectBufferPool(BUFFER_SIZE, 8), 4 * BUFFER_SIZE, 1);
+		File outputFile = File.createTempFile("writebehind", ".out");
+		outputFile.deleteOnExit();
+
+		try (FileChannel readOnly = FileChannel.open(outputFile.toPath(), StandardOpenOption.READ)) {
+			WriteBehindWriter.Sink sink = writer.open(readOnly, 0);
+			sink.write(filled(writer, 1));
+			try {
+				sink.flush();
+				fail("Writing to a read-only channel should fail");
+			} catch (IOException ex) {
+				// expected
+			}
+			try {
+				sink.write(filled(writer, 2));
+				fail("A failed sink should refuse further writes");
+			} catch (IOException ex) {
+				// expected
+			}
+		}
+		assertEquals(4, writer.getAvailableBuffers());
+	}
+}